@@ -8,6 +8,8 @@ import tech.ydb.query.tools.SessionRetryContext;
 import tech.ydb.topic.TopicClient;
 
 import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Пример работы с топиками в YDB
@@ -24,7 +26,9 @@ public class Application {
                 .withConnectTimeout(Duration.ofSeconds(10))
                 .build();
              QueryClient queryClient = QueryClient.newClient(grpcTransport).build();
-             TopicClient topicClient = TopicClient.newClient(grpcTransport).build()
+             TopicClient topicClient = TopicClient.newClient(grpcTransport).build();
+             // Цикл чтения топика блокируется в ожидании сообщений, поэтому работает в виртуальном потоке
+             ExecutorService readerExecutor = Executors.newVirtualThreadPerTaskExecutor()
         ) {
             var retryCtx = SessionRetryContext.create(queryClient).build();
 
@@ -56,7 +60,7 @@ public class Application {
             // Запускаем воркер для чтения сообщений из топика в отдельном потоке
             // он будет получать события об обновлении тикетов и эмулировать отправку 
             // уведомлений
-            var readerWorker = new ReaderWorker(topicClient);
+            var readerWorker = new ReaderWorker(topicClient, readerExecutor);
             readerWorker.run();
 
             LOGGER.info("Update status all tickets: OPEN -> IN_PROGRESS ");
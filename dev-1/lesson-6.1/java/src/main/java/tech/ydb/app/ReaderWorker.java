@@ -2,6 +2,7 @@ package tech.ydb.app;
 
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,10 +20,16 @@ public class ReaderWorker {
     private static final Logger LOGGER = LoggerFactory.getLogger(Application.class);
 
     private final SyncReader reader;
+    private final Executor executor;
 
     private volatile CompletableFuture<Void> readerJob;
 
-    public ReaderWorker(TopicClient topicClient) {
+    /**
+     * @param executor пул для фонового цикла чтения. Цикл почти всё время ждёт в reader.receive,
+     *                 поэтому не должен занимать потоки общего ForkJoinPool.
+     */
+    public ReaderWorker(TopicClient topicClient, Executor executor) {
+        this.executor = executor;
         // Создаем синхронный reader для чтения сообщений из топика task_status
         this.reader = topicClient.createSyncReader(
                 ReaderSettings.newBuilder()
@@ -64,7 +71,8 @@ public class ReaderWorker {
                     }
 
                     LOGGER.info("Stopped read worker!");
-                }
+                },
+                executor
         );
     }
 
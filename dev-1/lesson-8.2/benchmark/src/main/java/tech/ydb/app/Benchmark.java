@@ -0,0 +1,1063 @@
+package tech.ydb.app;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.ydb.common.transaction.TxMode;
+import tech.ydb.core.Status;
+import tech.ydb.core.StatusCode;
+import tech.ydb.core.UnexpectedResultException;
+import tech.ydb.core.grpc.GrpcTransport;
+import tech.ydb.query.QueryClient;
+import tech.ydb.query.tools.SessionRetryContext;
+import tech.ydb.table.TableClient;
+import tech.ydb.table.query.Params;
+import tech.ydb.table.values.ListType;
+import tech.ydb.table.values.ListValue;
+import tech.ydb.table.values.PrimitiveType;
+import tech.ydb.table.values.PrimitiveValue;
+import tech.ydb.table.values.StructType;
+import tech.ydb.topic.TopicClient;
+
+/**
+ * Нагрузочные сценарии для локальной базы YDB.
+ * Вынесены в отдельный модуль, чтобы не попадать в сборку приложения: сначала mvn install в lesson-8.2/java,
+ * затем mvn compile exec:java в lesson-8.2/benchmark. Выводит пропускную способность каждого сценария.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class Benchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Benchmark.class);
+    private static final String CONNECTION_STRING = "grpc://localhost:2136/local";
+
+    private static final int ISSUES_COUNT = 10_000;
+    private static final int REQUESTS_COUNT = 100_000;
+    private static final int BLOCKING_THREADS = 64;
+    private static final int IN_FLIGHT_REQUESTS = 1_000;
+    private static final int CONCURRENT_CALLERS = 10_000;
+    private static final int SCAN_ISSUES_COUNT = 2_000_000;
+    private static final int SAVE_CHUNK_SIZE = 10_000;
+    private static final int PARAMS_ROWS = 10_000;
+    private static final int PARAMS_ITERATIONS = 2_000;
+    private static final int CACHE_SIZE = 2_000;
+    private static final int CACHE_HOT_IDS = 1_000;
+    private static final Duration SNAPSHOT_INTERVAL = Duration.ofSeconds(10);
+    private static final int AUTHORS_COUNT = 100;
+    // Resolved timestamp changefeed issues приходит раз в секунду
+    private static final Duration ID_FILTER_MAX_LAG = Duration.ofSeconds(3);
+    private static final int STORE_ISSUES_COUNT = 5_000_000;
+    private static final int GRAPH_EDGES_COUNT = 1_000_000;
+    private static final int TRAVERSALS_COUNT = 100;
+    private static final int BULK_ROWS_COUNT = 50_000_000;
+    private static final int BULK_IN_FLIGHT = 16;
+    private static final long CSV_BYTES = 10L << 30;
+    private static final int STAND_IN_ROWS = 500_000;
+    private static final int STAND_IN_MAX_ROWS = 8_000;
+
+    private final SessionRetryContext retryCtx;
+    private final TopicClient topicClient;
+    private final SchemaYdbRepository schemaYdbRepository;
+    private final IssueYdbRepository issueYdbRepository;
+    private final KeyValueApiYdbRepository keyValueApiYdbRepository;
+    private final QueryServiceHelper queryServiceHelper;
+    // Один контроллер размеров пачек на все пакетные операции
+    private final BatchSizeController batchSizes = new BatchSizeController();
+    // Режим потоков для блокирующих вызовов и циклов чтения changefeed: -Dexecution.mode=virtual|platform
+    private final ExecutionMode executionMode = ExecutionMode.fromSystemProperties();
+    private final ExecutorService workerExecutor = executionMode.newExecutor();
+    // Кэш тикетов обновляется из changefeed на протяжении всех сценариев.
+    // Оба заменяются восстановленными из снимка при перезапуске, см. benchmarkCacheSnapshot
+    private IssueCache issueCache;
+    // Сообщения подтверждаются только вместе со снимком кэша, см. IssueCacheSnapshotter
+    private IssueChangefeedWorker changefeedWorker;
+    private final QueryResultCache resultCache = new QueryResultCache(64L << 20);
+
+    private List<Long> ids;
+    private IssueCacheSnapshotter snapshotter;
+    private IssueIdFilter idFilter;
+
+    private Benchmark(SessionRetryContext retryCtx, tech.ydb.table.SessionRetryContext retryTableCtx,
+                      TopicClient topicClient) {
+        this.retryCtx = retryCtx;
+        this.topicClient = topicClient;
+        this.schemaYdbRepository = new SchemaYdbRepository(retryCtx);
+        this.issueYdbRepository = new IssueYdbRepository(retryCtx);
+        this.keyValueApiYdbRepository = new KeyValueApiYdbRepository(retryTableCtx);
+        this.queryServiceHelper = new QueryServiceHelper(retryCtx);
+        this.issueCache = new IssueCache(issueYdbRepository, CACHE_SIZE);
+        this.changefeedWorker = new IssueChangefeedWorker(topicClient, "issue_cache", workerExecutor, true);
+
+        issueYdbRepository.useBatchSizeController(batchSizes);
+        keyValueApiYdbRepository.useBatchSizeController(batchSizes);
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        // Сценарии без обращения к базе
+        benchmarkParamsConstruction();
+        benchmarkIssueStores();
+        benchmarkAdaptiveBatching();
+
+        try (GrpcTransport grpcTransport = GrpcTransport
+                .forConnectionString(CONNECTION_STRING)
+                .withConnectTimeout(Duration.ofSeconds(10))
+                .build();
+             QueryClient queryClient = QueryClient.newClient(grpcTransport)
+                     .sessionPoolMaxSize(IN_FLIGHT_REQUESTS)
+                     .build();
+             TopicClient topicClient = TopicClient.newClient(grpcTransport).build();
+             TableClient tableClient = TableClient.newClient(grpcTransport)
+                     .sessionPoolSize(1, BULK_IN_FLIGHT)
+                     .build()
+        ) {
+            new Benchmark(
+                    SessionRetryContext.create(queryClient).build(),
+                    tech.ydb.table.SessionRetryContext.create(tableClient).build(),
+                    topicClient
+            ).run();
+        }
+    }
+
+    private void run() throws InterruptedException, IOException {
+        schemaYdbRepository.dropSchema();
+        schemaYdbRepository.createSchema();
+
+        changefeedWorker.addListener(issueCache::apply);
+        // Пока изменение не удаётся применить, тикет читается из базы, а не из кэша
+        changefeedWorker.addFailedIdListener(issueCache::invalidate);
+        changefeedWorker.start();
+
+        ids = prepareIssues(issueYdbRepository);
+
+        // Сценарии на таблице из ISSUES_COUNT тикетов
+        benchmarkAsyncQueries();
+        benchmarkExecutionModes();
+        benchmarkFindByIdBatching();
+        benchmarkIssueCache();
+        benchmarkCacheSnapshot();
+        benchmarkAuthorIssueCache();
+        benchmarkQueryResultCache();
+        benchmarkIssueIdFilter();
+        benchmarkReplica();
+        benchmarkLinkGraph();
+        benchmarkLinkTraversal();
+        benchmarkWriteThrough();
+        benchmarkGroupCommit();
+
+        // Записи выше доходят до кэшей через changefeed
+        LOGGER.info("IssueCache: {} changes applied, staleness last {} ms, max {} ms",
+                issueCache.appliedChanges(), issueCache.lastStalenessMillis(), issueCache.maxStalenessMillis());
+        LOGGER.info("QueryResultCache: {} table invalidations", resultCache.invalidationCount());
+
+        benchmarkQueryRegistry();
+
+        // Сценарии полного чтения таблицы выполняются на таблице с миллионами тикетов
+        addIssues(issueYdbRepository, SCAN_ISSUES_COUNT);
+        LOGGER.info("IssueIdFilter: {} ids after {} rebuilds, {} bytes, saturated {}", idFilter.count(),
+                idFilter.rebuildCount(), idFilter.memoryBytes(), idFilter.isSaturated());
+
+        benchmarkStreamingReads();
+        benchmarkPaginatedScan();
+        benchmarkParallelScan();
+        benchmarkRowAllocations();
+        benchmarkReadTable();
+        benchmarkBulkLoad();
+        benchmarkCsvImportResume();
+        benchmarkCsvImport();
+
+        batchSizes.operations().forEach(operation -> LOGGER.info(
+                "BatchSizeController {}: batch size {}, {} rows/s, {} decreases", operation.name(),
+                operation.batchSize(), (long) operation.rowsPerSecond(), operation.decreases()));
+
+        snapshotter.close();
+        changefeedWorker.close();
+        workerExecutor.shutdown();
+    }
+
+    /**
+     * Блокирующие вызовы, где число одновременных запросов ограничено числом потоков,
+     * против асинхронных, где оно ограничено только семафором
+     */
+    private void benchmarkAsyncQueries() throws InterruptedException {
+        runBlocking("findByIds (blocking, " + BLOCKING_THREADS + " threads)", BLOCKING_THREADS,
+                () -> issueYdbRepository.findByIds(List.of(randomId(ids))));
+
+        runAsync("findByIdsAsync (" + IN_FLIGHT_REQUESTS + " in-flight)", IN_FLIGHT_REQUESTS,
+                () -> issueYdbRepository.findByIdsAsync(List.of(randomId(ids))));
+    }
+
+    /**
+     * Блокирующие вызовы из 10 000 одновременных потоков. В режиме VIRTUAL число потоков ОС
+     * остаётся небольшим; закрепление виртуальных потоков можно проверить с -Djdk.tracePinnedThreads=short
+     */
+    private void benchmarkExecutionModes() {
+        runConcurrentCallers("findByIds/updateStatus (" + executionMode + ", " + CONCURRENT_CALLERS + " callers)",
+                executionMode, () -> {
+                    var id = randomId(ids);
+                    issueYdbRepository.findByIds(List.of(id));
+                    issueYdbRepository.updateStatus(id, "open");
+                });
+    }
+
+    /**
+     * Точечные чтения отдельными запросами против тех же чтений, объединённых в пачки через AS_TABLE($ids)
+     */
+    private void benchmarkFindByIdBatching() throws InterruptedException {
+        runAsync("findByIdAsync (" + REQUESTS_COUNT + " round trips)", IN_FLIGHT_REQUESTS,
+                () -> issueYdbRepository.findByIdAsync(randomId(ids)));
+
+        try (var batcher = new FindByIdBatcher(issueYdbRepository, 100, Duration.ofMillis(2))) {
+            runAsync("FindByIdBatcher.findById", IN_FLIGHT_REQUESTS, () -> batcher.findById(randomId(ids)));
+
+            LOGGER.info("FindByIdBatcher: {} round trips, avg batch {}, max batch {}, avg added latency {} us",
+                    batcher.batchCount(), batcher.averageBatchSize(), batcher.maxBatchSize(),
+                    batcher.averageAddedLatencyMicros());
+        }
+    }
+
+    /**
+     * Чтения через кэш: 95% запросов приходятся на горячие тикеты, которые помещаются в кэш
+     */
+    private void benchmarkIssueCache() throws InterruptedException {
+        runAsync("IssueCache.findByIdAsync (hot " + CACHE_HOT_IDS + " of " + ISSUES_COUNT + ")", IN_FLIGHT_REQUESTS,
+                () -> issueCache.findByIdAsync(hotId(ids)));
+
+        LOGGER.info("IssueCache: hit ratio {}, evictions {}, size {}",
+                issueCache.hitRatio(), issueCache.evictionCount(), issueCache.size());
+    }
+
+    /**
+     * Перезапуск: холодный кэш против кэша, восстановленного из снимка и дополненного хвостом changefeed.
+     * Дальше сценарии работают с перезапущенным читателем changefeed и восстановленным кэшем.
+     */
+    private void benchmarkCacheSnapshot() throws InterruptedException, IOException {
+        var snapshotPath = Path.of(System.getProperty("java.io.tmpdir"), "issue-cache.snapshot");
+        try (var firstSnapshotter = new IssueCacheSnapshotter(issueCache, changefeedWorker, snapshotPath)) {
+            firstSnapshotter.snapshot();
+            LOGGER.info("IssueCacheSnapshotter: {} issues written in {} ms",
+                    firstSnapshotter.lastSnapshotIssues(), firstSnapshotter.lastSnapshotMillis());
+        }
+
+        // Процесс останавливается: изменения после снимка остаются неподтверждёнными, пока он не запустится снова
+        changefeedWorker.close();
+        for (int i = 0; i < CACHE_HOT_IDS; i++) {
+            issueYdbRepository.updateStatusAsync(ids.get(i), "reopened").join();
+        }
+
+        var coldCache = new IssueCache(issueYdbRepository, CACHE_SIZE);
+        runAsync("IssueCache (cold start)", IN_FLIGHT_REQUESTS, () -> coldCache.findByIdAsync(hotId(ids)));
+        LOGGER.info("IssueCache (cold start): {} lookups went to YDB", coldCache.missCount());
+
+        var warmCache = new IssueCache(issueYdbRepository, CACHE_SIZE);
+        var restartedWorker = new IssueChangefeedWorker(topicClient, "issue_cache", workerExecutor, true);
+        restartedWorker.addListener(warmCache::apply);
+        restartedWorker.addFailedIdListener(warmCache::invalidate);
+
+        var restoreStart = System.nanoTime();
+        var restored = IssueCacheSnapshotter.restore(snapshotPath, warmCache, restartedWorker);
+        LOGGER.info("IssueCache (warm start): {} issues restored in {} ms, up to virtual timestamp {}, gaps in {}",
+                restored.issues(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - restoreStart), restored.step(),
+                restored.gaps());
+
+        // Хвост изменений после снимка применяется к восстановленному кэшу до того, как он начнёт отвечать
+        var restartedAt = System.currentTimeMillis();
+        restartedWorker.start();
+        while (restartedWorker.resolvedStep() < restartedAt) {
+            Thread.sleep(100);
+        }
+        LOGGER.info("IssueCache (warm start): {} changes replayed from changefeed in {} ms",
+                warmCache.appliedChanges(), System.currentTimeMillis() - restartedAt);
+
+        runAsync("IssueCache (warm start)", IN_FLIGHT_REQUESTS, () -> warmCache.findByIdAsync(hotId(ids)));
+        LOGGER.info("IssueCache (warm start): {} lookups went to YDB", warmCache.missCount());
+
+        issueCache = warmCache;
+        changefeedWorker = restartedWorker;
+        // Сообщения changefeed подтверждаются только снимками, поэтому они делаются до конца всех сценариев
+        snapshotter = new IssueCacheSnapshotter(issueCache, changefeedWorker, snapshotPath);
+        snapshotter.start(SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * Поиск по автору с распределением Ципфа: несколько авторов запрашиваются намного чаще остальных.
+     * Чтение индекса на каждый вызов против кэша id тикетов автора
+     */
+    private void benchmarkAuthorIssueCache() throws InterruptedException {
+        schemaYdbRepository.createAuthorIndex();
+        var zipfianAuthor = zipfianSampler(AUTHORS_COUNT, 1.0);
+        runAsync("findByAuthorAsync (index read per call)", IN_FLIGHT_REQUESTS,
+                () -> issueYdbRepository.findByAuthorAsync("Author " + zipfianAuthor.getAsInt()));
+
+        var authorIssueCache = new AuthorIssueCache(issueYdbRepository, issueCache, ISSUES_COUNT);
+        changefeedWorker.addListener(authorIssueCache::apply);
+        runAsync("AuthorIssueCache.findByAuthorAsync", IN_FLIGHT_REQUESTS,
+                () -> authorIssueCache.findByAuthorAsync("Author " + zipfianAuthor.getAsInt()));
+
+        LOGGER.info("AuthorIssueCache: {} index reads instead of {}, {} saved, evictions {}",
+                authorIssueCache.indexReads(), REQUESTS_COUNT, authorIssueCache.indexReadsSaved(),
+                authorIssueCache.evictionCount());
+    }
+
+    /**
+     * Те же запросы findByAuthor через кэш результатов, который сбрасывается изменениями issues
+     */
+    private void benchmarkQueryResultCache() throws InterruptedException {
+        var zipfianAuthor = zipfianSampler(AUTHORS_COUNT, 1.0);
+        changefeedWorker.addListener(resultCache::apply);
+        var cachedIssueRepository = new IssueYdbRepository(retryCtx, resultCache);
+        runAsync("findByAuthorAsync (QueryResultCache)", IN_FLIGHT_REQUESTS,
+                () -> cachedIssueRepository.findByAuthorAsync("Author " + zipfianAuthor.getAsInt()));
+
+        LOGGER.info("QueryResultCache: hits {}, misses {}, {} bytes",
+                resultCache.hitCount(), resultCache.missCount(), resultCache.bytes());
+    }
+
+    /**
+     * Половина точечных чтений приходится на несуществующие тикеты: без фильтра и с фильтром существования id
+     */
+    private void benchmarkIssueIdFilter() throws InterruptedException {
+        runAsync("findByIdAsync (50% absent)", IN_FLIGHT_REQUESTS,
+                () -> issueYdbRepository.findByIdAsync(ThreadLocalRandom.current().nextBoolean()
+                        ? randomId(ids)
+                        : ThreadLocalRandom.current().nextLong()));
+
+        // Фильтр остаётся подключённым до конца: когда следующие сценарии его переполнят, он пересоберётся
+        idFilter = new IssueIdFilter(2L * ISSUES_COUNT);
+        idFilter.subscribe(changefeedWorker, ID_FILTER_MAX_LAG);
+        idFilter.fillAsync(new ParallelIssueScanner(issueYdbRepository, 64, 16, 10_000)).join();
+
+        var falsePositives = 0;
+        for (int i = 0; i < REQUESTS_COUNT; i++) {
+            // Случайный Int64 почти наверняка не совпадает ни с одним из id тикетов
+            if (idFilter.mightContain(ThreadLocalRandom.current().nextLong())) {
+                falsePositives++;
+            }
+        }
+        LOGGER.info("IssueIdFilter: false positive rate {}, {} bytes per million ids",
+                (double) falsePositives / REQUESTS_COUNT, idFilter.memoryBytes() * 1_000_000 / idFilter.count());
+
+        issueYdbRepository.useIdFilter(idFilter);
+        var absentBefore = idFilter.absentCount();
+        runAsync("findByIdAsync (50% absent, IssueIdFilter)", IN_FLIGHT_REQUESTS,
+                () -> issueYdbRepository.findByIdAsync(ThreadLocalRandom.current().nextBoolean()
+                        ? randomId(ids)
+                        : ThreadLocalRandom.current().nextLong()));
+        LOGGER.info("IssueIdFilter: {} round trips saved, {} erases skipped during fill, "
+                        + "{} lookups went to YDB while changefeed lagged", idFilter.absentCount() - absentBefore,
+                idFilter.skippedErases(), idFilter.staleCount());
+    }
+
+    /**
+     * Локальная копия issues и links: чтения без обращения к YDB, пока копия достаточно свежая
+     */
+    private void benchmarkReplica() throws InterruptedException {
+        try (var replica = new IssueLinkReplica(topicClient, issueYdbRepository, workerExecutor,
+                2 * ISSUES_COUNT)) {
+            var replicaStart = System.currentTimeMillis();
+            // Копия заполняется чтением таблиц при каждом старте, затем догоняет changefeed
+            replica.start().join();
+            while (!replica.isCurrentAt(replicaStart)) {
+                Thread.sleep(100);
+            }
+            LOGGER.info("IssueLinkReplica: {} issues, caught up in {} ms", replica.size(),
+                    System.currentTimeMillis() - replicaStart);
+
+            runAsync("IssueLinkReplica.findById", IN_FLIGHT_REQUESTS,
+                    () -> CompletableFuture.completedFuture(replica.findById(randomId(ids))));
+            LOGGER.info("IssueLinkReplica: lag {} ms", replica.lagMillis());
+        }
+    }
+
+    /**
+     * Граф связей в памяти: CSR-сегменты против Map<Long, Set<Long>> на 1 млн рёбер
+     */
+    private void benchmarkLinkGraph() throws InterruptedException {
+        addLinks(issueYdbRepository, ids, GRAPH_EDGES_COUNT);
+
+        try (var linkGraph = new LinkGraphIndex(topicClient, workerExecutor, 100_000)) {
+            linkGraph.start();
+            measureStore("LinkGraphIndex", () -> {
+                linkGraph.load(issueYdbRepository, 64, 16);
+
+                return linkGraph;
+            }, graph -> 0L);
+            LOGGER.info("LinkGraphIndex: {} edges, {} bytes per million edges", linkGraph.edgeCount(),
+                    linkGraph.memoryBytes() * 1_000_000 / Math.max(1, linkGraph.edgeCount()));
+
+            var adjacency = measureStore("Map<Long, Set<Long>>", () -> {
+                var map = new HashMap<Long, Set<Long>>();
+                issueYdbRepository.streamLinksRangeAsync(Long.MIN_VALUE, Long.MAX_VALUE, (source, destination) ->
+                        map.computeIfAbsent(source, key -> new HashSet<>()).add(destination)).join();
+
+                return map;
+            }, map -> 0L);
+
+            runAsync("LinkGraphIndex.neighbors", IN_FLIGHT_REQUESTS,
+                    () -> CompletableFuture.completedFuture(linkGraph.neighbors(randomId(ids))));
+            runAsync("Map<Long, Set<Long>> neighbors", IN_FLIGHT_REQUESTS,
+                    () -> CompletableFuture.completedFuture(adjacency.getOrDefault(randomId(ids), Set.of())
+                            .stream().mapToLong(Long::longValue).toArray()));
+            runAsync("LinkGraphIndex.bfs (3 hops, limit 1000)", IN_FLIGHT_REQUESTS,
+                    () -> CompletableFuture.completedFuture(linkGraph.bfs(randomId(ids), 3, 1_000)));
+        }
+    }
+
+    /**
+     * Обход связей в базе на графе из {@link #benchmarkLinkGraph}: запрос на уровень против запроса на тикет
+     */
+    private void benchmarkLinkTraversal() {
+        measureTraversals("findLinkedWithin (query per level)", issueYdbRepository, "findLinkedWithin.level",
+                () -> issueYdbRepository.findLinkedWithin(randomId(ids), 3, 5_000).length);
+        measureTraversals("naive traversal (query per issue)", issueYdbRepository, "findLinkedIds",
+                () -> naiveLinkedWithin(issueYdbRepository, randomId(ids), 3, 5_000).length);
+    }
+
+    /**
+     * Запись через кэш: каждый вызывающий пишет свой тикет и сразу читает его через кэш
+     */
+    private void benchmarkWriteThrough() throws InterruptedException {
+        var writeThroughRepository = new WriteThroughIssueRepository(issueYdbRepository, issueCache);
+        var nextOwnId = new AtomicInteger();
+        var ownId = ThreadLocal.withInitial(() -> ids.get(nextOwnId.getAndIncrement() % ids.size()));
+        runConcurrentCallers("updateStatus + findById (write-through, " + executionMode + ")", executionMode, () -> {
+            var id = ownId.get();
+
+            writeThroughRepository.updateStatusAsync(id, "status " + ThreadLocalRandom.current().nextInt()).join();
+            writeThroughRepository.findById(id);
+        });
+        LOGGER.info("WriteThroughIssueRepository: {} older changes skipped", issueCache.skippedChanges());
+
+        runAsync("WriteThroughIssueRepository.updateStatusAsync + findByIdAsync", IN_FLIGHT_REQUESTS, () -> {
+            var id = hotId(ids);
+
+            return writeThroughRepository.updateStatusAsync(id, "open")
+                    .thenCompose(ignored -> writeThroughRepository.findByIdAsync(id));
+        });
+    }
+
+    /**
+     * Одиночные записи, каждая - отдельная транзакция, против тех же записей с групповым коммитом
+     */
+    private void benchmarkGroupCommit() throws InterruptedException {
+        runAsync("addIssueAsync (per-call tx)", IN_FLIGHT_REQUESTS,
+                () -> issueYdbRepository.addIssueAsync("Benchmark", "Author"));
+        runAsync("updateStatusAsync (per-call tx)", IN_FLIGHT_REQUESTS,
+                () -> issueYdbRepository.updateStatusAsync(randomId(ids), "open"));
+
+        try (var writer = new GroupCommitWriter(issueYdbRepository, 500, Duration.ofMillis(5))) {
+            runAsync("GroupCommitWriter.addIssue", IN_FLIGHT_REQUESTS,
+                    () -> writer.addIssue("Benchmark", "Author"));
+            runAsync("GroupCommitWriter.updateStatus", IN_FLIGHT_REQUESTS,
+                    () -> writer.updateStatus(randomId(ids), "closed"));
+
+            LOGGER.info("GroupCommitWriter: {} transactions, avg batch {}",
+                    writer.transactionCount(), writer.averageBatchSize());
+        }
+    }
+
+    /**
+     * Литерал в тексте запроса, где каждый новый id - новый текст и новая компиляция на сервере,
+     * против зарегистрированного параметризованного запроса, план которого берётся из кэша компиляции
+     */
+    private void benchmarkQueryRegistry() throws InterruptedException {
+        runBlocking("findById with literal id", BLOCKING_THREADS,
+                () -> queryServiceHelper.executeQuery(
+                        "SELECT id, title, created_at, author, COALESCE(link_count, 0), status " +
+                                "FROM issues WHERE id = " + randomId(ids) + ";",
+                        TxMode.SNAPSHOT_RO, Params.empty()));
+
+        runBlocking("findById registered", BLOCKING_THREADS, () -> issueYdbRepository.findById(randomId(ids)));
+
+        issueYdbRepository.queryRegistry().queries().forEach(query -> LOGGER.info(
+                "Query {}: compile cache hits {}, misses {}",
+                query.name(), query.compileCacheHits(), query.compileCacheMisses()));
+    }
+
+    /**
+     * Чтение всей таблицы в список против потокового чтения
+     */
+    private void benchmarkStreamingReads() {
+        measureHeap("findAll", () -> issueYdbRepository.findAll().size());
+        measureHeap("streamAll", () -> {
+            var count = new LongAdder();
+            issueYdbRepository.streamAll(issue -> count.increment());
+
+            return count.sum();
+        });
+    }
+
+    /**
+     * Чтение страницами по ключу с предвыборкой следующей страницы
+     */
+    private void benchmarkPaginatedScan() {
+        measureHeap("scanAll", () -> {
+            long count = 0;
+            for (var iterator = issueYdbRepository.scanAll(10_000); iterator.hasNext(); iterator.next()) {
+                count++;
+            }
+
+            return count;
+        });
+    }
+
+    /**
+     * Параллельное чтение непересекающихся диапазонов ключей
+     */
+    private void benchmarkParallelScan() {
+        for (var parallelism : List.of(1, 4, 16, 64)) {
+            var scanner = new ParallelIssueScanner(issueYdbRepository, 256, parallelism, 10_000);
+            measureHeap("ParallelIssueScanner (" + parallelism + " sessions)", () -> scanner.scan(issue -> { }));
+        }
+    }
+
+    /**
+     * Аллокации на строку: создание Issue на каждую строку против переиспользуемого IssueView
+     */
+    private void benchmarkRowAllocations() {
+        measureAllocations("streamAll (Issue per row)", () -> {
+            var count = new LongAdder();
+            issueYdbRepository.streamAll(issue -> count.add(issue.id() & 1));
+
+            return SCAN_ISSUES_COUNT;
+        });
+        measureAllocations("streamAllViews (IssueView)", () -> {
+            var count = new LongAdder();
+            issueYdbRepository.streamAllViews(view -> count.add(view.id() & 1));
+
+            return SCAN_ISSUES_COUNT;
+        });
+    }
+
+    /**
+     * ReadTable: чтение всей таблицы в список против потокового чтения 1/16 диапазона id с нужными колонками
+     */
+    private void benchmarkReadTable() {
+        measureHeap("readTable (full table, list)", () -> keyValueApiYdbRepository.readTable("/local/issues").size());
+        measureHeap("readIssues (1/16 key range, projected)", () -> {
+            var count = new LongAdder();
+            keyValueApiYdbRepository.readIssues("/local/issues", 0L, Long.MAX_VALUE / 8,
+                    List.of("id", "title", "created_at", "author"), 0, false,
+                    view -> Long.toString(view.id()).contains("0"), issue -> count.increment()).join();
+
+            return count.sum();
+        });
+    }
+
+    /**
+     * Загрузка 50 млн сгенерированных строк частями по 4 МБ: набор данных целиком в памяти не хранится
+     */
+    private void benchmarkBulkLoad() {
+        for (var inFlight : new int[]{1, BULK_IN_FLIGHT}) {
+            var bulkRows = inFlight == 1 ? BULK_ROWS_COUNT / 10 : BULK_ROWS_COUNT;
+            var loader = keyValueApiYdbRepository.bulkLoader("/local/issues", 4L << 20, inFlight);
+
+            measureHeap("BulkLoader (" + inFlight + " in-flight)", () -> {
+                var stats = loader.load(IntStream.range(0, bulkRows)
+                        .mapToObj(i -> new TitleAuthor("Issue " + i, "Author " + i % AUTHORS_COUNT))
+                        .iterator());
+                LOGGER.info("BulkLoader ({} in-flight): {} rows/s, {} MB/s, {} chunks, {} retries", inFlight,
+                        stats.rowsPerSecond(), stats.bytesPerSecond() >> 20, stats.chunks(), stats.retries());
+
+                return stats.rows();
+            });
+        }
+    }
+
+    /**
+     * Перезапуск импорта: повторный запуск ничего не отправляет, а загрузка с начала после потери
+     * прогресса перезаписывает те же строки и не добавляет новых
+     */
+    private void benchmarkCsvImportResume() throws IOException {
+        var smallCsv = generateCsv(100L << 20);
+        try {
+            var importProgressYdbRepository = new ImportProgressYdbRepository(retryCtx);
+            var csvImporter = new CsvImporter(keyValueApiYdbRepository, importProgressYdbRepository,
+                    "/local/issues", Runtime.getRuntime().availableProcessors(), 2 << 20, BULK_IN_FLIGHT);
+
+            var first = csvImporter.importFile(smallCsv);
+            var issuesBefore = countIssues(queryServiceHelper);
+            var rerun = csvImporter.importFile(smallCsv);
+
+            importProgressYdbRepository.saveProgressAsync(smallCsv.toAbsolutePath().normalize().toString(),
+                    new ImportProgressYdbRepository.ImportProgress(0, 0)).join();
+            var restart = csvImporter.importFile(smallCsv);
+
+            LOGGER.info("CsvImporter resume: {} rows imported, {} rows sent on rerun, {} rows sent after "
+                            + "progress reset, {} new issues after reset", first.rows(), rerun.rows(), restart.rows(),
+                    countIssues(queryServiceHelper) - issuesBefore);
+        } finally {
+            Files.delete(smallCsv);
+        }
+    }
+
+    /**
+     * Потоковый импорт сгенерированного CSV на 10 ГБ: разбор блоков идёт одновременно с их записью
+     */
+    private void benchmarkCsvImport() throws IOException {
+        var csv = generateCsv(CSV_BYTES);
+        try {
+            var parseThreads = Runtime.getRuntime().availableProcessors();
+            var csvImporter = new CsvImporter(keyValueApiYdbRepository, new ImportProgressYdbRepository(retryCtx),
+                    "/local/issues", parseThreads, 2 << 20, BULK_IN_FLIGHT);
+
+            measureHeap("CsvImporter (" + parseThreads + " parse threads)", () -> {
+                try {
+                    var stats = csvImporter.importFile(csv);
+                    LOGGER.info("CsvImporter: {} MB/s of CSV, {} rows/s, {} retries",
+                            (long) ((CSV_BYTES >> 20) * 1e9 / stats.elapsedNanos()), stats.rowsPerSecond(),
+                            stats.retries());
+
+                    return stats.rows();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } finally {
+            Files.delete(csv);
+        }
+    }
+
+    private static long countIssues(QueryServiceHelper queryServiceHelper) {
+        var resultSet = queryServiceHelper.executeQuery("SELECT COUNT(*) FROM issues;", TxMode.SNAPSHOT_RO,
+                Params.empty()).getResultSet(0);
+        resultSet.next();
+
+        return resultSet.getColumn(0).getUint64();
+    }
+
+    // CSV вида title,author с заголовком; часть заголовков в кавычках с запятой и переводом строки внутри
+    private static Path generateCsv(long bytes) throws IOException {
+        var csv = Files.createTempFile("title_author", ".csv");
+
+        try (var writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            writer.write("title,author\n");
+            for (long i = 0, written = 0; written < bytes; i++) {
+                var line = i % 100 == 0
+                        ? "\"Issue " + i + ",\nmultiline\",Author " + i % AUTHORS_COUNT + "\n"
+                        : "Issue " + i + ",Author " + i % AUTHORS_COUNT + "\n";
+                writer.write(line);
+                written += line.length();
+            }
+        }
+
+        return csv;
+    }
+
+    /**
+     * Построение параметра $ids на {@link #PARAMS_ROWS} строк: через Stream против BatchParams
+     */
+    private static void benchmarkParamsConstruction() {
+        var ids = ThreadLocalRandom.current().longs(PARAMS_ROWS).toArray();
+        var boxedIds = Arrays.stream(ids).boxed().toList();
+        var idsParams = BatchParams.of(StructType.of("id", PrimitiveType.Int64), "id");
+
+        // Прогрев JIT перед замерами
+        for (int i = 0; i < PARAMS_ITERATIONS; i++) {
+            buildIdsWithStream(boxedIds);
+            idsParams.ofInt64Column(ids);
+        }
+
+        measureParams("List<Long> + stream", () -> buildIdsWithStream(boxedIds).size());
+        measureParams("BatchParams long[]", () -> idsParams.ofInt64Column(ids).size());
+    }
+
+    // Так параметр строился до появления BatchParams
+    private static ListValue buildIdsWithStream(List<Long> ids) {
+        var structType = StructType.of("id", PrimitiveType.Int64);
+
+        return ListType.of(structType).newValue(
+                ids.stream().map(id -> structType.newValue("id", PrimitiveValue.newInt64(id))).toList()
+        );
+    }
+
+    private static void measureParams(String name, LongSupplier build) {
+        var threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var threadId = Thread.currentThread().threadId();
+
+        var allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        var start = System.nanoTime();
+
+        long sink = 0;
+        for (int i = 0; i < PARAMS_ITERATIONS; i++) {
+            sink += build.getAsLong();
+        }
+
+        var elapsedNanos = System.nanoTime() - start;
+        var allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        LOGGER.info("{}: {} us per {} rows, {} bytes allocated per row (checksum {})", name,
+                TimeUnit.NANOSECONDS.toMicros(elapsedNanos / PARAMS_ITERATIONS), PARAMS_ROWS,
+                allocated / PARAMS_ITERATIONS / PARAMS_ROWS, sink);
+    }
+
+    /**
+     * Заглушка сервера: задержка пачки растёт с числом строк, а пачки больше STAND_IN_MAX_ROWS отклоняются
+     * статусом OVERLOADED. Во второй фазе задержка на строку растёт в 5 раз, как при нагрузке на кластер,
+     * в третьей возвращается. Размер пачки должен уменьшиться во второй фазе и снова вырасти в третьей.
+     */
+    private static void benchmarkAdaptiveBatching() {
+        var controller = new BatchSizeController(16, 100, 100_000, 100, Duration.ofMillis(50));
+        var operation = controller.operation("standIn");
+
+        for (var microsPerRow : new long[]{5, 25, 5}) {
+            var start = System.nanoTime();
+            controller.execute("standIn", STAND_IN_ROWS, (from, to) -> standInBatch(to - from, microsPerRow)).join();
+            var elapsedNanos = System.nanoTime() - start;
+
+            LOGGER.info("BatchSizeController ({} us per row): batch size {}, {} rows/s, {} decreases so far",
+                    microsPerRow, operation.batchSize(), (long) (STAND_IN_ROWS * 1e9 / elapsedNanos),
+                    operation.decreases());
+        }
+    }
+
+    private static CompletableFuture<Integer> standInBatch(int rows, long microsPerRow) {
+        var delayed = CompletableFuture.delayedExecutor(1_000 + rows * microsPerRow, TimeUnit.MICROSECONDS);
+
+        return CompletableFuture.supplyAsync(() -> {
+            if (rows > STAND_IN_MAX_ROWS) {
+                throw new UnexpectedResultException("Stand-in is overloaded", Status.of(StatusCode.OVERLOADED));
+            }
+
+            return rows;
+        }, delayed);
+    }
+
+    /**
+     * Хранение {@link #STORE_ISSUES_COUNT} тикетов: объекты в куче против хранилища вне кучи
+     */
+    private static void benchmarkIssueStores() {
+        var ids = ThreadLocalRandom.current().longs(STORE_ISSUES_COUNT).toArray();
+
+        measureStore("ConcurrentHashMap<Long, Issue>", () -> {
+            var map = new ConcurrentHashMap<Long, Issue>(STORE_ISSUES_COUNT);
+            for (int i = 0; i < ids.length; i++) {
+                map.put(ids[i], syntheticIssue(ids[i], i));
+            }
+            for (int i = 0; i < ids.length; i++) {
+                map.get(ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+            }
+
+            return map;
+        }, map -> 0L);
+
+        measureStore("OffHeapIssueStore", () -> {
+            var store = new OffHeapIssueStore(STORE_ISSUES_COUNT);
+            for (int i = 0; i < ids.length; i++) {
+                store.put(syntheticIssue(ids[i], i));
+            }
+            for (int i = 0; i < ids.length; i++) {
+                store.get(ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+            }
+
+            return store;
+        }, OffHeapIssueStore::offHeapBytes);
+    }
+
+    private static Issue syntheticIssue(long id, int i) {
+        return new Issue(id, "Issue " + i, Instant.now(), "Author " + i % AUTHORS_COUNT, i % 10, i % 2 == 0 ? "open" : "closed");
+    }
+
+    /**
+     * Заполняет хранилище и выводит суммарное время сборок мусора, включая полную сборку
+     * с живым хранилищем, и занимаемую им память в куче и вне её.
+     */
+    private static <T> T measureStore(String name, Supplier<T> fill, ToLongFunction<T> offHeapBytes) {
+        var gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+        var memoryMXBean = ManagementFactory.getMemoryMXBean();
+
+        System.gc();
+        var heapBefore = memoryMXBean.getHeapMemoryUsage().getUsed();
+        var gcTimeBefore = gcBeans.stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+        var gcCountBefore = gcBeans.stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+
+        var store = fill.get();
+        System.gc();
+
+        var heapBytes = memoryMXBean.getHeapMemoryUsage().getUsed() - heapBefore;
+        var gcTime = gcBeans.stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum() - gcTimeBefore;
+        var gcCount = gcBeans.stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum() - gcCountBefore;
+
+        LOGGER.info("{}: {} MB heap, {} MB off-heap, {} GC runs, {} ms in GC", name, heapBytes >> 20,
+                offHeapBytes.applyAsLong(store) >> 20, gcCount, gcTime);
+
+        return store;
+    }
+
+    private static List<Long> prepareIssues(IssueYdbRepository issueYdbRepository) {
+        addIssues(issueYdbRepository, ISSUES_COUNT);
+
+        return issueYdbRepository.findAll().stream().map(Issue::id).toList();
+    }
+
+    private static void addIssues(IssueYdbRepository issueYdbRepository, int count) {
+        for (int chunkStart = 0; chunkStart < count; chunkStart += SAVE_CHUNK_SIZE) {
+            var titleAuthors = new ArrayList<TitleAuthor>();
+            for (int i = chunkStart; i < Math.min(count, chunkStart + SAVE_CHUNK_SIZE); i++) {
+                titleAuthors.add(new TitleAuthor("Issue " + i, "Author " + i % 100));
+            }
+            issueYdbRepository.saveAll(titleAuthors);
+        }
+    }
+
+    // Случайные рёбра между тикетами ids, записываются пачками без изменения link_count
+    private static void addLinks(IssueYdbRepository issueYdbRepository, List<Long> ids, int count) {
+        for (int chunkStart = 0; chunkStart < count; chunkStart += SAVE_CHUNK_SIZE) {
+            var chunkSize = Math.min(SAVE_CHUNK_SIZE, count - chunkStart);
+            var sources = new long[chunkSize];
+            var destinations = new long[chunkSize];
+            for (int i = 0; i < chunkSize; i++) {
+                sources[i] = randomId(ids);
+                destinations[i] = randomId(ids);
+            }
+            issueYdbRepository.saveLinksAsync(sources, destinations).join();
+        }
+    }
+
+    // Обход в ширину с отдельным запросом на каждый тикет фронта
+    private static long[] naiveLinkedWithin(IssueYdbRepository issueYdbRepository, long rootId, int maxHops, int limit) {
+        var visited = new HashSet<Long>();
+        visited.add(rootId);
+        var found = new ArrayList<Long>();
+        var frontier = List.of(rootId);
+
+        for (int hop = 0; hop < maxHops && !frontier.isEmpty() && found.size() < limit; hop++) {
+            var next = new ArrayList<Long>();
+            for (var id : frontier) {
+                for (var neighbor : issueYdbRepository.findLinkedIdsAsync(id).join()) {
+                    if (found.size() < limit && visited.add(neighbor)) {
+                        found.add(neighbor);
+                        next.add(neighbor);
+                    }
+                }
+                if (found.size() >= limit) {
+                    break;
+                }
+            }
+            frontier = next;
+        }
+
+        return found.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Последовательно выполняет TRAVERSALS_COUNT обходов и выводит среднюю задержку и число запросов на обход,
+     * посчитанное по выполнениям зарегистрированного запроса queryName
+     */
+    private static void measureTraversals(String name, IssueYdbRepository issueYdbRepository, String queryName,
+                                          LongSupplier traversal) {
+        var executionsBefore = queryExecutions(issueYdbRepository, queryName);
+        long found = 0;
+
+        var start = System.nanoTime();
+        for (int i = 0; i < TRAVERSALS_COUNT; i++) {
+            found += traversal.getAsLong();
+        }
+        var elapsedNanos = System.nanoTime() - start;
+
+        LOGGER.info("{}: {} ms per traversal, {} round trips per traversal, {} issues found per traversal", name,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos / TRAVERSALS_COUNT),
+                (queryExecutions(issueYdbRepository, queryName) - executionsBefore) / TRAVERSALS_COUNT,
+                found / TRAVERSALS_COUNT);
+    }
+
+    private static long queryExecutions(IssueYdbRepository issueYdbRepository, String queryName) {
+        return issueYdbRepository.queryRegistry().queries().stream()
+                .filter(query -> query.name().equals(queryName))
+                .mapToLong(query -> query.compileCacheHits() + query.compileCacheMisses())
+                .sum();
+    }
+
+    /**
+     * Случайные числа от 0 до n - 1 с распределением Ципфа: вероятность k-го значения пропорциональна 1 / (k + 1)^s
+     */
+    private static IntSupplier zipfianSampler(int n, double s) {
+        var cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, s);
+            cumulative[k] = sum;
+        }
+        var total = sum;
+
+        return () -> {
+            var index = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble(total));
+
+            return index >= 0 ? index : -index - 1;
+        };
+    }
+
+    // 95% запросов приходятся на первые CACHE_HOT_IDS тикетов
+    private static long hotId(List<Long> ids) {
+        return ThreadLocalRandom.current().nextInt(100) < 95
+                ? ids.get(ThreadLocalRandom.current().nextInt(CACHE_HOT_IDS))
+                : randomId(ids);
+    }
+
+    private static long randomId(List<Long> ids) {
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+
+    private static void runBlocking(String name, int threads, Runnable call) throws InterruptedException {
+        var executor = Executors.newFixedThreadPool(threads);
+        var start = System.nanoTime();
+
+        for (int i = 0; i < REQUESTS_COUNT; i++) {
+            executor.execute(call);
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+
+        report(name, System.nanoTime() - start);
+    }
+
+    /**
+     * Задержка считается с момента получения разрешения, без ожидания в очереди семафора.
+     * Неудачные запросы не входят в перцентили и выводятся отдельно.
+     */
+    private static void runAsync(String name, int inFlight, Supplier<CompletableFuture<?>> call) throws InterruptedException {
+        var permits = new Semaphore(inFlight);
+        var latencies = new long[REQUESTS_COUNT];
+        var succeeded = new AtomicInteger();
+        var errors = new LongAdder();
+        var start = System.nanoTime();
+
+        for (int i = 0; i < REQUESTS_COUNT; i++) {
+            permits.acquire();
+            var requestStart = System.nanoTime();
+
+            CompletableFuture<?> future;
+            try {
+                future = call.get();
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+
+            future.whenComplete((result, error) -> {
+                if (error == null) {
+                    latencies[succeeded.getAndIncrement()] = System.nanoTime() - requestStart;
+                } else {
+                    errors.increment();
+                }
+                permits.release();
+            });
+        }
+
+        // Дожидаемся завершения всех запросов
+        permits.acquire(inFlight);
+
+        report(name, System.nanoTime() - start);
+
+        var count = succeeded.get();
+        if (count > 0) {
+            Arrays.sort(latencies, 0, count);
+            LOGGER.info("{}: p50 {} us, p99 {} us, {} errors", name,
+                    TimeUnit.NANOSECONDS.toMicros(latencies[count / 2]),
+                    TimeUnit.NANOSECONDS.toMicros(latencies[(int) ((long) count * 99 / 100)]), errors.sum());
+        } else {
+            LOGGER.info("{}: all {} requests failed", name, errors.sum());
+        }
+    }
+
+    private static void runConcurrentCallers(String name, ExecutionMode executionMode, Runnable call) {
+        var threadMXBean = ManagementFactory.getThreadMXBean();
+        threadMXBean.resetPeakThreadCount();
+        var start = System.nanoTime();
+
+        var errors = new LongAdder();
+
+        // close() дожидается завершения всех задач
+        try (var executor = executionMode.newExecutor()) {
+            for (int i = 0; i < CONCURRENT_CALLERS; i++) {
+                executor.execute(() -> {
+                    for (int j = 0; j < REQUESTS_COUNT / CONCURRENT_CALLERS; j++) {
+                        try {
+                            call.run();
+                        } catch (RuntimeException e) {
+                            errors.increment();
+                        }
+                    }
+                });
+            }
+        }
+
+        report(name, System.nanoTime() - start);
+        LOGGER.info("{}: {} errors", name, errors.sum());
+        // Виртуальные потоки не учитываются в счётчике, он показывает только потоки ОС
+        LOGGER.info("{}: peak OS threads {}", name, threadMXBean.getPeakThreadCount());
+    }
+
+    /**
+     * Выполняет чтение и выводит пиковое использование кучи за время его выполнения.
+     */
+    private static void measureHeap(String name, LongSupplier scan) {
+        var heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+
+        System.gc();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        var start = System.nanoTime();
+
+        var rows = scan.getAsLong();
+
+        var elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        var peakHeapBytes = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        LOGGER.info("{}: {} rows in {} ms, peak heap {} MB", name, rows, elapsedMillis, peakHeapBytes >> 20);
+    }
+
+    /**
+     * Выполняет чтение и выводит число байт, выделенных всеми потоками приложения, в пересчёте на строку.
+     */
+    private static void measureAllocations(String name, LongSupplier scan) {
+        var threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        var before = totalAllocatedBytes(threadMXBean);
+        var rows = scan.getAsLong();
+        var allocated = totalAllocatedBytes(threadMXBean) - before;
+
+        LOGGER.info("{}: {} bytes allocated per row", name, allocated / rows);
+    }
+
+    private static long totalAllocatedBytes(com.sun.management.ThreadMXBean threadMXBean) {
+        return Arrays.stream(threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds()))
+                .filter(bytes -> bytes > 0)
+                .sum();
+    }
+
+    private static void report(String name, long elapsedNanos) {
+        LOGGER.info("{}: {} requests in {} ms, {} rps", name, REQUESTS_COUNT,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                REQUESTS_COUNT * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+    }
+}
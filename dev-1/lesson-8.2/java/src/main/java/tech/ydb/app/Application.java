@@ -1,19 +1,18 @@
 package tech.ydb.app;
 
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvException;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.time.Duration;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tech.ydb.core.grpc.GrpcTransport;
 import tech.ydb.query.QueryClient;
 import tech.ydb.query.tools.SessionRetryContext;
 import tech.ydb.table.TableClient;
+import tech.ydb.topic.TopicClient;
 
 /**
  * @author Kirill Kurdyukov
@@ -23,6 +22,9 @@ public class Application {
     private static final Logger LOGGER = LoggerFactory.getLogger(Application.class);
     private static final String PATH = "/lesson-8.2/java/title_author.csv";
     private static final String CONNECTION_STRING = "grpc://localhost:2136/local";
+    private static final int PARSE_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int UPLOAD_IN_FLIGHT = 16;
+    private static final int BLOCK_BYTES = 2 << 20;
 
     public static void main(String[] args) {
         try (GrpcTransport grpcTransport = GrpcTransport
@@ -30,7 +32,10 @@ public class Application {
                 .withConnectTimeout(Duration.ofSeconds(10))
                 .build();
              TableClient tableClient = TableClient.newClient(grpcTransport).build();
-             QueryClient queryClient = QueryClient.newClient(grpcTransport).build()
+             QueryClient queryClient = QueryClient.newClient(grpcTransport).build();
+             TopicClient topicClient = TopicClient.newClient(grpcTransport).build();
+             // Пул для продолжений асинхронных запросов и цикла чтения changefeed: -Dexecution.mode=virtual|platform
+             ExecutorService executor = ExecutionMode.fromSystemProperties().newExecutor()
         ) {
             var retryCtx = SessionRetryContext.create(queryClient).build();
             var retryTableCtx = tech.ydb.table.SessionRetryContext.create(tableClient).build();
@@ -38,31 +43,31 @@ public class Application {
             var schemaYdbRepository = new SchemaYdbRepository(retryCtx);
             var issueYdbRepository = new IssueYdbRepository(retryCtx);
             var nativeApiYdbRepository = new KeyValueApiYdbRepository(retryTableCtx);
+            issueYdbRepository.useExecutor(executor);
+            nativeApiYdbRepository.useExecutor(executor);
 
-            schemaYdbRepository.dropSchema();
-            schemaYdbRepository.createSchema();
-
-            var titleAuthorList = new ArrayList<TitleAuthor>();
-            try (CSVReader reader = new CSVReader(Files.newBufferedReader(
-                    Path.of(System.getProperty("user.dir"), PATH)))
-            ) {
-                List<String[]> allRows = reader.readAll();
-
-                for (int i = 1; i < allRows.size(); i++) {
-                    var title = allRows.get(i)[0];
-                    var author = allRows.get(i)[1];
+            // С -Dresume=true схема сохраняется, и прерванный импорт продолжается с последнего сохранённого блока
+            if (!Boolean.getBoolean("resume")) {
+                schemaYdbRepository.dropSchema();
+                schemaYdbRepository.createSchema();
+            }
 
-                    titleAuthorList.add(new TitleAuthor(title, author));
-                }
-            } catch (IOException | CsvException e) {
+            // Файл читается потоково, поэтому размер импорта не ограничен памятью процесса.
+            // Путь к другому файлу можно передать первым аргументом
+            var csvPath = args.length > 0 ? Path.of(args[0]) : Path.of(System.getProperty("user.dir"), PATH);
+            var csvImporter = new CsvImporter(nativeApiYdbRepository, new ImportProgressYdbRepository(retryCtx),
+                    "/local/issues", PARSE_THREADS, BLOCK_BYTES, UPLOAD_IN_FLIGHT);
+            try {
+                // Массовое добавление данных через Key-Value API
+                var stats = csvImporter.importFile(csvPath);
+                LOGGER.info("Imported {} rows: {} rows/s, {} retries", stats.rows(), stats.rowsPerSecond(),
+                        stats.retries());
+            } catch (IOException e) {
                 LOGGER.error(e.getMessage());
 
-                throw new RuntimeException(e);
+                throw new UncheckedIOException(e);
             }
 
-            // Массовое добавление данных через Key-Value API
-            nativeApiYdbRepository.bulkUpsert("/local/issues", titleAuthorList);
-
             Issue lastIssue = null;
             LOGGER.info("Print all issues: ");
             for (var issue : issueYdbRepository.findAll()) {
@@ -71,11 +76,11 @@ public class Application {
                 lastIssue = issue;
             }
 
-            // Чтение всех данных через Key-Value API
+            // Потоковое чтение через Key-Value API: сервер отдаёт только нужные колонки в порядке id
             LOGGER.info("ReadTable: ");
-            for (var issue : nativeApiYdbRepository.readTable("/local/issues")) {
-                printIssue(issue);
-            }
+            nativeApiYdbRepository.readIssues("/local/issues", null, null,
+                    List.of("id", "title", "created_at", "author"), 0, true,
+                    view -> Long.toString(view.id()).contains("0"), Application::printIssue).join();
 
             // Чтение данных по ключу через Key-Value API
             LOGGER.info("ReadRows: ");
@@ -83,6 +88,10 @@ public class Application {
             for (var issue : nativeApiYdbRepository.readRows("/local/issues", lastIssue.id())) {
                 printIssue(issue);
             }
+
+            // Первые изменения таблицы issues после импорта, прочитанные из changefeed
+            LOGGER.info("Changefeed: ");
+            new ReaderChangefeedWorker(topicClient, executor).readChangefeed();
         }
     }
 
@@ -0,0 +1,177 @@
+package tech.ydb.app;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import tech.ydb.common.transaction.TxMode;
+import tech.ydb.core.Result;
+import tech.ydb.query.settings.ExecuteQuerySettings;
+import tech.ydb.query.settings.QueryStatsMode;
+import tech.ydb.query.tools.QueryReader;
+import tech.ydb.query.tools.SessionRetryContext;
+import tech.ydb.table.query.Params;
+import tech.ydb.table.result.ResultSetReader;
+
+import javax.annotation.Nullable;
+
+/**
+ * Асинхронный вариант QueryServiceHelper.
+ * Вместо ожидания через join() методы возвращают CompletableFuture, поэтому поток
+ * не простаивает всё время, пока запрос выполняется на сервере.
+ * <p>
+ * Запросы с данными выполняются только по имени из QueryRegistry, чтобы текст запроса не
+ * менялся от вызова к вызову и сервер брал скомпилированный план из кэша.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class AsyncQueryServiceHelper {
+
+    // Базовая статистика содержит признак того, был ли план запроса взят из кэша компиляции
+    static final ExecuteQuerySettings STATS_SETTINGS = ExecuteQuerySettings.newBuilder()
+            .withStatsMode(QueryStatsMode.BASIC)
+            .build();
+
+    private final SessionRetryContext retryCtx;
+    private final QueryRegistry queryRegistry = new QueryRegistry();
+    @Nullable
+    private final QueryResultCache resultCache;
+    // Пул, в котором выполняются продолжения результатов. По умолчанию они выполняются в потоке
+    // транспорта, который завершил запрос, и разбор результата задерживает чтение следующих ответов
+    private volatile Executor executor = Runnable::run;
+
+    public AsyncQueryServiceHelper(SessionRetryContext retryCtx) {
+        this(retryCtx, null);
+    }
+
+    /**
+     * @param resultCache кэш результатов для {@link #executeCachedQuery}, null - без кэша
+     */
+    public AsyncQueryServiceHelper(SessionRetryContext retryCtx, @Nullable QueryResultCache resultCache) {
+        this.retryCtx = retryCtx;
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Переносит завершение запросов и всё, что вызывающий код связал с ними через thenApply,
+     * thenCompose и т.п., в executor
+     */
+    public void useExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public QueryRegistry queryRegistry() {
+        return queryRegistry;
+    }
+
+    public CompletableFuture<Void> executeQuery(String yql) {
+        return retryCtx.supplyResult(
+                session -> QueryReader.readFrom(session.createQuery(yql, TxMode.NONE))
+        ).thenAcceptAsync(Result::getValue, executor);
+    }
+
+    public CompletableFuture<QueryReader> executeQuery(String queryName, String yql, TxMode txMode, Params params) {
+        var query = queryRegistry.register(queryName, yql);
+
+        return retryCtx.supplyResult(
+                session -> QueryReader.readFrom(session.createQuery(query.yql(), txMode, params, STATS_SETTINGS))
+        ).thenApplyAsync(result -> {
+            var queryReader = result.getValue();
+            query.recordCompilation(queryReader.getQueryInfo());
+
+            return queryReader;
+        }, executor);
+    }
+
+    /**
+     * Выполняет читающий запрос в режиме SNAPSHOT_RO. Если задан кэш результатов, повторный запрос
+     * с теми же параметрами возвращает результат из памяти, пока не изменилась ни одна из таблиц.
+     *
+     * @param tables        таблицы, из которых читает запрос
+     * @param mapper        преобразует результат запроса; преобразованный результат должен быть неизменяемым
+     * @param sizeEstimator оценка размера преобразованного результата в байтах
+     */
+    public <T> CompletableFuture<T> executeCachedQuery(String queryName, String yql, Set<String> tables, Params params,
+                                                       Function<QueryReader, T> mapper, ToLongFunction<T> sizeEstimator) {
+        Supplier<CompletableFuture<T>> loader =
+                () -> executeQuery(queryName, yql, TxMode.SNAPSHOT_RO, params).thenApply(mapper);
+
+        if (resultCache == null) {
+            return loader.get();
+        }
+
+        return resultCache.get(queryName, params, tables, loader, sizeEstimator);
+    }
+
+    /**
+     * Выполняет запрос и передаёт части результата в partConsumer по мере их получения от сервера,
+     * не накапливая весь результат в памяти. Следующая часть запрашивается только после того,
+     * как partConsumer обработал предыдущую.
+     * <p>
+     * Повтор запроса возможен только до получения первой части, иначе потребитель
+     * получил бы одни и те же строки дважды.
+     */
+    public CompletableFuture<Void> executeStreaming(String queryName, String yql, TxMode txMode, Params params,
+                                                    Consumer<ResultSetReader> partConsumer) {
+        var query = queryRegistry.register(queryName, yql);
+        var partReceived = new AtomicBoolean();
+
+        return retryCtx.supplyResult(
+                session -> {
+                    if (partReceived.get()) {
+                        return CompletableFuture.failedFuture(new IllegalStateException(
+                                "Query '" + queryName + "' failed after part of the result was consumed"));
+                    }
+
+                    return session.createQuery(query.yql(), txMode, params, STATS_SETTINGS).execute(part -> {
+                        partReceived.set(true);
+                        partConsumer.accept(part.getResultSetReader());
+                    });
+                }
+        ).thenAcceptAsync(result -> {
+            result.getStatus().expectSuccess();
+            query.recordCompilation(result.getValue());
+        }, executor);
+    }
+
+    /**
+     * Выполняет запрос, который не возвращает данных (UPSERT, UPDATE, DELETE).
+     */
+    public CompletableFuture<Void> executeUpdate(String queryName, String yql, TxMode txMode, Params params) {
+        var query = queryRegistry.register(queryName, yql);
+
+        return retryCtx.supplyResult(
+                session -> session.createQuery(query.yql(), txMode, params, STATS_SETTINGS).execute()
+        ).thenAcceptAsync(result -> {
+            result.getStatus().expectSuccess();
+            query.recordCompilation(result.getValue());
+        }, executor);
+    }
+
+    /**
+     * Выполняет интерактивную транзакцию без блокировок: запросы внутри action
+     * связываются через thenCompose, а последний из них должен закоммитить транзакцию.
+     * При ошибке вся транзакция будет повторена целиком через retryCtx.
+     */
+    public <T> CompletableFuture<T> executeInTx(TxMode txMode, Function<AsyncTransactionHelper, CompletableFuture<T>> action) {
+        return retryCtx.supplyResult(
+                session -> {
+                    var transaction = session.createNewTransaction(txMode);
+
+                    return action.apply(new AsyncTransactionHelper(transaction, queryRegistry))
+                            .whenComplete((value, error) -> {
+                                // Если транзакция не была закоммичена из-за ошибки - явно откатываем её
+                                if (error != null && transaction.isActive()) {
+                                    transaction.rollback();
+                                }
+                            })
+                            .thenApply(Result::success);
+                }
+        ).thenApplyAsync(Result::getValue, executor);
+    }
+}
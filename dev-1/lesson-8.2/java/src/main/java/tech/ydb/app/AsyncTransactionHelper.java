@@ -0,0 +1,52 @@
+package tech.ydb.app;
+
+import java.util.concurrent.CompletableFuture;
+
+import tech.ydb.core.Result;
+import tech.ydb.query.QueryTransaction;
+import tech.ydb.query.tools.QueryReader;
+import tech.ydb.table.query.Params;
+
+/**
+ * Асинхронный вариант TransactionHelper для использования внутри AsyncQueryServiceHelper.executeInTx
+ *
+ * @author Kirill Kurdyukov
+ */
+public class AsyncTransactionHelper {
+
+    private final QueryTransaction transaction;
+    private final QueryRegistry queryRegistry;
+
+    public AsyncTransactionHelper(QueryTransaction transaction, QueryRegistry queryRegistry) {
+        this.transaction = transaction;
+        this.queryRegistry = queryRegistry;
+    }
+
+    public CompletableFuture<QueryReader> executeQuery(String queryName, String yql, Params params) {
+        return execute(queryName, yql, params, false);
+    }
+
+    public CompletableFuture<QueryReader> executeQueryWithCommit(String queryName, String yql, Params params) {
+        return execute(queryName, yql, params, true);
+    }
+
+    /**
+     * Коммитит транзакцию отдельным запросом, когда последний запрос заранее неизвестен
+     */
+    public CompletableFuture<Void> commit() {
+        return transaction.commit().thenAccept(result -> result.getStatus().expectSuccess());
+    }
+
+    private CompletableFuture<QueryReader> execute(String queryName, String yql, Params params, boolean commit) {
+        var query = queryRegistry.register(queryName, yql);
+
+        return QueryReader.readFrom(
+                transaction.createQuery(query.yql(), commit, params, AsyncQueryServiceHelper.STATS_SETTINGS)
+        ).thenApply(result -> {
+            var queryReader = result.getValue();
+            query.recordCompilation(queryReader.getQueryInfo());
+
+            return queryReader;
+        });
+    }
+}
@@ -0,0 +1,105 @@
+package tech.ydb.app;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import javax.annotation.Nullable;
+
+/**
+ * Кэш результата поиска по вторичному индексу authorIndex: автор -> множество id его тикетов.
+ * <p>
+ * Без кэша каждый findByAuthor читает индекс и затем основную таблицу. С кэшем индекс читается только
+ * при промахе, а сами тикеты берутся из {@link IssueCache} (промахи которого загружаются одним findByIds).
+ * <p>
+ * Память ограничена суммарным числом закэшированных id. Изменения из changefeed сбрасывают множества
+ * тех авторов, которые встречаются в старом или новом образе строки, если автор тикета изменился
+ * или тикет появился либо был удалён.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class AuthorIssueCache {
+
+    private final IssueCache issueCache;
+    private final AsyncLoadingCache<String, long[]> idsByAuthor;
+
+    /**
+     * @param maximumIds сколько id тикетов суммарно может храниться во всех множествах
+     */
+    public AuthorIssueCache(IssueYdbRepository issueYdbRepository, IssueCache issueCache, long maximumIds) {
+        this.issueCache = issueCache;
+        this.idsByAuthor = Caffeine.newBuilder()
+                .maximumWeight(maximumIds)
+                // Пустое множество тоже занимает место в кэше
+                .<String, long[]>weigher((author, ids) -> Math.max(ids.length, 1))
+                .recordStats()
+                .buildAsync((author, executor) -> issueYdbRepository.findIdsByAuthorAsync(author));
+    }
+
+    public List<Issue> findByAuthor(String author) {
+        return findByAuthorAsync(author).join();
+    }
+
+    /**
+     * @return тикеты автора в порядке возрастания id
+     */
+    public CompletableFuture<List<Issue>> findByAuthorAsync(String author) {
+        return idsByAuthor.get(author)
+                .thenCompose(issueCache::findByIdsAsync)
+                .thenApply(issues -> {
+                    var sorted = new ArrayList<>(issues);
+                    sorted.sort(Comparator.comparingLong(Issue::id));
+
+                    return sorted;
+                });
+    }
+
+    /**
+     * Применяет изменение из changefeed. Вызывается из потока {@link IssueChangefeedWorker}.
+     */
+    public void apply(IssueChange change) {
+        var oldAuthor = author(change.oldImage());
+        var newAuthor = author(change.newImage());
+
+        // Обновление без смены автора не меняет ни одно множество
+        if (change.oldImage() != null && change.newImage() != null && Objects.equals(oldAuthor, newAuthor)) {
+            return;
+        }
+
+        if (oldAuthor != null) {
+            idsByAuthor.synchronous().invalidate(oldAuthor);
+        }
+        if (newAuthor != null) {
+            idsByAuthor.synchronous().invalidate(newAuthor);
+        }
+    }
+
+    /**
+     * @return число вызовов, для которых не понадобилось чтение индекса
+     */
+    public long indexReadsSaved() {
+        return idsByAuthor.synchronous().stats().hitCount();
+    }
+
+    public long indexReads() {
+        return idsByAuthor.synchronous().stats().missCount();
+    }
+
+    public double hitRatio() {
+        return idsByAuthor.synchronous().stats().hitRate();
+    }
+
+    public long evictionCount() {
+        return idsByAuthor.synchronous().stats().evictionCount();
+    }
+
+    @Nullable
+    private static String author(@Nullable Issue image) {
+        return image == null ? null : image.author();
+    }
+}
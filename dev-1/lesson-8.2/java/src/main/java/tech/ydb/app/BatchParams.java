@@ -0,0 +1,130 @@
+package tech.ydb.app;
+
+import java.util.Arrays;
+
+import tech.ydb.table.values.ListType;
+import tech.ydb.table.values.ListValue;
+import tech.ydb.table.values.PrimitiveType;
+import tech.ydb.table.values.PrimitiveValue;
+import tech.ydb.table.values.StructType;
+import tech.ydb.table.values.Value;
+
+/**
+ * Построитель параметров вида List<Struct<...>> для запросов с AS_TABLE и BulkUpsert.
+ * <p>
+ * Тип структуры и порядок её колонок вычисляются один раз на запрос (экземпляр хранится в константе),
+ * а список строк собирается за один проход сразу в массив, без промежуточных List и Stream.
+ *
+ * @author Kirill Kurdyukov
+ */
+public final class BatchParams {
+
+    private static final ListType INT64_LIST = ListType.of(PrimitiveType.Int64);
+
+    private final StructType structType;
+    private final ListType listType;
+    // positions[i] - позиция i-й переданной колонки среди полей структуры (поля структуры упорядочены по имени)
+    private final int[] positions;
+    private final boolean identityOrder;
+
+    private BatchParams(StructType structType, String... columns) {
+        this.structType = structType;
+        this.listType = ListType.of(structType);
+        this.positions = new int[columns.length];
+
+        var identity = true;
+        for (int i = 0; i < columns.length; i++) {
+            positions[i] = structType.getMemberIndex(columns[i]);
+            identity &= positions[i] == i;
+        }
+        this.identityOrder = identity;
+    }
+
+    /**
+     * @param columns порядок, в котором значения колонок передаются в {@link Rows#add}
+     */
+    public static BatchParams of(StructType structType, String... columns) {
+        if (structType.getMembersCount() != columns.length) {
+            throw new IllegalArgumentException("Expected " + structType.getMembersCount() + " columns, got " + columns.length);
+        }
+
+        return new BatchParams(structType, columns);
+    }
+
+    /**
+     * Список Int64 из примитивного массива, без упаковки в Long.
+     */
+    public static ListValue int64List(long[] values) {
+        var items = new Value<?>[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            items[i] = PrimitiveValue.newInt64(values[i]);
+        }
+
+        return INT64_LIST.newValueOwn(items);
+    }
+
+    public StructType structType() {
+        return structType;
+    }
+
+    public Rows newRows(int expectedSize) {
+        return new Rows(expectedSize);
+    }
+
+    /**
+     * Список структур с единственной колонкой Int64, например List<Struct<id: Int64>>.
+     */
+    public ListValue ofInt64Column(long[] values) {
+        if (positions.length != 1) {
+            throw new IllegalStateException("Struct " + structType + " has more than one column");
+        }
+
+        var rows = new Value<?>[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            rows[i] = structType.newValueUnsafe(PrimitiveValue.newInt64(values[i]));
+        }
+
+        return listType.newValueOwn(rows);
+    }
+
+    public final class Rows {
+
+        private Value<?>[] rows;
+        private int size;
+
+        private Rows(int expectedSize) {
+            this.rows = new Value<?>[Math.max(expectedSize, 1)];
+        }
+
+        /**
+         * Добавляет строку. Значения передаются в порядке колонок, указанном в {@link BatchParams#of}.
+         */
+        public Rows add(Value<?>... values) {
+            var members = values;
+
+            if (!identityOrder) {
+                members = new Value<?>[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    members[positions[i]] = values[i];
+                }
+            }
+
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = structType.newValueUnsafe(members);
+
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public ListValue build() {
+            return listType.newValueOwn(size == rows.length ? rows : Arrays.copyOf(rows, size));
+        }
+    }
+}
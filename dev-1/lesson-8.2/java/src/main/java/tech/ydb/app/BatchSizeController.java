@@ -0,0 +1,280 @@
+package tech.ydb.app;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import tech.ydb.core.Issue;
+import tech.ydb.core.Status;
+import tech.ydb.core.StatusCode;
+import tech.ydb.core.UnexpectedResultException;
+
+/**
+ * Размер пачки для пакетных операций, который подстраивается под ответы сервера по схеме AIMD.
+ * <p>
+ * Для каждой операции (saveAll, findByIds, deleteTasks, bulkUpsert) размер пачки хранится отдельно.
+ * Пока пачки выполняются быстрее targetLatency, размер растёт на increase. Если пачка выполнялась дольше,
+ * размер уменьшается на четверть, а на статусы перегрузки, таймаута и превышения размера сообщения - вдвое.
+ * Уменьшение учитывает только пачки, начатые после предыдущего уменьшения: пачки старого размера,
+ * завершившиеся позже, не уменьшают его повторно.
+ * <p>
+ * Пачка, отклонённая сервером, повторяется уменьшенными пачками, только если статус означает, что она точно
+ * не выполнена (перегрузка, превышение размера). После таймаута пачка могла и выполниться, поэтому такой статус
+ * только уменьшает следующие пачки, а ошибка возвращается вызывающему.
+ * <p>
+ * BAD_REQUEST считается превышением размера, только если среди issues есть код из sizeLimitIssueCodes:
+ * коды ограничений на размер сообщения и транзакции зависят от версии сервера, поэтому их задаёт вызывающий.
+ * По умолчанию набор пуст, и превышение размера распознаётся только по CLIENT_RESOURCE_EXHAUSTED,
+ * которым SDK сообщает о превышении размера gRPC-сообщения.
+ * <p>
+ * Один экземпляр можно передать нескольким репозиториям, тогда они делят между собой и состояние операций.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class BatchSizeController {
+
+    private static final Set<StatusCode> OVERLOAD_CODES = Set.of(
+            StatusCode.OVERLOADED,
+            StatusCode.TIMEOUT,
+            StatusCode.CLIENT_DEADLINE_EXCEEDED,
+            StatusCode.CLIENT_DEADLINE_EXPIRED,
+            StatusCode.CLIENT_RESOURCE_EXHAUSTED
+    );
+    // Статусы, при которых сервер точно не выполнил пачку, и её можно повторить
+    private static final Set<StatusCode> NOT_APPLIED_CODES = Set.of(
+            StatusCode.OVERLOADED,
+            StatusCode.CLIENT_RESOURCE_EXHAUSTED
+    );
+    // Доля, на которую размер пачки уменьшается при медленном ответе без ошибки
+    private static final double SLOW_DECREASE = 0.75;
+    private static final double THROUGHPUT_SMOOTHING = 0.2;
+
+    private final int minSize;
+    private final int initialSize;
+    private final int maxSize;
+    private final int increase;
+    private final long targetLatencyNanos;
+    private final Set<Integer> sizeLimitIssueCodes;
+    private final ConcurrentHashMap<String, Operation> operations = new ConcurrentHashMap<>();
+
+    public BatchSizeController() {
+        this(16, 1_000, 100_000, 250, Duration.ofMillis(200));
+    }
+
+    public BatchSizeController(int minSize, int initialSize, int maxSize, int increase, Duration targetLatency) {
+        this(minSize, initialSize, maxSize, increase, targetLatency, Set.of());
+    }
+
+    /**
+     * @param sizeLimitIssueCodes коды issues, с которыми сервер отклоняет слишком большое сообщение или транзакцию
+     */
+    public BatchSizeController(int minSize, int initialSize, int maxSize, int increase, Duration targetLatency,
+                               Set<Integer> sizeLimitIssueCodes) {
+        this.minSize = minSize;
+        this.initialSize = initialSize;
+        this.maxSize = maxSize;
+        this.increase = increase;
+        this.targetLatencyNanos = targetLatency.toNanos();
+        this.sizeLimitIssueCodes = Set.copyOf(sizeLimitIssueCodes);
+    }
+
+    public Operation operation(String name) {
+        return operations.computeIfAbsent(name, Operation::new);
+    }
+
+    public Collection<Operation> operations() {
+        return operations.values();
+    }
+
+    /**
+     * Выполняет операцию над элементами [0, total) последовательными пачками текущего размера.
+     * Если пачка точно не выполнена из-за перегрузки или превышения размера (см. {@link #isNotApplied}),
+     * она повторяется уменьшенными пачками; остальные ошибки, в том числе таймауты, возвращаются как есть.
+     * Пачки выполняются отдельными вызовами call, поэтому несколько пачек одной операции не атомарны,
+     * а повторяемая пачка должна записывать те же данные, что и в первый раз.
+     *
+     * @param call выполняет пачку элементов [from, to)
+     * @return результаты пачек в порядке элементов
+     */
+    public <R> CompletableFuture<List<R>> execute(String operationName, int total, BatchCall<R> call) {
+        var results = new ArrayList<R>();
+
+        return executeFrom(operation(operationName), 0, total, call, results).thenApply(ignored -> results);
+    }
+
+    /**
+     * @return true, если статус означает, что пачку нужно уменьшить
+     */
+    public boolean isBatchSizeSignal(Status status) {
+        return OVERLOAD_CODES.contains(status.getCode()) || isSizeLimitExceeded(status);
+    }
+
+    /**
+     * @return true, если пачка с таким статусом точно не выполнена сервером и её можно повторить частями
+     */
+    public boolean isNotApplied(Status status) {
+        return NOT_APPLIED_CODES.contains(status.getCode()) || isSizeLimitExceeded(status);
+    }
+
+    // Превышение ограничения на размер запроса сервер возвращает как BAD_REQUEST с кодом ограничения в issues
+    private boolean isSizeLimitExceeded(Status status) {
+        return status.getCode() == StatusCode.BAD_REQUEST && containsSizeLimitIssue(status.getIssues());
+    }
+
+    // Issues вложены друг в друга, код ограничения обычно лежит не на верхнем уровне
+    private boolean containsSizeLimitIssue(Issue[] issues) {
+        for (var issue : issues) {
+            if (sizeLimitIssueCodes.contains(issue.getCode()) || containsSizeLimitIssue(issue.getIssues())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private <R> CompletableFuture<Void> executeFrom(Operation operation, int from, int total, BatchCall<R> call,
+                                                    List<R> results) {
+        if (from >= total) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        var to = (int) Math.min(total, (long) from + operation.batchSize());
+        var startNanos = System.nanoTime();
+
+        return call.apply(from, to).handle((result, error) -> {
+            if (error == null) {
+                operation.onSuccess(to - from, startNanos);
+                results.add(result);
+
+                return executeFrom(operation, to, total, call, results);
+            }
+
+            var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            // onFailure уменьшает размер и после таймаута, но повторяются только точно не выполненные пачки
+            if (cause instanceof UnexpectedResultException e && operation.onFailure(startNanos, e.getStatus())
+                    && isNotApplied(e.getStatus()) && operation.batchSize() < to - from) {
+                return executeFrom(operation, from, total, call, results);
+            }
+
+            return CompletableFuture.<Void>failedFuture(cause);
+        }).thenCompose(Function.identity());
+    }
+
+    @FunctionalInterface
+    public interface BatchCall<R> {
+        CompletableFuture<R> apply(int from, int to);
+    }
+
+    /**
+     * Состояние одной пакетной операции
+     */
+    public final class Operation {
+
+        private final String name;
+        private final ReentrantLock lock = new ReentrantLock();
+        private int batchSize = initialSize;
+        private long lastDecreaseNanos;
+        private double rowsPerSecond;
+        private long decreases;
+
+        private Operation(String name) {
+            this.name = name;
+            this.lastDecreaseNanos = System.nanoTime();
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public int batchSize() {
+            lock.lock();
+            try {
+                return batchSize;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return сглаженная пропускная способность последних пачек, элементов в секунду
+         */
+        public double rowsPerSecond() {
+            lock.lock();
+            try {
+                return rowsPerSecond;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public long decreases() {
+            lock.lock();
+            try {
+                return decreases;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @param startNanos значение System.nanoTime() перед отправкой пачки
+         */
+        public void onSuccess(int rows, long startNanos) {
+            var latencyNanos = Math.max(1, System.nanoTime() - startNanos);
+
+            lock.lock();
+            try {
+                var throughput = rows * 1e9 / latencyNanos;
+                rowsPerSecond = rowsPerSecond == 0
+                        ? throughput
+                        : rowsPerSecond + THROUGHPUT_SMOOTHING * (throughput - rowsPerSecond);
+
+                if (latencyNanos <= targetLatencyNanos) {
+                    // Растём, только если пачка была не меньше текущего размера, иначе рост ничем не подтверждён
+                    if (rows >= batchSize) {
+                        batchSize = Math.min(maxSize, batchSize + increase);
+                    }
+                } else {
+                    decrease(startNanos, SLOW_DECREASE);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return true, если статус - сигнал уменьшить пачку (см. {@link #isBatchSizeSignal})
+         */
+        public boolean onFailure(long startNanos, Status status) {
+            if (!isBatchSizeSignal(status)) {
+                return false;
+            }
+
+            lock.lock();
+            try {
+                decrease(startNanos, 0.5);
+            } finally {
+                lock.unlock();
+            }
+
+            return true;
+        }
+
+        private void decrease(long startNanos, double factor) {
+            if (startNanos - lastDecreaseNanos < 0) {
+                return;
+            }
+
+            batchSize = Math.max(minSize, (int) (batchSize * factor));
+            lastDecreaseNanos = System.nanoTime();
+            decreases++;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package tech.ydb.app;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import tech.ydb.core.Status;
+import tech.ydb.table.SessionRetryContext;
+import tech.ydb.table.values.ListValue;
+
+/**
+ * Загрузка большого числа строк в таблицу через BulkUpsert.
+ * <p>
+ * Строки читаются из итератора и собираются в части, размер которых ограничен maxChunkBytes, чтобы
+ * запрос не упирался в ограничение на размер сообщения. Одновременно отправляется не больше maxInFlight
+ * частей, каждая - своим вызовом executeBulkUpsert в своей сессии. Пока окно заполнено, итератор не читается,
+ * поэтому в памяти находится не больше maxInFlight + 1 частей, сколько бы строк ни было на входе.
+ * <p>
+ * Каждая часть повторяется независимо от остальных: сначала через retryTableCtx, а если он исчерпал
+ * попытки на повторяемом статусе (например, OVERLOADED) - ещё до maxAttempts раз с растущей паузой.
+ * BulkUpsert идемпотентен, если id строк не меняются между попытками.
+ * <p>
+ * Число строк в части дополнительно ограничено {@link BatchSizeController}: на перегрузку сервера он уменьшает
+ * следующие части. Уже собранная часть повторяется целиком.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class BulkLoader<T> {
+
+    private static final long RETRY_DELAY_MILLIS = 100;
+
+    private final SessionRetryContext retryTableCtx;
+    private final String tableName;
+    private final BatchParams batchParams;
+    private final BiConsumer<T, BatchParams.Rows> rowWriter;
+    private final ToLongFunction<T> rowBytes;
+    private final long maxChunkBytes;
+    private final int maxInFlight;
+    private final int maxAttempts;
+    private final BatchSizeController.Operation batchSize;
+
+    /**
+     * @param rowWriter добавляет строку в часть в порядке колонок batchParams
+     * @param rowBytes  оценка размера строки в байтах, по ней ограничивается размер части
+     * @param batchSize ограничивает число строк в части и получает статусы записи частей
+     */
+    public BulkLoader(SessionRetryContext retryTableCtx, String tableName, BatchParams batchParams,
+                      BiConsumer<T, BatchParams.Rows> rowWriter, ToLongFunction<T> rowBytes,
+                      long maxChunkBytes, int maxInFlight, int maxAttempts, BatchSizeController.Operation batchSize) {
+        this.retryTableCtx = retryTableCtx;
+        this.tableName = tableName;
+        this.batchParams = batchParams;
+        this.rowWriter = rowWriter;
+        this.rowBytes = rowBytes;
+        this.maxChunkBytes = maxChunkBytes;
+        this.maxInFlight = maxInFlight;
+        this.maxAttempts = maxAttempts;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Загружает все строки и дожидается завершения всех частей. После первой части, которую не удалось
+     * записать, новые части не отправляются, а метод бросает исключение с её статусом.
+     */
+    public Stats load(Iterator<T> rows) {
+        var chunks = new Iterator<List<T>>() {
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public List<T> next() {
+                var chunk = new ArrayList<T>();
+                var maxRows = batchSize.batchSize();
+                long chunkBytes = 0;
+
+                while (rows.hasNext() && chunkBytes < maxChunkBytes && chunk.size() < maxRows) {
+                    var row = rows.next();
+                    chunk.add(row);
+                    chunkBytes += rowBytes.applyAsLong(row);
+                }
+
+                return chunk;
+            }
+        };
+
+        return loadChunks(chunks, Function.identity(), chunk -> { });
+    }
+
+    /**
+     * То же, что {@link #load}, но части уже сформированы вызывающим, например по блокам файла.
+     * Размер части не проверяется, статусы записи всё равно передаются в batchSize.
+     *
+     * @param rows      строки части
+     * @param onWritten вызывается после успешной записи части, из потока клиента YDB
+     */
+    public <C> Stats loadChunks(Iterator<C> chunks, Function<C, List<T>> rows, Consumer<C> onWritten) {
+        var window = new Semaphore(maxInFlight);
+        var failure = new AtomicReference<RuntimeException>();
+        var counters = new Counters();
+        var start = System.nanoTime();
+
+        while (failure.get() == null && chunks.hasNext()) {
+            var chunk = chunks.next();
+            var chunkRows = rows.apply(chunk);
+            var values = batchParams.newRows(chunkRows.size());
+            long chunkBytes = 0;
+
+            for (var row : chunkRows) {
+                rowWriter.accept(row, values);
+                chunkBytes += rowBytes.applyAsLong(row);
+            }
+
+            window.acquireUninterruptibly();
+
+            var bytes = chunkBytes;
+            upload(values.build(), 1, counters).whenComplete((status, error) -> {
+                try {
+                    if (error != null) {
+                        failure.compareAndSet(null, error instanceof RuntimeException e ? e : new RuntimeException(error));
+                    } else if (!status.isSuccess()) {
+                        status.expectSuccess("Bulk upsert of " + values.size() + " rows into " + tableName + " failed");
+                    } else {
+                        counters.rows.add(values.size());
+                        counters.bytes.add(bytes);
+                        counters.chunks.increment();
+                        onWritten.accept(chunk);
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    window.release();
+                }
+            });
+        }
+
+        // Дожидаемся всех отправленных частей
+        window.acquireUninterruptibly(maxInFlight);
+        window.release(maxInFlight);
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        return new Stats(counters.rows.sum(), counters.bytes.sum(), counters.chunks.sum(), counters.retries.sum(),
+                System.nanoTime() - start);
+    }
+
+    private CompletableFuture<Status> upload(ListValue chunk, int attempt, Counters counters) {
+        var startNanos = System.nanoTime();
+
+        return retryTableCtx.supplyStatus(session -> session.executeBulkUpsert(tableName, chunk))
+                .thenCompose(status -> {
+                    if (status.isSuccess()) {
+                        batchSize.onSuccess(chunk.size(), startNanos);
+                    } else {
+                        batchSize.onFailure(startNanos, status);
+                    }
+
+                    if (status.isSuccess() || attempt >= maxAttempts || !status.getCode().isRetryable(true)) {
+                        return CompletableFuture.completedFuture(status);
+                    }
+
+                    counters.retries.increment();
+                    var delay = CompletableFuture.delayedExecutor(RETRY_DELAY_MILLIS * attempt, TimeUnit.MILLISECONDS);
+
+                    return CompletableFuture.supplyAsync(() -> null, delay)
+                            .thenCompose(ignored -> upload(chunk, attempt + 1, counters));
+                });
+    }
+
+    /**
+     * @param bytes  оценка объёма записанных строк по rowBytes
+     * @param chunks число записанных частей
+     */
+    public record Stats(long rows, long bytes, long chunks, long retries, long elapsedNanos) {
+
+        public long rowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : (long) (rows * 1e9 / elapsedNanos);
+        }
+
+        public long bytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : (long) (bytes * 1e9 / elapsedNanos);
+        }
+    }
+
+    private static final class Counters {
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder chunks = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+    }
+}
@@ -0,0 +1,25 @@
+package tech.ydb.app;
+
+import java.util.Map;
+
+import tech.ydb.topic.read.DeferredCommitter;
+
+/**
+ * Позиция в changefeed issues/updates, до которой изменения уже применены подписчиками.
+ *
+ * @param step             шаг плана виртуальной метки времени последнего изменения
+ * @param txId             транзакция виртуальной метки времени последнего изменения
+ * @param partitionOffsets смещение последнего обработанного сообщения в каждой партиции топика
+ * @param pendingCommits   сообщения, обработанные с предыдущей позиции и ещё не подтверждённые
+ * @author Kirill Kurdyukov
+ */
+public record ChangefeedCheckpoint(long step, long txId, Map<Long, Long> partitionOffsets,
+                                   DeferredCommitter pendingCommits) {
+
+    /**
+     * Подтверждает сообщения до этой позиции: после перезапуска читатель их больше не получит
+     */
+    public void commit() {
+        pendingCommits.commit();
+    }
+}
@@ -0,0 +1,302 @@
+package tech.ydb.app;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import tech.ydb.topic.TopicClient;
+import tech.ydb.topic.read.DeferredCommitter;
+import tech.ydb.topic.read.Message;
+import tech.ydb.topic.read.SyncReader;
+import tech.ydb.topic.settings.DescribeConsumerSettings;
+import tech.ydb.topic.settings.ReaderSettings;
+import tech.ydb.topic.settings.TopicReadSettings;
+
+/**
+ * Фоновый читатель changefeed в формате JSON, который разбирает сообщения об изменении строк
+ * и передаёт их подписчикам (кэшам и локальным копиям данных).
+ * <p>
+ * Сообщения о resolved timestamp (если changefeed создан с RESOLVED_TIMESTAMPS) подписчикам не передаются,
+ * а сдвигают {@link #resolvedStep()}: все изменения с меньшей виртуальной меткой времени уже прочитаны.
+ * Resolved timestamp приходит по каждой партиции отдельно, поэтому метка топика считается, только когда
+ * он пришёл из всех партиций: их список читается из описания топика при старте.
+ * <p>
+ * Сообщение подтверждается только после того, как его обработали все подписчики,
+ * либо, в режиме commitOnCheckpoint, после сохранения снимка состояния подписчиков.
+ * Если подписчик или разбор сообщения падает, обработка сообщения повторяется, а следующие сообщения
+ * не читаются и не подтверждаются, см. {@link #addFailureListener}.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class ChangefeedWorker<T> implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangefeedWorker.class);
+    private static final long RETRY_DELAY_MILLIS = 50;
+    private static final long RETRY_MAX_DELAY_MILLIS = 5_000;
+
+    private final TopicClient topicClient;
+    private final String topicPath;
+    private final String consumerName;
+    private final Function<JsonObject, T> parser;
+    private final SyncReader reader;
+    private final Executor executor;
+    private final boolean commitOnCheckpoint;
+    private final List<Consumer<T>> listeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<JsonObject>> failureListeners = new CopyOnWriteArrayList<>();
+
+    // Позиция последнего обработанного изменения, меняется под processLock
+    private final ReentrantLock processLock = new ReentrantLock();
+    private final Map<Long, Long> partitionOffsets = new HashMap<>();
+    private final Map<Long, Long> resolvedSteps = new HashMap<>();
+    private final Set<Long> partitions = new HashSet<>();
+    private long lastStep;
+    private long lastTxId;
+    private DeferredCommitter pendingCommits = DeferredCommitter.newInstance();
+
+    private volatile boolean stopped;
+    private volatile long resolvedStep;
+    private CompletableFuture<Void> readLoop;
+
+    /**
+     * @param topicPath          путь топика changefeed, например issues/updates
+     * @param consumerName       читатель топика, заведённый в {@link SchemaYdbRepository#createSchema()}
+     * @param executor           пул, в котором работает цикл чтения
+     * @param commitOnCheckpoint подтверждать сообщения не сразу после обработки, а только через
+     *                           {@link ChangefeedCheckpoint#commit()}. Так после перезапуска чтение продолжится
+     *                           с места последнего сохранённого снимка, а не с последнего обработанного сообщения.
+     * @param parser             разбирает сообщение об изменении строки
+     */
+    public ChangefeedWorker(TopicClient topicClient, String topicPath, String consumerName, Executor executor,
+                            boolean commitOnCheckpoint, Function<JsonObject, T> parser) {
+        this.topicClient = topicClient;
+        this.topicPath = topicPath;
+        this.consumerName = consumerName;
+        this.parser = parser;
+        this.executor = executor;
+        this.commitOnCheckpoint = commitOnCheckpoint;
+        this.reader = topicClient.createSyncReader(
+                ReaderSettings.newBuilder()
+                        .setConsumerName(consumerName)
+                        .setTopics(
+                                List.of(TopicReadSettings.newBuilder().setPath(topicPath).build())
+                        )
+                        .build()
+        );
+    }
+
+    /**
+     * Подписчики вызываются из потока чтения по порядку изменений и не должны блокироваться надолго.
+     * Изменение может прийти подписчику повторно: если на нём упал другой подписчик или если оно
+     * не было подтверждено до перезапуска.
+     */
+    public void addListener(Consumer<T> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Вызывается с сообщением, которое не удалось разобрать или передать подписчикам, перед каждым повтором.
+     * Пока обработка не пройдёт, подписчики не получают следующих изменений, поэтому здесь можно сбросить
+     * данные строки из сообщения, чтобы чтения шли в базу, а не получали устаревшее значение.
+     */
+    public void addFailureListener(Consumer<JsonObject> failureListener) {
+        failureListeners.add(failureListener);
+    }
+
+    /**
+     * Запоминает позицию последнего обработанного изменения. Все изменения до неё уже переданы подписчикам,
+     * поэтому состояние подписчика, прочитанное после вызова, не старше этой позиции.
+     */
+    public ChangefeedCheckpoint checkpoint() {
+        processLock.lock();
+        try {
+            var checkpoint = new ChangefeedCheckpoint(lastStep, lastTxId, Map.copyOf(partitionOffsets), pendingCommits);
+            pendingCommits = DeferredCommitter.newInstance();
+
+            return checkpoint;
+        } finally {
+            processLock.unlock();
+        }
+    }
+
+    /**
+     * @return шаг виртуальной метки времени, до которого подписчики получили все изменения,
+     * или 0, если resolved timestamp ещё не пришёл хотя бы из одной партиции топика
+     */
+    public long resolvedStep() {
+        return resolvedStep;
+    }
+
+    /**
+     * Проверяет, что чтение продолжится сразу за сохранённой позицией. Читатель начинает с первого
+     * неподтверждённого сообщения, поэтому в каждой партиции оно не должно быть дальше сообщения, следующего
+     * за позицией: иначе либо после позиции подтверждены сообщения, не вошедшие в сохранённое состояние,
+     * либо они удалены по сроку хранения топика. Вызывается до {@link #start()}.
+     *
+     * @param partitionOffsets смещения последних обработанных сообщений, см. {@link ChangefeedCheckpoint}
+     * @return партиции, в которых между позицией и продолжением чтения пропущены сообщения
+     */
+    public Set<Long> findGaps(Map<Long, Long> partitionOffsets) {
+        var description = topicClient.describeConsumer(topicPath, consumerName,
+                DescribeConsumerSettings.newBuilder().withIncludeStats(true).build()).join().getValue();
+
+        var gaps = new HashSet<Long>();
+        for (var partition : description.getPartitions()) {
+            // Партиции без обработанных сообщений читаются с начала
+            var next = partitionOffsets.getOrDefault(partition.getPartitionId(), -1L) + 1;
+
+            if (partition.getConsumerStats().getCommittedOffset() > next
+                    || partition.getPartitionStats().getStartOffset() > next) {
+                gaps.add(partition.getPartitionId());
+            }
+        }
+
+        return gaps;
+    }
+
+    public void start() {
+        var description = topicClient.describeTopic(topicPath).join().getValue();
+
+        processLock.lock();
+        try {
+            description.getPartitions().forEach(partition -> partitions.add(partition.getPartitionId()));
+        } finally {
+            processLock.unlock();
+        }
+
+        reader.init();
+        readLoop = CompletableFuture.runAsync(this::read, executor);
+    }
+
+    @Override
+    public void close() {
+        stopped = true;
+
+        if (readLoop != null) {
+            readLoop.join();
+        }
+
+        reader.shutdown();
+    }
+
+    private void read() {
+        LOGGER.info("Started changefeed worker for {}!", topicPath);
+
+        while (!stopped) {
+            try {
+                var message = reader.receive(1, TimeUnit.SECONDS);
+
+                if (message == null) {
+                    continue;
+                }
+
+                processWithRetries(message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                LOGGER.error("Failed to receive changefeed message from {}", topicPath, e);
+            }
+        }
+
+        LOGGER.info("Stopped changefeed worker for {}!", topicPath);
+    }
+
+    /**
+     * Сообщение, которое не удалось обработать, не подтверждается, и следующие сообщения не читаются, пока
+     * его обработка не пройдёт. Иначе подтверждение следующих сообщений сдвинуло бы позицию читателя за
+     * пропущенное изменение, и подписчики больше никогда бы его не получили.
+     */
+    private void processWithRetries(Message message) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                process(message);
+
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.error("Failed to process changefeed message {} from {}, attempt {}",
+                        message.getOffset(), topicPath, attempt, e);
+                notifyFailure(message);
+
+                if (stopped) {
+                    // Сообщение не подтверждено и после перезапуска будет прочитано снова
+                    return;
+                }
+
+                Thread.sleep(Math.min(RETRY_MAX_DELAY_MILLIS, RETRY_DELAY_MILLIS << Math.min(attempt, 16)));
+            }
+        }
+    }
+
+    private void process(Message message) {
+        var json = JsonParser.parseString(new String(message.getData(), StandardCharsets.UTF_8))
+                .getAsJsonObject();
+        var partitionId = message.getPartitionSession().getPartitionId();
+
+        processLock.lock();
+        try {
+            // Партиция могла появиться после старта, например при разделении шарда таблицы
+            partitions.add(partitionId);
+
+            if (json.has("resolved")) {
+                resolve(partitionId, json.getAsJsonArray("resolved").get(0).getAsLong());
+            } else {
+                var change = parser.apply(json);
+                listeners.forEach(listener -> listener.accept(change));
+
+                // Строки начального сканирования приходят без виртуальной метки времени
+                if (json.has("ts")) {
+                    lastStep = json.getAsJsonArray("ts").get(0).getAsLong();
+                    lastTxId = json.getAsJsonArray("ts").get(1).getAsLong();
+                }
+            }
+
+            partitionOffsets.put(partitionId, message.getOffset());
+
+            if (commitOnCheckpoint) {
+                pendingCommits.add(message);
+            } else {
+                message.commit();
+            }
+        } finally {
+            processLock.unlock();
+        }
+    }
+
+    private void notifyFailure(Message message) {
+        JsonObject json;
+        try {
+            json = JsonParser.parseString(new String(message.getData(), StandardCharsets.UTF_8)).getAsJsonObject();
+        } catch (RuntimeException e) {
+            // По неразобранному сообщению нельзя понять, какую строку оно меняло
+            return;
+        }
+
+        for (var failureListener : failureListeners) {
+            try {
+                failureListener.accept(json);
+            } catch (RuntimeException e) {
+                LOGGER.error("Failure listener of {} failed", topicPath, e);
+            }
+        }
+    }
+
+    // Для всего топика берётся минимальный resolved timestamp, пока хотя бы одна партиция молчит - 0
+    private void resolve(long partitionId, long step) {
+        resolvedSteps.put(partitionId, step);
+        resolvedStep = resolvedSteps.keySet().containsAll(partitions)
+                ? resolvedSteps.values().stream().mapToLong(Long::longValue).min().orElse(0)
+                : 0;
+    }
+}
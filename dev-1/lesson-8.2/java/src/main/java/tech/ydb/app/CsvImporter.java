@@ -0,0 +1,359 @@
+package tech.ydb.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.ICSVParser;
+import com.opencsv.exceptions.CsvException;
+import tech.ydb.app.ImportProgressYdbRepository.ImportProgress;
+
+/**
+ * Потоковая загрузка CSV-файла вида title,author (первая строка - заголовок) в таблицу через {@link BulkLoader}.
+ * <p>
+ * Файл не читается в память целиком. Отдельный поток проходит по файлу окнами, отображёнными в память,
+ * и режет его на блоки примерно по blockBytes по границам записей: перевод строки вне кавычек. Блоки разбирает
+ * пул из parseThreads потоков, каждый блок становится одной частью BulkUpsert. Разбор следующих блоков идёт
+ * одновременно с записью предыдущих, а всего в памяти не больше parseThreads + uploadInFlight разобранных
+ * или разбираемых блоков: пока они не записаны, файл дальше не режется.
+ * <p>
+ * Импорт можно перезапустить после сбоя. Id тикета вычисляется из имени файла и номера записи
+ * (см. {@link CsvRecord#id}), поэтому повторно загруженные записи перезаписывают те же строки. Блоки
+ * записываются не по порядку; после каждого блока в import_file_progress сохраняется граница, до которой
+ * записаны все блоки подряд, и перезапущенный импорт начинает разбор файла с неё.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class CsvImporter {
+
+    // Окно, которым файл отображается в память при поиске границ записей
+    private static final int SCAN_WINDOW_BYTES = 64 << 20;
+    private static final ParsedBlock END = new ParsedBlock(null, List.of());
+
+    private final KeyValueApiYdbRepository keyValueApiYdbRepository;
+    private final ImportProgressYdbRepository importProgressYdbRepository;
+    private final String tableName;
+    private final int parseThreads;
+    private final int blockBytes;
+    private final int uploadInFlight;
+
+    /**
+     * @param uploadInFlight число одновременных BulkUpsert; в памяти держится до parseThreads + uploadInFlight блоков
+     */
+    public CsvImporter(KeyValueApiYdbRepository keyValueApiYdbRepository,
+                       ImportProgressYdbRepository importProgressYdbRepository, String tableName,
+                       int parseThreads, int blockBytes, int uploadInFlight) {
+        this.keyValueApiYdbRepository = keyValueApiYdbRepository;
+        this.importProgressYdbRepository = importProgressYdbRepository;
+        this.tableName = tableName;
+        this.parseThreads = parseThreads;
+        this.blockBytes = blockBytes;
+        this.uploadInFlight = uploadInFlight;
+    }
+
+    /**
+     * Загружает файл или, если его импорт уже начинался, оставшуюся часть файла.
+     * Файл не должен меняться между перезапусками.
+     */
+    public BulkLoader.Stats importFile(Path csv) throws IOException {
+        var source = csv.toAbsolutePath().normalize().toString();
+        var saved = importProgressYdbRepository.findProgress(source);
+        var start = saved == null ? new ImportProgress(0, 0) : saved;
+        var maxBlocksInMemory = parseThreads + uploadInFlight;
+
+        try (var channel = FileChannel.open(csv, StandardOpenOption.READ)) {
+            var progress = new ProgressTracker(source, start);
+            var permits = new Semaphore(maxBlocksInMemory);
+            var parsed = new LinkedBlockingQueue<ParsedBlock>();
+            var failure = new AtomicReference<Throwable>();
+
+            var splitter = Thread.ofPlatform().name("csv-splitter").daemon().start(() -> {
+                var parsers = Executors.newFixedThreadPool(parseThreads,
+                        Thread.ofPlatform().name("csv-parser-", 0).daemon().factory());
+
+                // close() дожидается разбора всех отправленных блоков
+                try (parsers) {
+                    splitBlocks(channel, start, block -> {
+                        permits.acquireUninterruptibly();
+                        if (failure.get() != null) {
+                            throw new CancellationException();
+                        }
+
+                        parsers.execute(() -> {
+                            try {
+                                parsed.add(parse(channel, block));
+                            } catch (IOException | CsvException | RuntimeException e) {
+                                failure.compareAndSet(null, e);
+                            }
+                        });
+                    });
+                } catch (CancellationException ignored) {
+                    // Загрузка прервана ошибкой, она уже сохранена в failure
+                } catch (IOException | RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    parsed.add(END);
+                }
+            });
+
+            try {
+                var bulkLoader = keyValueApiYdbRepository.importLoader(tableName, source, blockBytes, uploadInFlight);
+                var stats = bulkLoader.loadChunks(blocksOf(parsed, failure), ParsedBlock::rows, block -> {
+                    progress.written(block.block());
+                    permits.release();
+                });
+
+                if (failure.get() != null) {
+                    throw new IOException("Import of " + csv + " failed", failure.get());
+                }
+                progress.flush().join();
+
+                return stats;
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+
+                throw e;
+            } finally {
+                // При ошибке разрезающий поток может ждать разрешения, которое уже никто не вернёт
+                permits.release(maxBlocksInMemory);
+                splitter.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IOException("Import of " + csv + " was interrupted", e);
+        }
+    }
+
+    /**
+     * Делит файл на блоки по границам записей. Кавычки учитываются, поэтому перевод строки внутри
+     * значения в кавычках не считается концом записи; "" внутри значения переключает состояние дважды.
+     */
+    void splitBlocks(FileChannel channel, ImportProgress start, Consumer<Block> consumer) throws IOException {
+        var size = channel.size();
+        long index = 0;
+        // Сохранённая граница всегда проходит между записями, вне кавычек
+        long blockStart = start.byteOffset();
+        long firstRecord = start.recordNumber();
+        long records = 0;
+        var quoted = false;
+
+        for (long windowStart = blockStart; windowStart < size; windowStart += SCAN_WINDOW_BYTES) {
+            var window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                    Math.min(SCAN_WINDOW_BYTES, size - windowStart));
+
+            for (int i = 0; i < window.limit(); i++) {
+                var b = window.get(i);
+
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted) {
+                    records++;
+
+                    var end = windowStart + i + 1;
+                    if (end - blockStart >= blockBytes) {
+                        consumer.accept(new Block(index++, blockStart, end - blockStart, firstRecord, records));
+                        blockStart = end;
+                        firstRecord += records;
+                        records = 0;
+                    }
+                }
+            }
+        }
+
+        // Последняя запись может быть без перевода строки в конце файла
+        if (blockStart < size) {
+            var lastByte = channel.map(FileChannel.MapMode.READ_ONLY, size - 1, 1).get(0);
+            consumer.accept(new Block(index, blockStart, size - blockStart, firstRecord,
+                    lastByte == '\n' ? records : records + 1));
+        }
+    }
+
+    /**
+     * Разбирает блок по RFC 4180, как его делит {@link #splitBlocks}: кавычка внутри значения экранируется
+     * только удвоением. Экранирование обратной косой чертой, которое CSVReader включает по умолчанию,
+     * отключено, иначе \" внутри значения не закрывал бы кавычки, и разбор расходился бы с границами блоков.
+     */
+    ParsedBlock parse(FileChannel channel, Block block) throws IOException, CsvException {
+        var buffer = channel.map(FileChannel.MapMode.READ_ONLY, block.offset(), block.length());
+        var rows = new ArrayList<CsvRecord>((int) block.recordCount());
+
+        try (var reader = new CSVReaderBuilder(new InputStreamReader(new ByteBufferInputStream(buffer),
+                StandardCharsets.UTF_8))
+                .withCSVParser(new CSVParserBuilder().withEscapeChar(ICSVParser.NULL_CHARACTER).build())
+                .build()) {
+            var recordNumber = block.firstRecord();
+
+            for (var line = reader.readNext(); line != null; line = reader.readNext(), recordNumber++) {
+                // Запись 0 - заголовок файла
+                if (recordNumber == 0 || line.length < 2) {
+                    continue;
+                }
+
+                rows.add(new CsvRecord(recordNumber, new TitleAuthor(line[0], line[1])));
+            }
+        }
+
+        return new ParsedBlock(block, rows);
+    }
+
+    // Отдаёт разобранные блоки в порядке готовности; после ошибки новые блоки не отдаются
+    private static Iterator<ParsedBlock> blocksOf(BlockingQueue<ParsedBlock> parsed, AtomicReference<Throwable> failure) {
+        return new Iterator<>() {
+            private ParsedBlock next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = parsed.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failure.compareAndSet(null, e);
+                        next = END;
+                    }
+                }
+
+                return next != END && failure.get() == null;
+            }
+
+            @Override
+            public ParsedBlock next() {
+                var block = next;
+                next = null;
+
+                return block;
+            }
+        };
+    }
+
+    /**
+     * Блок файла [offset, offset + length), содержащий записи с номерами [firstRecord, firstRecord + recordCount)
+     */
+    record Block(long index, long offset, long length, long firstRecord, long recordCount) {
+    }
+
+    record ParsedBlock(Block block, List<CsvRecord> rows) {
+    }
+
+    /**
+     * Продвигает границу записанных подряд блоков и сохраняет её. Сохранения выполняются строго
+     * друг за другом, чтобы более старая граница не перезаписала новую; пока одно ждёт очереди,
+     * новые блоки только сдвигают границу, которую оно сохранит.
+     */
+    private final class ProgressTracker {
+
+        private final String source;
+        private final ReentrantLock lock = new ReentrantLock();
+        // Записанные блоки, которые идут после ещё не записанных
+        private final TreeMap<Long, Block> written = new TreeMap<>();
+        private long nextIndex;
+        private ImportProgress committed;
+        private CompletableFuture<Void> lastSave = CompletableFuture.completedFuture(null);
+        private boolean savePending;
+
+        private ProgressTracker(String source, ImportProgress start) {
+            this.source = source;
+            this.committed = start;
+        }
+
+        void written(Block block) {
+            lock.lock();
+            try {
+                written.put(block.index(), block);
+
+                var advanced = false;
+                for (var next = written.remove(nextIndex); next != null; next = written.remove(nextIndex)) {
+                    committed = new ImportProgress(next.offset() + next.length(), next.firstRecord() + next.recordCount());
+                    nextIndex++;
+                    advanced = true;
+                }
+
+                if (advanced && !savePending) {
+                    savePending = true;
+                    lastSave = saveAfter(lastSave);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return future, завершающийся после сохранения текущей границы
+         */
+        CompletableFuture<Void> flush() {
+            lock.lock();
+            try {
+                savePending = true;
+                lastSave = saveAfter(lastSave);
+
+                return lastSave;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Неудачное промежуточное сохранение не прерывает импорт: после перезапуска повторится чуть больше блоков
+        private CompletableFuture<Void> saveAfter(CompletableFuture<Void> previous) {
+            return previous.exceptionally(error -> null).thenCompose(ignored -> {
+                ImportProgress progress;
+
+                lock.lock();
+                try {
+                    savePending = false;
+                    progress = committed;
+                } finally {
+                    lock.unlock();
+                }
+
+                return importProgressYdbRepository.saveProgressAsync(source, progress);
+            });
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            var count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+
+            return count;
+        }
+    }
+}
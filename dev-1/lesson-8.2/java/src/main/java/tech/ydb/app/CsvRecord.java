@@ -0,0 +1,40 @@
+package tech.ydb.app;
+
+/**
+ * Запись CSV-файла с её порядковым номером в файле (0 - заголовок).
+ * <p>
+ * Id тикета вычисляется из источника и номера записи, поэтому повторная загрузка той же записи,
+ * например после перезапуска импорта, перезаписывает строку, а не создаёт новую.
+ *
+ * @author Kirill Kurdyukov
+ */
+public record CsvRecord(long recordNumber, TitleAuthor titleAuthor) {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /**
+     * 64-битный хэш FNV-1a имени источника, вычисляется один раз на файл
+     */
+    public static long sourceHash(String source) {
+        var hash = 0xCBF29CE484222325L;
+
+        for (int i = 0; i < source.length(); i++) {
+            hash ^= source.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+
+        return hash;
+    }
+
+    /**
+     * Перемешивание splitmix64 взаимно однозначно, поэтому внутри одного источника разные номера записей
+     * всегда дают разные id. Совпадение возможно только между разными источниками.
+     */
+    public long id(long sourceHash) {
+        var z = sourceHash + recordNumber * GOLDEN_GAMMA;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+
+        return z ^ (z >>> 31);
+    }
+}
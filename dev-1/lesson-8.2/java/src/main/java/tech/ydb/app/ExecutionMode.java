@@ -0,0 +1,35 @@
+package tech.ydb.app;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Режим выполнения блокирующих вызовов репозиториев и воркеров топиков.
+ * Выбирается через системное свойство {@code -Dexecution.mode=virtual|platform}.
+ * <p>
+ * Блокирующие методы репозиториев ждут ответ сервера через CompletableFuture.join(), который
+ * паркует виртуальный поток и освобождает поток-носитель. Поэтому такие вызовы нельзя
+ * оборачивать в synchronized: внутри synchronized виртуальный поток закрепляется (pinning)
+ * за носителем, и вся выгода пропадает. Для взаимного исключения используйте ReentrantLock.
+ *
+ * @author Kirill Kurdyukov
+ */
+public enum ExecutionMode {
+    // Пул обычных потоков ОС фиксированного размера
+    PLATFORM,
+    // Отдельный виртуальный поток на каждую задачу
+    VIRTUAL;
+
+    private static final int PLATFORM_THREADS = Runtime.getRuntime().availableProcessors() * 8;
+
+    public static ExecutionMode fromSystemProperties() {
+        return valueOf(System.getProperty("execution.mode", "virtual").toUpperCase());
+    }
+
+    public ExecutorService newExecutor() {
+        return switch (this) {
+            case PLATFORM -> Executors.newFixedThreadPool(PLATFORM_THREADS);
+            case VIRTUAL -> Executors.newVirtualThreadPerTaskExecutor();
+        };
+    }
+}
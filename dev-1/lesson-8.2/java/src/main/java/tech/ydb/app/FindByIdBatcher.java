@@ -0,0 +1,78 @@
+package tech.ydb.app;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Объединяет одновременные вызовы findById в один запрос findByIds.
+ * <p>
+ * Запросы копятся до maxBatchSize штук или в течение maxDelay после первого запроса в пачке,
+ * после чего отправляется один запрос с AS_TABLE($ids), и каждый вызывающий получает свою строку.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class FindByIdBatcher implements AutoCloseable {
+
+    private final IssueYdbRepository issueYdbRepository;
+    private final MicroBatcher<PendingLookup> batcher;
+
+    public FindByIdBatcher(IssueYdbRepository issueYdbRepository, int maxBatchSize, Duration maxDelay) {
+        this.issueYdbRepository = issueYdbRepository;
+        this.batcher = new MicroBatcher<>("find-by-id-batcher", maxBatchSize, maxDelay, this::execute,
+                (batch, error) -> batch.forEach(lookup -> lookup.future().completeExceptionally(error)));
+    }
+
+    /**
+     * @return future с найденным тикетом или null, если тикет с указанным id не найден
+     * @throws IllegalStateException если батчер уже закрыт
+     */
+    public CompletableFuture<Issue> findById(long id) {
+        var lookup = new PendingLookup(id, new CompletableFuture<>());
+        batcher.add(lookup);
+
+        return lookup.future();
+    }
+
+    public long batchCount() {
+        return batcher.batchCount();
+    }
+
+    public long maxBatchSize() {
+        return batcher.maxBatchSize();
+    }
+
+    public double averageBatchSize() {
+        return batcher.averageBatchSize();
+    }
+
+    public long averageAddedLatencyMicros() {
+        return batcher.averageAddedLatencyMicros();
+    }
+
+    @Override
+    public void close() {
+        batcher.close();
+    }
+
+    private void execute(List<PendingLookup> batch) {
+        var ids = batch.stream().mapToLong(PendingLookup::id).distinct().toArray();
+
+        issueYdbRepository.findByIdsAsync(ids).whenComplete((issues, error) -> {
+            if (error != null) {
+                batch.forEach(lookup -> lookup.future().completeExceptionally(error));
+
+                return;
+            }
+
+            var issuesById = new HashMap<Long, Issue>();
+            issues.forEach(issue -> issuesById.put(issue.id(), issue));
+
+            batch.forEach(lookup -> lookup.future().complete(issuesById.get(lookup.id())));
+        });
+    }
+
+    private record PendingLookup(long id, CompletableFuture<Issue> future) {
+    }
+}
@@ -0,0 +1,98 @@
+package tech.ydb.app;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Групповая запись: одновременные addIssue и updateStatus объединяются в одну транзакцию
+ * вида UPSERT INTO issues SELECT * FROM AS_TABLE($issues).
+ * <p>
+ * Каждый вызывающий получает результат только после успешного коммита всей пачки.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class GroupCommitWriter implements AutoCloseable {
+
+    private final IssueYdbRepository issueYdbRepository;
+    private final MicroBatcher<PendingWrite> batcher;
+
+    public GroupCommitWriter(IssueYdbRepository issueYdbRepository, int maxBatchSize, Duration maxDelay) {
+        this.issueYdbRepository = issueYdbRepository;
+        this.batcher = new MicroBatcher<>("group-commit-writer", maxBatchSize, maxDelay, this::execute,
+                (batch, error) -> batch.forEach(write -> write.future().completeExceptionally(error)));
+    }
+
+    public CompletableFuture<Issue> addIssue(String title, String author) {
+        var issue = new Issue(ThreadLocalRandom.current().nextLong(), title, Instant.now(), author, 0, null);
+        var write = new NewIssue(issue, new CompletableFuture<>());
+        batcher.add(write);
+
+        return write.future();
+    }
+
+    public CompletableFuture<Void> updateStatus(long id, String status) {
+        var write = new StatusUpdate(id, status, new CompletableFuture<>());
+        batcher.add(write);
+
+        return write.future();
+    }
+
+    /**
+     * @return число выполненных транзакций
+     */
+    public long transactionCount() {
+        return batcher.batchCount();
+    }
+
+    public double averageBatchSize() {
+        return batcher.averageBatchSize();
+    }
+
+    @Override
+    public void close() {
+        batcher.close();
+    }
+
+    private void execute(List<PendingWrite> batch) {
+        var newIssues = new ArrayList<Issue>();
+        // Если в пачку попало несколько обновлений одного тикета, то побеждает последнее
+        var statuses = new LinkedHashMap<Long, String>();
+
+        for (var write : batch) {
+            switch (write) {
+                case NewIssue newIssue -> newIssues.add(newIssue.issue());
+                case StatusUpdate statusUpdate -> statuses.put(statusUpdate.id(), statusUpdate.status());
+            }
+        }
+
+        issueYdbRepository.writeBatchAsync(newIssues, statuses).whenComplete((ignored, error) -> {
+            for (var write : batch) {
+                if (error != null) {
+                    write.future().completeExceptionally(error);
+
+                    continue;
+                }
+
+                switch (write) {
+                    case NewIssue newIssue -> newIssue.future().complete(newIssue.issue());
+                    case StatusUpdate statusUpdate -> statusUpdate.future().complete(null);
+                }
+            }
+        });
+    }
+
+    private sealed interface PendingWrite permits NewIssue, StatusUpdate {
+        CompletableFuture<?> future();
+    }
+
+    private record NewIssue(Issue issue, CompletableFuture<Issue> future) implements PendingWrite {
+    }
+
+    private record StatusUpdate(long id, String status, CompletableFuture<Void> future) implements PendingWrite {
+    }
+}
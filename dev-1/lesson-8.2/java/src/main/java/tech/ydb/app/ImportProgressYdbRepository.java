@@ -0,0 +1,71 @@
+package tech.ydb.app;
+
+import java.util.concurrent.CompletableFuture;
+
+import tech.ydb.common.transaction.TxMode;
+import tech.ydb.query.tools.SessionRetryContext;
+import tech.ydb.table.query.Params;
+import tech.ydb.table.values.PrimitiveValue;
+
+import javax.annotation.Nullable;
+
+/**
+ * Прогресс импорта файлов в таблице import_file_progress, как write_file_progress в уроке 6.2:
+ * для каждого файла хранится смещение, до которого все записи уже загружены, и номер следующей записи.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class ImportProgressYdbRepository {
+
+    private final AsyncQueryServiceHelper asyncQueryServiceHelper;
+
+    public ImportProgressYdbRepository(SessionRetryContext retryCtx) {
+        this.asyncQueryServiceHelper = new AsyncQueryServiceHelper(retryCtx);
+    }
+
+    /**
+     * @return сохранённый прогресс или null, если импорт файла ещё не начинался
+     */
+    @Nullable
+    public ImportProgress findProgress(String name) {
+        return asyncQueryServiceHelper.executeQuery("findImportProgress", """
+                        DECLARE $name AS Text;
+                        SELECT byte_offset, record_num FROM import_file_progress
+                        WHERE name = $name;
+                        """,
+                TxMode.SNAPSHOT_RO,
+                Params.of("$name", PrimitiveValue.newText(name))
+        ).thenApply(queryReader -> {
+            var resultSet = queryReader.getResultSet(0);
+
+            return resultSet.next()
+                    ? new ImportProgress(resultSet.getColumn(0).getInt64(), resultSet.getColumn(1).getInt64())
+                    : null;
+        }).join();
+    }
+
+    public CompletableFuture<Void> saveProgressAsync(String name, ImportProgress progress) {
+        return asyncQueryServiceHelper.executeUpdate("saveImportProgress", """
+                        DECLARE $name AS Text;
+                        DECLARE $byte_offset AS Int64;
+                        DECLARE $record_num AS Int64;
+
+                        UPSERT INTO import_file_progress(name, byte_offset, record_num)
+                        VALUES ($name, $byte_offset, $record_num);
+                        """,
+                TxMode.SERIALIZABLE_RW,
+                Params.of(
+                        "$name", PrimitiveValue.newText(name),
+                        "$byte_offset", PrimitiveValue.newInt64(progress.byteOffset()),
+                        "$record_num", PrimitiveValue.newInt64(progress.recordNumber())
+                )
+        );
+    }
+
+    /**
+     * @param byteOffset   все записи файла до этого смещения загружены, с него начинается следующая запись
+     * @param recordNumber номер записи, которая начинается с byteOffset
+     */
+    public record ImportProgress(long byteOffset, long recordNumber) {
+    }
+}
@@ -0,0 +1,241 @@
+package tech.ydb.app;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.UnaryOperator;
+
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import javax.annotation.Nullable;
+
+/**
+ * Кэш тикетов со сквозным чтением перед {@link IssueYdbRepository#findByIdAsync} и
+ * {@link IssueYdbRepository#findByIdsAsync}.
+ * <p>
+ * Размер кэша ограничен, вытеснение выполняет Caffeine по политике W-TinyLFU: в кэш попадают ключи,
+ * которые запрашивают чаще, чем вытесняемые. Вместо TTL кэш подписывается на changefeed через
+ * {@link #apply(IssueChange)}: закэшированные тикеты заменяются новым образом строки, удалённые вытесняются.
+ * Тикеты, которых нет в кэше, изменения не добавляют, чтобы редкие записи не вытесняли горячие ключи.
+ * <p>
+ * Записи этого клиента попадают в кэш сразу через {@link #writeThrough}, см. {@link WriteThroughIssueRepository}.
+ * Порядок записей и изменений из changefeed сравнивается по шагу виртуальной метки времени: для каждого тикета
+ * кэш помнит шаг последнего применённого изменения и шаг, не раньше которого закоммичена запись этого клиента.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class IssueCache {
+
+    private final AsyncLoadingCache<Long, CachedIssue> cache;
+
+    // Отставание кэша от базы: разница между временем применения изменения и его виртуальной меткой
+    private final AtomicLong lastStalenessMillis = new AtomicLong();
+    private final LongAccumulator maxStalenessMillis = new LongAccumulator(Math::max, 0);
+    private final AtomicLong appliedChanges = new AtomicLong();
+    private final AtomicLong skippedChanges = new AtomicLong();
+
+    public IssueCache(IssueYdbRepository issueYdbRepository, long maximumSize) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .buildAsync(new AsyncCacheLoader<Long, CachedIssue>() {
+                    @Override
+                    public CompletableFuture<CachedIssue> asyncLoad(Long id, Executor executor) {
+                        return issueYdbRepository.findByIdAsync(id)
+                                .thenApply(issue -> issue == null ? null : new CachedIssue(issue, 0, 0));
+                    }
+
+                    @Override
+                    public CompletableFuture<Map<Long, CachedIssue>> asyncLoadAll(Set<? extends Long> ids,
+                                                                                Executor executor) {
+                        var idsArray = ids.stream().mapToLong(Long::longValue).toArray();
+
+                        return issueYdbRepository.findByIdsAsync(idsArray).thenApply(issues -> {
+                            var issuesById = new HashMap<Long, CachedIssue>(issues.size());
+                            issues.forEach(issue -> issuesById.put(issue.id(), new CachedIssue(issue, 0, 0)));
+
+                            return issuesById;
+                        });
+                    }
+                });
+    }
+
+    @Nullable
+    public Issue findById(long id) {
+        return findByIdAsync(id).join();
+    }
+
+    public List<Issue> findByIds(long[] ids) {
+        return findByIdsAsync(ids).join();
+    }
+
+    /**
+     * @return future с найденным тикетом или null, если тикет с указанным id не найден
+     */
+    public CompletableFuture<Issue> findByIdAsync(long id) {
+        return cache.get(id).thenApply(cached -> cached == null ? null : cached.issue());
+    }
+
+    /**
+     * Промахи загружаются одним запросом findByIds, несуществующие id в результат не попадают
+     */
+    public CompletableFuture<List<Issue>> findByIdsAsync(long[] ids) {
+        var keys = new ArrayList<Long>(ids.length);
+        for (var id : ids) {
+            keys.add(id);
+        }
+
+        return cache.getAll(keys).thenApply(issuesById -> {
+            var issues = new ArrayList<Issue>(issuesById.size());
+            issuesById.values().forEach(cached -> issues.add(cached.issue()));
+
+            return issues;
+        });
+    }
+
+    /**
+     * @return копия закэшированных тикетов, например для сохранения снимка
+     */
+    public List<Issue> entries() {
+        var issues = new ArrayList<Issue>();
+        cache.synchronous().asMap().values().forEach(cached -> issues.add(cached.issue()));
+
+        return issues;
+    }
+
+    /**
+     * Заполняет кэш без обращения к базе, например тикетами из снимка. Статистику попаданий не меняет.
+     */
+    public void preload(Collection<Issue> issues) {
+        for (var issue : issues) {
+            cache.put(issue.id(), CompletableFuture.completedFuture(new CachedIssue(issue, 0, 0)));
+        }
+    }
+
+    /**
+     * Применяет изменение из changefeed. Вызывается из потока {@link IssueChangefeedWorker}.
+     */
+    public void apply(IssueChange change) {
+        cache.synchronous().asMap().computeIfPresent(change.id(), (id, cached) -> {
+            // Изменение закоммичено раньше записи этого клиента и затёрло бы её. Строки начального
+            // сканирования (шаг 0) тоже старше любой записи
+            if (change.step() < cached.pendingWriteStep()) {
+                skippedChanges.incrementAndGet();
+
+                return cached;
+            }
+
+            // Changefeed передаёт изменения одного ключа по порядку, поэтому после изменения не старше записи
+            // все следующие изменения тоже не старше, и отметка снимается
+            return change.isErase() ? null : new CachedIssue(change.newImage(), change.step(), 0);
+        });
+
+        // У строк начального сканирования нет виртуальной метки времени
+        if (change.step() > 0) {
+            var staleness = Math.max(0, System.currentTimeMillis() - change.step());
+            lastStalenessMillis.set(staleness);
+            maxStalenessMillis.accumulate(staleness);
+        }
+        appliedChanges.incrementAndGet();
+    }
+
+    /**
+     * Кладёт в кэш тикет, записанный этим клиентом, чтобы следующее чтение сразу увидело запись.
+     * <p>
+     * SDK не возвращает виртуальную метку времени коммита, поэтому версией записи служит writeStep - время
+     * до начала транзакции: коммит получает шаг не меньше его. Пока changefeed не передаст изменение
+     * с шагом не меньше writeStep, изменения строки считаются более старыми и пропускаются. Если такое изменение
+     * уже применено к кэшу, тикет в кэше не старше записи и не заменяется.
+     * <p>
+     * Метка сравнивается с часами клиента, поэтому расхождение часов клиента и YDB сдвигает границу:
+     * если часы клиента спешат, кэш дольше держит запись, если отстают - изменение, закоммиченное между
+     * writeStep и коммитом записи, может ненадолго перекрыть её, пока по changefeed не придёт сама запись.
+     *
+     * @param writeStep время в миллисекундах с начала эпохи, взятое до начала транзакции записи
+     */
+    public void writeThrough(Issue issue, long writeStep) {
+        cache.synchronous().asMap().compute(issue.id(), (id, cached) ->
+                cached != null && cached.appliedStep() >= writeStep
+                        ? cached
+                        : new CachedIssue(issue, cached == null ? 0 : cached.appliedStep(), writeStep)
+        );
+    }
+
+    /**
+     * То же, что {@link #writeThrough}, но только если тикет уже в кэше: для записей, которые знают
+     * лишь часть колонок тикета, например link_count
+     */
+    public void writeThroughIfPresent(long id, UnaryOperator<Issue> update, long writeStep) {
+        cache.synchronous().asMap().computeIfPresent(id, (key, cached) ->
+                cached.appliedStep() >= writeStep
+                        ? cached
+                        : new CachedIssue(update.apply(cached.issue()), cached.appliedStep(), writeStep)
+        );
+    }
+
+    /**
+     * Убирает тикет из кэша: следующее чтение пойдёт в базу
+     */
+    public void invalidate(long id) {
+        cache.synchronous().invalidate(id);
+    }
+
+    /**
+     * @return число изменений из changefeed, пропущенных из-за более поздней записи этого клиента
+     */
+    public long skippedChanges() {
+        return skippedChanges.get();
+    }
+
+    public double hitRatio() {
+        return cache.synchronous().stats().hitRate();
+    }
+
+    public long hitCount() {
+        return cache.synchronous().stats().hitCount();
+    }
+
+    public long missCount() {
+        return cache.synchronous().stats().missCount();
+    }
+
+    /**
+     * @return число тикетов, вытесненных из-за ограничения размера (без учёта инвалидаций из changefeed)
+     */
+    public long evictionCount() {
+        return cache.synchronous().stats().evictionCount();
+    }
+
+    public long lastStalenessMillis() {
+        return lastStalenessMillis.get();
+    }
+
+    public long maxStalenessMillis() {
+        return maxStalenessMillis.get();
+    }
+
+    public long appliedChanges() {
+        return appliedChanges.get();
+    }
+
+    public long size() {
+        return cache.synchronous().estimatedSize();
+    }
+
+    /**
+     * @param appliedStep      шаг последнего применённого изменения из changefeed; 0, если тикет прочитан из базы
+     * @param pendingWriteStep шаг, не раньше которого закоммичена последняя запись этого клиента, пока изменение
+     *                         не старше неё не пришло по changefeed; иначе 0
+     */
+    private record CachedIssue(Issue issue, long appliedStep, long pendingWriteStep) {
+    }
+}
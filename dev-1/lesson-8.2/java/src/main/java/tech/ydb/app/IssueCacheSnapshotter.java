@@ -0,0 +1,255 @@
+package tech.ydb.app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+
+/**
+ * Периодически сохраняет содержимое {@link IssueCache} в файл и восстанавливает его при старте,
+ * чтобы после перезапуска кэш не прогревался заново запросами findByIds.
+ * <p>
+ * Снимок пишется через отображённый в память файл во временный файл, который затем атомарно
+ * заменяет предыдущий снимок. Вместе с тикетами сохраняется позиция changefeed, до которой они актуальны.
+ * Changefeed читается в режиме commitOnCheckpoint, и сообщения подтверждаются только после записи снимка,
+ * поэтому после перезапуска читатель получит ровно хвост изменений после снимка. Изменения, попавшие
+ * в снимок и полученные повторно, применяются ещё раз без вреда: кэш просто заменяет тикет его новым образом.
+ * <p>
+ * Восстанавливать снимок нужно до запуска {@link IssueChangefeedWorker}, иначе изменения из хвоста
+ * не найдут тикетов в кэше. Перед загрузкой позиция снимка сверяется с позицией читателя в топике:
+ * если часть изменений после снимка уже подтверждена или удалена по сроку хранения топика, хвост
+ * не дополнит снимок до актуального состояния, и снимок не загружается.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class IssueCacheSnapshotter implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IssueCacheSnapshotter.class);
+
+    private static final int MAGIC = 0x59444249;
+    private static final int FORMAT_VERSION = 1;
+    // id, created_at (секунды и наносекунды), link_count и длины трёх строк
+    private static final int FIXED_RECORD_BYTES = 8 + 8 + 4 + 8 + 3 * 4;
+    private static final int NULL_TEXT = -1;
+
+    private final IssueCache issueCache;
+    private final IssueChangefeedWorker changefeedWorker;
+    private final Path path;
+    private final ScheduledExecutorService scheduler;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Позиции неудачных снимков: их сообщения подтверждаются вместе со следующим удачным,
+    // иначе пропуск в подтверждённых смещениях не дал бы сдвинуть позицию читателя
+    private final List<ChangefeedCheckpoint> uncommitted = new ArrayList<>();
+    private volatile long lastSnapshotIssues;
+    private volatile long lastSnapshotMillis;
+
+    public IssueCacheSnapshotter(IssueCache issueCache, IssueChangefeedWorker changefeedWorker, Path path) {
+        this.issueCache = issueCache;
+        this.changefeedWorker = changefeedWorker;
+        this.path = path;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                runnable -> Thread.ofPlatform().name("issue-cache-snapshotter").daemon().unstarted(runnable)
+        );
+    }
+
+    public void start(Duration interval) {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (Exception e) {
+                LOGGER.error("Failed to write issue cache snapshot to {}", path, e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Сохраняет снимок и подтверждает сообщения changefeed, изменения из которых в него вошли
+     */
+    public void snapshot() throws IOException {
+        lock.lock();
+        try {
+            var start = System.nanoTime();
+            // Позиция берётся до чтения кэша: в снимок могут попасть и более поздние изменения, но не более ранние
+            var checkpoint = changefeedWorker.checkpoint();
+            uncommitted.add(checkpoint);
+
+            var issues = issueCache.entries();
+            write(path, checkpoint, issues);
+
+            uncommitted.forEach(ChangefeedCheckpoint::commit);
+            uncommitted.clear();
+
+            lastSnapshotIssues = issues.size();
+            lastSnapshotMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Загружает тикеты из снимка в кэш, если changefeedWorker продолжит чтение сразу за позицией снимка.
+     *
+     * @param changefeedWorker ещё не запущенный читатель, который будет применять к кэшу хвост изменений
+     * @return сведения о снимке или null, если файла снимка нет
+     */
+    @Nullable
+    public static Restored restore(Path path, IssueCache issueCache, IssueChangefeedWorker changefeedWorker)
+            throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IOException("Unsupported issue cache snapshot format: " + path);
+            }
+
+            var step = buffer.getLong();
+            var txId = buffer.getLong();
+            var partitionOffsets = new HashMap<Long, Long>();
+            for (int i = buffer.getInt(); i > 0; i--) {
+                partitionOffsets.put(buffer.getLong(), buffer.getLong());
+            }
+
+            var gaps = changefeedWorker.findGaps(partitionOffsets);
+            if (!gaps.isEmpty()) {
+                LOGGER.warn("Issue cache snapshot {} at step {} is behind changefeed in partitions {}, skipping it",
+                        path, step, gaps);
+
+                return new Restored(step, txId, partitionOffsets, gaps, 0);
+            }
+
+            var issueCount = buffer.getInt();
+            var issues = new ArrayList<Issue>(issueCount);
+            for (int i = 0; i < issueCount; i++) {
+                var id = buffer.getLong();
+                var createdAt = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+                var linkCount = buffer.getLong();
+
+                issues.add(new Issue(id, readText(buffer), createdAt, readText(buffer), linkCount, readText(buffer)));
+            }
+
+            issueCache.preload(issues);
+
+            return new Restored(step, txId, partitionOffsets, gaps, issues.size());
+        }
+    }
+
+    public long lastSnapshotIssues() {
+        return lastSnapshotIssues;
+    }
+
+    public long lastSnapshotMillis() {
+        return lastSnapshotMillis;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+    }
+
+    private static void write(Path path, ChangefeedCheckpoint checkpoint, List<Issue> issues) throws IOException {
+        // Размер с запасом: в UTF-8 на символ приходится не больше 3 байт. Лишнее отрезается после записи
+        long maxBytes = 4 + 4 + 8 + 8 + 4 + 16L * checkpoint.partitionOffsets().size() + 4;
+        for (var issue : issues) {
+            maxBytes += FIXED_RECORD_BYTES
+                    + 3L * (length(issue.title()) + length(issue.author()) + length(issue.status()));
+        }
+
+        if (maxBytes > Integer.MAX_VALUE) {
+            throw new IOException("Issue cache snapshot is too large: " + maxBytes + " bytes");
+        }
+
+        var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (var channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+
+            buffer.putInt(MAGIC)
+                    .putInt(FORMAT_VERSION)
+                    .putLong(checkpoint.step())
+                    .putLong(checkpoint.txId())
+                    .putInt(checkpoint.partitionOffsets().size());
+            checkpoint.partitionOffsets().forEach((partitionId, offset) -> buffer.putLong(partitionId).putLong(offset));
+
+            buffer.putInt(issues.size());
+            for (var issue : issues) {
+                buffer.putLong(issue.id())
+                        .putLong(issue.now().getEpochSecond())
+                        .putInt(issue.now().getNano())
+                        .putLong(issue.linkCounts());
+                writeText(buffer, issue.title());
+                writeText(buffer, issue.author());
+                writeText(buffer, issue.status());
+            }
+
+            buffer.force();
+            channel.truncate(buffer.position());
+        }
+
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeText(ByteBuffer buffer, @Nullable String text) {
+        if (text == null) {
+            buffer.putInt(NULL_TEXT);
+            return;
+        }
+
+        var bytes = text.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    @Nullable
+    private static String readText(ByteBuffer buffer) {
+        var length = buffer.getInt();
+        if (length == NULL_TEXT) {
+            return null;
+        }
+
+        var bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int length(@Nullable String text) {
+        return text == null ? 0 : text.length();
+    }
+
+    /**
+     * @param step             виртуальная метка времени, до которой актуален снимок
+     * @param partitionOffsets смещения последних вошедших в снимок сообщений по партициям
+     * @param gaps             партиции, в которых чтение продолжится не сразу за снимком; если они есть,
+     *                         снимок не загружен
+     * @param issues           число загруженных тикетов
+     */
+    public record Restored(long step, long txId, Map<Long, Long> partitionOffsets, Set<Long> gaps, int issues) {
+
+        public boolean isLoaded() {
+            return gaps.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package tech.ydb.app;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import javax.annotation.Nullable;
+
+/**
+ * Изменение строки таблицы issues из changefeed issues/updates.
+ * <p>
+ * Changefeed создан в режиме NEW_AND_OLD_IMAGES с виртуальными метками времени, поэтому сообщение выглядит так:
+ * {"key":[id],"oldImage":{...},"newImage":{...},"ts":[step,txId]}.
+ * При вставке oldImage отсутствует, при удалении отсутствует newImage.
+ *
+ * @param step шаг плана виртуальной метки времени, миллисекунды с начала эпохи
+ * @author Kirill Kurdyukov
+ */
+public record IssueChange(long id, @Nullable Issue oldImage, @Nullable Issue newImage, long step, long txId) {
+
+    public boolean isErase() {
+        return newImage == null;
+    }
+
+    public static IssueChange parse(byte[] data) {
+        return fromJson(JsonParser.parseString(new String(data, StandardCharsets.UTF_8)).getAsJsonObject());
+    }
+
+    /**
+     * Строки начального сканирования (INITIAL_SCAN) приходят без виртуальной метки времени, для них step и txId равны 0
+     */
+    public static IssueChange fromJson(JsonObject json) {
+        var id = idFromJson(json);
+        var ts = json.getAsJsonArray("ts");
+
+        return new IssueChange(
+                id,
+                readImage(id, json.get("oldImage")),
+                readImage(id, json.get("newImage")),
+                ts == null ? 0 : ts.get(0).getAsLong(),
+                ts == null ? 0 : ts.get(1).getAsLong()
+        );
+    }
+
+    public static long idFromJson(JsonObject json) {
+        return json.getAsJsonArray("key").get(0).getAsLong();
+    }
+
+    @Nullable
+    private static Issue readImage(long id, @Nullable JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+
+        var image = element.getAsJsonObject();
+        var linkCount = image.get("link_count");
+
+        return new Issue(
+                id,
+                readText(image, "title"),
+                Instant.parse(image.get("created_at").getAsString()),
+                readText(image, "author"),
+                linkCount == null || linkCount.isJsonNull() ? 0 : linkCount.getAsLong(),
+                readText(image, "status")
+        );
+    }
+
+    @Nullable
+    private static String readText(JsonObject image, String column) {
+        var value = image.get(column);
+
+        return value == null || value.isJsonNull() ? null : value.getAsString();
+    }
+}
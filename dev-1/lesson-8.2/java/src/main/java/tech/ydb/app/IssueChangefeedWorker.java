@@ -0,0 +1,37 @@
+package tech.ydb.app;
+
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
+import tech.ydb.topic.TopicClient;
+
+/**
+ * Фоновый читатель changefeed issues/updates, который передаёт подписчикам изменения в виде {@link IssueChange}.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class IssueChangefeedWorker extends ChangefeedWorker<IssueChange> {
+
+    /**
+     * @param consumerName читатель топика, заведённый в {@link SchemaYdbRepository#createSchema()}
+     * @param executor     пул, в котором работает цикл чтения
+     */
+    public IssueChangefeedWorker(TopicClient topicClient, String consumerName, Executor executor) {
+        this(topicClient, consumerName, executor, false);
+    }
+
+    /**
+     * @param commitOnCheckpoint подтверждать сообщения только через {@link ChangefeedCheckpoint#commit()},
+     *                           см. {@link ChangefeedWorker}
+     */
+    public IssueChangefeedWorker(TopicClient topicClient, String consumerName, Executor executor,
+                                 boolean commitOnCheckpoint) {
+        super(topicClient, "issues/updates", consumerName, executor, commitOnCheckpoint, IssueChange::fromJson);
+    }
+
+    /**
+     * Передаёт id тикета из сообщения, которое не удалось обработать, например в {@link IssueCache#invalidate}
+     */
+    public void addFailedIdListener(LongConsumer failedIdListener) {
+        addFailureListener(json -> failedIdListener.accept(IssueChange.idFromJson(json)));
+    }
+}
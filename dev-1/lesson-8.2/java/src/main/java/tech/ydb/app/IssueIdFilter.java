@@ -0,0 +1,562 @@
+package tech.ydb.app;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Фильтр существования id тикетов (cuckoo filter). Отвечает "тикета точно нет" или "тикет, возможно, есть".
+ * <p>
+ * Каждый id хранится 16-битным отпечатком в одной из двух корзин по 4 отпечатка, корзина упакована в один long.
+ * В отличие от фильтра Блума, отпечаток можно удалить, поэтому фильтр поддерживается в актуальном состоянии
+ * по changefeed: вставка строки добавляет id, удаление - убирает.
+ * <p>
+ * Ложноотрицательных ответов фильтр не даёт, пока в нём есть место. Если вставка не удалась, фильтр
+ * переходит в насыщенное состояние и на любой id отвечает "возможно, есть" до пересборки: {@link #rebuildAsync}
+ * заполняет новую таблицу отпечатков удвоенной ёмкости чтением таблицы issues и подменяет ею старую.
+ * После {@link #fillAsync} насыщенный фильтр пересобирается сам тем же чтением.
+ * <p>
+ * Удаление отпечатка id, который не добавлялся, может стереть совпадающий отпечаток другого тикета,
+ * и тогда фильтр ответит "тикета нет" для существующего тикета. Поэтому удаления из changefeed применяются
+ * только после завершения {@link #fillAsync}: пока идёт чтение таблицы, удаление может прийти раньше,
+ * чем чтение добавит строку, или относиться к строке, которую чтение уже не увидит. Такие удаления
+ * пропускаются, и id остаётся в фильтре ложноположительным. Повторное добавление одного id (чтением и
+ * changefeed) хранит две копии отпечатка, и одно удаление убирает только одну из них. Пересборка убирает
+ * и такие копии, и пропущенные удаления.
+ * Тикеты, созданные другими клиентами, видны фильтру только после того, как изменение дошло по changefeed.
+ * Поэтому фильтр, подключённый через {@link #subscribe}, считается актуальным ({@link #isCurrent()}), только пока
+ * changefeed отстаёт не больше чем на maxLag: иначе ответ "тикета нет" для недавно созданного тикета неверен,
+ * и репозиторий идёт в базу.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class IssueIdFilter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IssueIdFilter.class);
+
+    private static final int SLOTS_PER_BUCKET = 4;
+    private static final int FINGERPRINT_BITS = 16;
+    private static final long FINGERPRINT_MASK = 0xFFFFL;
+    private static final int MAX_KICKS = 500;
+    // Заполненность cuckoo filter с корзинами по 4 отпечатка держится до ~95%
+    private static final double LOAD_FACTOR = 0.95;
+    // Ёмкость, при которой число корзин ещё не больше 2^30
+    private static final long MAX_CAPACITY = (1L << 30) * SLOTS_PER_BUCKET * 9 / 10;
+
+    // Защищает таблицы и ссылки на них; mightContain читает без блокировки и проверяет метку
+    private final StampedLock lock = new StampedLock();
+    private final LongAdder absentCount = new LongAdder();
+
+    private Table table;
+    // Таблица, которую заполняет пересборка: изменения из changefeed пишутся и в неё, и в текущую
+    @Nullable
+    private Table rebuilding;
+    @Nullable
+    private CompletableFuture<Long> rebuild;
+    // Чтение из fillAsync, которым фильтр пересобирается после насыщения
+    @Nullable
+    private ParallelIssueScanner scanner;
+    private long rebuildCount;
+
+    // Шаг, до которого фильтр получил все изменения из changefeed; без подписки фильтр всегда актуален
+    private volatile LongSupplier resolvedStep = () -> Long.MAX_VALUE;
+    private volatile long maxLagMillis;
+    private final LongAdder staleCount = new LongAdder();
+
+    /**
+     * @param capacity сколько id должен вмещать фильтр, с запасом на рост таблицы
+     */
+    public IssueIdFilter(long capacity) {
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity is too large: " + capacity);
+        }
+
+        this.table = new Table(capacity);
+    }
+
+    /**
+     * Подписывает фильтр на изменения из changefeed и считает его актуальным, пока resolved timestamp
+     * changefeed отстаёт от текущего времени не больше чем на maxLag. Вызывается до {@link #fillAsync}.
+     *
+     * @param maxLag отставание, при котором фильтр ещё можно использовать; тикеты, созданные другими клиентами
+     *               за это время, фильтр может не знать. Должно быть больше интервала RESOLVED_TIMESTAMPS
+     */
+    public void subscribe(IssueChangefeedWorker changefeedWorker, Duration maxLag) {
+        this.maxLagMillis = maxLag.toMillis();
+        this.resolvedStep = changefeedWorker::resolvedStep;
+        changefeedWorker.addListener(this::apply);
+    }
+
+    /**
+     * @return true, если ответу "тикета нет" можно верить: changefeed, на который подписан фильтр, не отстаёт
+     * больше чем на maxLag. Пока это не так, id нужно искать в базе.
+     */
+    public boolean isCurrent() {
+        if (resolvedStep.getAsLong() >= System.currentTimeMillis() - maxLagMillis) {
+            return true;
+        }
+
+        staleCount.increment();
+
+        return false;
+    }
+
+    /**
+     * @return сколько раз фильтр не использовался из-за отставания changefeed
+     */
+    public long staleCount() {
+        return staleCount.sum();
+    }
+
+    /**
+     * Добавляет в фильтр все тикеты таблицы, читая диапазоны ключей параллельно.
+     * Фильтр нужно подписать на changefeed до вызова, чтобы не потерять вставки, сделанные во время чтения.
+     * Удаления из changefeed начинают применяться только после успешного завершения чтения.
+     *
+     * @return future с числом прочитанных тикетов
+     */
+    public CompletableFuture<Long> fillAsync(ParallelIssueScanner scanner) {
+        Table filled;
+        var stamp = lock.writeLock();
+        try {
+            this.scanner = scanner;
+            filled = table;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        return scanner.scanAsync(issue -> add(issue.id())).thenApply(rows -> {
+            boolean saturated;
+            var writeStamp = lock.writeLock();
+            try {
+                filled.filling = false;
+                saturated = filled.saturated;
+            } finally {
+                lock.unlockWrite(writeStamp);
+            }
+
+            if (saturated) {
+                rebuildAsync(scanner);
+            }
+
+            return rows;
+        });
+    }
+
+    /**
+     * Заполняет новую таблицу отпечатков чтением issues и после завершения чтения заменяет ею текущую.
+     * Пока идёт чтение, фильтр отвечает по текущей таблице. Ёмкость новой таблицы - вдвое больше
+     * числа id в текущей, но не меньше её ёмкости. Если пересборка уже идёт, возвращает её future.
+     *
+     * @return future с числом прочитанных тикетов
+     */
+    public CompletableFuture<Long> rebuildAsync(ParallelIssueScanner scanner) {
+        Table next;
+        CompletableFuture<Long> result;
+        var stamp = lock.writeLock();
+        try {
+            if (rebuild != null) {
+                return rebuild;
+            }
+
+            next = new Table(Math.min(MAX_CAPACITY, Math.max(table.capacity, 2 * Math.max(table.count, 1))));
+            rebuilding = next;
+            result = new CompletableFuture<>();
+            rebuild = result;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        scanner.scanAsync(issue -> addTo(next, issue.id())).whenComplete((rows, error) -> {
+            boolean saturated;
+            var writeStamp = lock.writeLock();
+            try {
+                rebuilding = null;
+                rebuild = null;
+
+                if (error == null) {
+                    next.filling = false;
+                    table = next;
+                    rebuildCount++;
+                }
+                saturated = table.saturated;
+            } finally {
+                lock.unlockWrite(writeStamp);
+            }
+
+            if (error != null) {
+                LOGGER.error("Failed to rebuild issue id filter, keeping the previous one", error);
+                result.completeExceptionally(error);
+
+                return;
+            }
+
+            LOGGER.info("Issue id filter rebuilt: {} ids in {} buckets", next.count, next.buckets.length);
+            // Пока шло чтение, в таблицу могло прийти больше вставок, чем она вмещает
+            if (saturated) {
+                rebuildAsync(scanner);
+            }
+            result.complete(rows);
+        });
+
+        return result;
+    }
+
+    /**
+     * @return false, если тикета с таким id точно нет
+     */
+    public boolean mightContain(long id) {
+        var hash = mix(id);
+        var fingerprint = fingerprint(hash);
+
+        var stamp = lock.tryOptimisticRead();
+        var found = table.contains(hash, fingerprint);
+
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                found = table.contains(hash, fingerprint);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        if (!found) {
+            absentCount.increment();
+        }
+
+        return found;
+    }
+
+    public void add(long id) {
+        ParallelIssueScanner rebuildScanner = null;
+        var stamp = lock.writeLock();
+        try {
+            if (rebuilding != null) {
+                rebuilding.add(id);
+            }
+
+            // Насыщение во время fillAsync обрабатывается по завершении чтения
+            if (table.add(id) && !table.filling && rebuild == null) {
+                rebuildScanner = scanner;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        if (rebuildScanner != null) {
+            rebuildAsync(rebuildScanner);
+        }
+    }
+
+    /**
+     * Удалять можно только id, которые были добавлены, иначе можно стереть отпечаток другого тикета.
+     * Для изменений из changefeed используйте {@link #apply}, он пропускает удаления, для которых это не известно.
+     */
+    public void remove(long id) {
+        var stamp = lock.writeLock();
+        try {
+            table.remove(id);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Применяет изменение из changefeed. Вызывается из потока {@link IssueChangefeedWorker}.
+     * Удаление без oldImage относится к строке, которой не было, и пропускается,
+     * как и удаления, пришедшие до завершения {@link #fillAsync} или {@link #rebuildAsync}.
+     */
+    public void apply(IssueChange change) {
+        if (change.oldImage() == null && change.newImage() != null) {
+            add(change.id());
+        } else if (change.isErase() && change.oldImage() != null) {
+            erase(change.id());
+        }
+    }
+
+    /**
+     * @return число удалений, пропущенных во время заполнения текущей таблицы;
+     * их id остались в фильтре ложноположительными до следующей пересборки
+     */
+    public long skippedErases() {
+        var stamp = lock.readLock();
+        try {
+            return table.skippedErases;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean isSaturated() {
+        var stamp = lock.readLock();
+        try {
+            return table.saturated;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return число id в фильтре, включая повторно добавленные
+     */
+    public long count() {
+        var stamp = lock.readLock();
+        try {
+            return table.count;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return сколько раз текущая таблица была заменена пересборкой
+     */
+    public long rebuildCount() {
+        var stamp = lock.readLock();
+        try {
+            return rebuildCount;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return размер таблиц отпечатков, во время пересборки - обеих
+     */
+    public long memoryBytes() {
+        var stamp = lock.readLock();
+        try {
+            return table.memoryBytes() + (rebuilding == null ? 0 : rebuilding.memoryBytes());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return сколько раз фильтр ответил "тикета нет", то есть сколько запросов к базе не понадобилось
+     */
+    public long absentCount() {
+        return absentCount.sum();
+    }
+
+    // Строки чтения пересборки попадают только в новую таблицу
+    private void addTo(Table target, long id) {
+        var stamp = lock.writeLock();
+        try {
+            target.add(id);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void erase(long id) {
+        var stamp = lock.writeLock();
+        try {
+            // Новая таблица ещё заполняется, удаление в ней пропускается
+            if (rebuilding != null) {
+                rebuilding.erase(id);
+            }
+            table.erase(id);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Финальное перемешивание MurmurHash3
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb93e53a9fe63L;
+        value ^= value >>> 33;
+
+        return value;
+    }
+
+    // Отпечаток 0 обозначает пустой слот, поэтому берётся из старших бит хэша и не бывает нулевым
+    private static long fingerprint(long hash) {
+        var fingerprint = hash >>> (Long.SIZE - FINGERPRINT_BITS);
+
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    /**
+     * Таблица отпечатков. Все методы вызываются под блокировкой фильтра, contains - и под оптимистичным чтением,
+     * поэтому buckets и bucketMask неизменяемы.
+     */
+    private static final class Table {
+        private final long capacity;
+        private final long[] buckets;
+        private final int bucketMask;
+
+        // Отпечаток, который не удалось разместить при последней вставке
+        private long victimFingerprint;
+        private int victimBucket;
+        private boolean saturated;
+
+        private long count;
+        // До завершения заполнения удаления не применяются, см. описание класса
+        private boolean filling = true;
+        private long skippedErases;
+
+        Table(long capacity) {
+            var bucketCount = Long.highestOneBit(Math.max(1, (long) (capacity / SLOTS_PER_BUCKET / LOAD_FACTOR)) * 2 - 1);
+
+            this.capacity = capacity;
+            this.buckets = new long[(int) bucketCount];
+            this.bucketMask = (int) bucketCount - 1;
+        }
+
+        boolean contains(long hash, long fingerprint) {
+            var first = (int) hash & bucketMask;
+            var second = alternateBucket(first, fingerprint);
+
+            return hasFingerprint(buckets[first], fingerprint)
+                    || hasFingerprint(buckets[second], fingerprint)
+                    || saturated
+                    || victimFingerprint == fingerprint && (victimBucket == first || victimBucket == second);
+        }
+
+        /**
+         * @return true, если таблица стала насыщенной на этой вставке
+         */
+        boolean add(long id) {
+            var hash = mix(id);
+            var fingerprint = fingerprint(hash);
+            var bucket = (int) hash & bucketMask;
+
+            count++;
+
+            if (saturated) {
+                return false;
+            }
+
+            if (tryPut(bucket, fingerprint) || tryPut(alternateBucket(bucket, fingerprint), fingerprint)) {
+                return false;
+            }
+
+            if (victimFingerprint != 0) {
+                saturated = true;
+                LOGGER.warn("Issue id filter is full ({} ids in {} buckets), lookups will go to the database "
+                        + "until it is rebuilt", count, buckets.length);
+
+                return true;
+            }
+
+            // Обе корзины заняты: вытесняем случайный отпечаток в его альтернативную корзину
+            var random = ThreadLocalRandom.current();
+            for (int kick = 0; kick < MAX_KICKS; kick++) {
+                var slot = random.nextInt(SLOTS_PER_BUCKET);
+                var evicted = slot(buckets[bucket], slot);
+                buckets[bucket] = withSlot(buckets[bucket], slot, fingerprint);
+
+                fingerprint = evicted;
+                bucket = alternateBucket(bucket, fingerprint);
+
+                if (tryPut(bucket, fingerprint)) {
+                    return false;
+                }
+            }
+
+            victimFingerprint = fingerprint;
+            victimBucket = bucket;
+
+            return false;
+        }
+
+        void erase(long id) {
+            if (filling) {
+                skippedErases++;
+            } else {
+                remove(id);
+            }
+        }
+
+        void remove(long id) {
+            var hash = mix(id);
+            var fingerprint = fingerprint(hash);
+            var first = (int) hash & bucketMask;
+            var second = alternateBucket(first, fingerprint);
+
+            count--;
+
+            if (saturated) {
+                return;
+            }
+
+            if (victimFingerprint == fingerprint && (victimBucket == first || victimBucket == second)) {
+                victimFingerprint = 0;
+                return;
+            }
+
+            if (!tryClear(first, fingerprint)) {
+                tryClear(second, fingerprint);
+            }
+
+            // Освободилось место: пробуем разместить отпечаток, который не поместился раньше
+            if (victimFingerprint != 0
+                    && (tryPut(victimBucket, victimFingerprint)
+                    || tryPut(alternateBucket(victimBucket, victimFingerprint), victimFingerprint))) {
+                victimFingerprint = 0;
+            }
+        }
+
+        long memoryBytes() {
+            return (long) buckets.length * Long.BYTES;
+        }
+
+        private boolean tryPut(int bucket, long fingerprint) {
+            for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+                if (slot(buckets[bucket], slot) == 0) {
+                    buckets[bucket] = withSlot(buckets[bucket], slot, fingerprint);
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private boolean tryClear(int bucket, long fingerprint) {
+            for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+                if (slot(buckets[bucket], slot) == fingerprint) {
+                    buckets[bucket] = withSlot(buckets[bucket], slot, 0);
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private int alternateBucket(int bucket, long fingerprint) {
+            return (bucket ^ (int) mix(fingerprint)) & bucketMask;
+        }
+
+        private static boolean hasFingerprint(long bucket, long fingerprint) {
+            for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+                if (slot(bucket, slot) == fingerprint) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private static long slot(long bucket, int slot) {
+            return bucket >>> (slot * FINGERPRINT_BITS) & FINGERPRINT_MASK;
+        }
+
+        private static long withSlot(long bucket, int slot, long fingerprint) {
+            var shift = slot * FINGERPRINT_BITS;
+
+            return bucket & ~(FINGERPRINT_MASK << shift) | fingerprint << shift;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package tech.ydb.app;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.ydb.topic.TopicClient;
+
+import javax.annotation.Nullable;
+
+/**
+ * Локальная копия таблиц issues и links в памяти процесса для сервисов, которые в основном читают.
+ * <p>
+ * Копия живёт только в памяти, поэтому при каждом старте заполняется чтением таблиц issues и links,
+ * а дальше обновляется changefeed issues/updates и links/updates своим читателем replica. Начальное
+ * сканирование changefeed для этого не подходит: его сообщения подтверждаются, и после перезапуска
+ * процесса или после истечения срока хранения топика их уже не прочитать.
+ * <p>
+ * Чтение changefeed запускается до чтения таблиц, чтобы не потерять изменения, сделанные во время чтения.
+ * Строка таблицы не записывается в копию, если изменение этой строки уже пришло из changefeed: оно может
+ * быть новее снимка, который видело чтение. Если же изменение старше снимка, за ним по changefeed придут
+ * и все более поздние изменения строки, так что копия всё равно придёт к актуальному состоянию.
+ * <p>
+ * Тикеты хранятся в {@link OffHeapIssueStore}, id тикетов автора и соседи по связям - в множествах
+ * на примитивных long. Старые версии тикетов в хранилище сжимаются отдельной периодической задачей,
+ * а не в потоке changefeed, чтобы сжатие не задерживало применение изменений.
+ * <p>
+ * Копия отстаёт от базы. Оба changefeed созданы с RESOLVED_TIMESTAMPS, поэтому после чтения таблиц
+ * {@link #watermark()} сообщает виртуальную метку времени, до которой копия содержит все изменения. Вызывающий сам решает, достаточно ли
+ * это свежо, или нужно читать из YDB.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class IssueLinkReplica implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IssueLinkReplica.class);
+
+    private static final int BOOTSTRAP_RANGES = 64;
+    private static final int BOOTSTRAP_PARALLELISM = 16;
+    private static final int BOOTSTRAP_PAGE_SIZE = 10_000;
+    // Доля старых версий тикетов в хранилище, после которой оно сжимается
+    private static final double COMPACTION_GARBAGE_RATIO = 0.5;
+    private static final long COMPACTION_INTERVAL_MILLIS = 1_000;
+
+    private final IssueYdbRepository issueYdbRepository;
+    private final IssueChangefeedWorker issuesWorker;
+    private final ChangefeedWorker<LinkChange> linksWorker;
+    private final OffHeapIssueStore issues;
+    private final ScheduledExecutorService compactionScheduler;
+
+    // Индексы по авторам и связям меняются под одной блокировкой
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, LongHashSet> idsByAuthor = new HashMap<>();
+    // source -> номер множества соседей в neighbors
+    private final LongOffsetIndex neighborSlots;
+    private final List<LongHashSet> neighbors = new ArrayList<>();
+
+    // Строки, изменения которых пришли из changefeed во время чтения таблиц; после чтения - null
+    @Nullable
+    private LongHashSet changedIssues = new LongHashSet(1024);
+    @Nullable
+    private Set<LinkKey> changedLinks = new HashSet<>();
+    private volatile boolean bootstrapped;
+
+    public IssueLinkReplica(TopicClient topicClient, IssueYdbRepository issueYdbRepository, Executor executor,
+                            int expectedIssues) {
+        this.issueYdbRepository = issueYdbRepository;
+        this.issues = new OffHeapIssueStore(expectedIssues);
+        this.neighborSlots = new LongOffsetIndex(expectedIssues);
+        this.issuesWorker = new IssueChangefeedWorker(topicClient, "replica", executor);
+        this.linksWorker = new ChangefeedWorker<>(topicClient, "links/updates", "replica", executor, false,
+                LinkChange::fromJson);
+        this.compactionScheduler = Executors.newSingleThreadScheduledExecutor(
+                runnable -> Thread.ofPlatform().name("issue-link-replica-compaction").daemon().unstarted(runnable)
+        );
+
+        issuesWorker.addListener(this::applyIssue);
+        linksWorker.addListener(this::applyLink);
+    }
+
+    /**
+     * Запускает чтение changefeed и заполняет копию чтением таблиц.
+     *
+     * @return future, завершающийся после чтения таблиц
+     */
+    public CompletableFuture<Void> start() {
+        issuesWorker.start();
+        linksWorker.start();
+        compactionScheduler.scheduleWithFixedDelay(this::compact,
+                COMPACTION_INTERVAL_MILLIS, COMPACTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        var scanner = new ParallelIssueScanner(issueYdbRepository, BOOTSTRAP_RANGES, BOOTSTRAP_PARALLELISM,
+                BOOTSTRAP_PAGE_SIZE);
+
+        return CompletableFuture.allOf(
+                scanner.scanAsync(this::applyScannedIssue),
+                issueYdbRepository.streamLinksRangeAsync(Long.MIN_VALUE, Long.MAX_VALUE, this::applyScannedLink)
+        ).thenRun(() -> {
+            lock.writeLock().lock();
+            try {
+                changedIssues = null;
+                changedLinks = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            bootstrapped = true;
+        });
+    }
+
+    @Nullable
+    public Issue findById(long id) {
+        return issues.get(id);
+    }
+
+    public List<Issue> findByAuthor(String author) {
+        long[] ids;
+
+        lock.readLock().lock();
+        try {
+            var authorIds = idsByAuthor.get(author);
+            ids = authorIds == null ? new long[0] : authorIds.toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        var result = new ArrayList<Issue>(ids.length);
+        for (var id : ids) {
+            var issue = issues.get(id);
+            if (issue != null) {
+                result.add(issue);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return id тикетов, с которыми связан тикет id
+     */
+    public long[] neighbors(long id) {
+        lock.readLock().lock();
+        try {
+            var slot = neighborSlots.get(id);
+
+            return slot == LongOffsetIndex.ABSENT ? new long[0] : neighbors.get((int) slot).toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return шаг виртуальной метки времени (миллисекунды), до которого копия содержит все изменения обеих таблиц,
+     * или 0, пока чтение таблиц не закончено
+     */
+    public long watermark() {
+        if (!bootstrapped) {
+            return 0;
+        }
+
+        return Math.min(issuesWorker.resolvedStep(), linksWorker.resolvedStep());
+    }
+
+    /**
+     * @return true, если копия содержит все изменения, сделанные до step включительно
+     */
+    public boolean isCurrentAt(long step) {
+        return watermark() >= step;
+    }
+
+    public long lagMillis() {
+        var watermark = watermark();
+
+        return watermark == 0 ? Long.MAX_VALUE : Math.max(0, System.currentTimeMillis() - watermark);
+    }
+
+    public int size() {
+        return issues.size();
+    }
+
+    @Override
+    public void close() {
+        compactionScheduler.shutdown();
+        issuesWorker.close();
+        linksWorker.close();
+    }
+
+    // Хранилище сжимается по одному буферу, поэтому чтения и changefeed ждут не дольше копирования буфера
+    private void compact() {
+        try {
+            issues.compactIfGarbageAbove(COMPACTION_GARBAGE_RATIO);
+        } catch (Exception e) {
+            LOGGER.error("Failed to compact replica issue store", e);
+        }
+    }
+
+    private void applyIssue(IssueChange change) {
+        var oldAuthor = change.oldImage() == null ? null : change.oldImage().author();
+        var newAuthor = change.newImage() == null ? null : change.newImage().author();
+
+        lock.writeLock().lock();
+        try {
+            if (changedIssues != null) {
+                changedIssues.add(change.id());
+            }
+
+            // Строки начального сканирования приходят без старого образа, поэтому id убирается из множества
+            // прежнего автора, только если он известен
+            if (!Objects.equals(oldAuthor, newAuthor) || change.oldImage() == null || change.isErase()) {
+                if (oldAuthor != null) {
+                    removeFromAuthor(oldAuthor, change.id());
+                }
+                if (newAuthor != null) {
+                    idsByAuthor.computeIfAbsent(newAuthor, ignored -> new LongHashSet(16)).add(change.id());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (change.isErase()) {
+            issues.remove(change.id());
+        } else {
+            issues.put(change.newImage());
+        }
+    }
+
+    // Строка из чтения таблицы; вызывается одновременно из нескольких потоков
+    private void applyScannedIssue(Issue issue) {
+        lock.writeLock().lock();
+        try {
+            if (changedIssues == null || changedIssues.contains(issue.id())) {
+                return;
+            }
+
+            idsByAuthor.computeIfAbsent(issue.author(), ignored -> new LongHashSet(16)).add(issue.id());
+            issues.put(issue);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void applyScannedLink(long source, long destination) {
+        lock.writeLock().lock();
+        try {
+            if (changedLinks == null || changedLinks.contains(new LinkKey(source, destination))) {
+                return;
+            }
+
+            addNeighbor(source, destination);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeFromAuthor(String author, long id) {
+        var authorIds = idsByAuthor.get(author);
+        if (authorIds != null) {
+            authorIds.remove(id);
+            if (authorIds.isEmpty()) {
+                idsByAuthor.remove(author);
+            }
+        }
+    }
+
+    private void applyLink(LinkChange change) {
+        lock.writeLock().lock();
+        try {
+            if (changedLinks != null) {
+                changedLinks.add(new LinkKey(change.source(), change.destination()));
+            }
+
+            if (change.erase()) {
+                var slot = neighborSlots.get(change.source());
+                if (slot != LongOffsetIndex.ABSENT) {
+                    neighbors.get((int) slot).remove(change.destination());
+                }
+                return;
+            }
+
+            addNeighbor(change.source(), change.destination());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addNeighbor(long source, long destination) {
+        var slot = neighborSlots.get(source);
+
+        if (slot == LongOffsetIndex.ABSENT) {
+            slot = neighbors.size();
+            neighbors.add(new LongHashSet(4));
+            neighborSlots.put(source, slot);
+        }
+        neighbors.get((int) slot).add(destination);
+    }
+
+    private record LinkKey(long source, long destination) {
+    }
+}
@@ -0,0 +1,59 @@
+package tech.ydb.app;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Итератор по всем тикетам, читающий таблицу страницами через IssueYdbRepository.findPageAsync.
+ * <p>
+ * Как только страница получена, запрос следующей отправляется сразу, не дожидаясь,
+ * пока вызывающий дочитает текущую. Каждая страница читается в отдельной транзакции SNAPSHOT_RO.
+ *
+ * @author Kirill Kurdyukov
+ */
+class IssueScanIterator implements Iterator<Issue> {
+
+    private final IssueYdbRepository issueYdbRepository;
+    private final int pageSize;
+
+    private List<Issue> page = List.of();
+    private int position;
+    // null, если текущая страница последняя
+    private CompletableFuture<List<Issue>> nextPage;
+
+    IssueScanIterator(IssueYdbRepository issueYdbRepository, int pageSize) {
+        this.issueYdbRepository = issueYdbRepository;
+        this.pageSize = pageSize;
+        this.nextPage = issueYdbRepository.findPageAsync(null, pageSize);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (position >= page.size()) {
+            if (nextPage == null) {
+                return false;
+            }
+
+            page = nextPage.join();
+            position = 0;
+
+            // Неполная страница означает, что таблица дочитана
+            nextPage = page.size() < pageSize
+                    ? null
+                    : issueYdbRepository.findPageAsync(page.get(page.size() - 1).id(), pageSize);
+        }
+
+        return true;
+    }
+
+    @Override
+    public Issue next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return page.get(position++);
+    }
+}
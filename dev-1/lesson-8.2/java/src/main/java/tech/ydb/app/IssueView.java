@@ -0,0 +1,77 @@
+package tech.ydb.app;
+
+import java.time.Instant;
+
+import tech.ydb.table.result.ResultSetReader;
+
+/**
+ * Представление текущей строки результата с колонками таблицы issues.
+ * <p>
+ * Индексы колонок определяются по именам один раз на результат, а значения читаются напрямую
+ * из ResultSetReader только при обращении к ним. Один и тот же объект используется для всех строк
+ * результата, поэтому его нельзя сохранять: для этого есть {@link #toIssue()}.
+ * Колонки link_count и status могут отсутствовать в результате, тогда возвращаются 0 и пустая строка.
+ *
+ * @author Kirill Kurdyukov
+ */
+public final class IssueView {
+
+    private static final int ABSENT = -1;
+
+    private final ResultSetReader reader;
+    private final StringDictionary dictionary;
+
+    private final int idIndex;
+    private final int titleIndex;
+    private final int createdAtIndex;
+    private final int authorIndex;
+    private final int linkCountIndex;
+    private final int statusIndex;
+
+    private IssueView(ResultSetReader reader, StringDictionary dictionary) {
+        this.reader = reader;
+        this.dictionary = dictionary;
+        this.idIndex = reader.getColumnIndex("id");
+        this.titleIndex = reader.getColumnIndex("title");
+        this.createdAtIndex = reader.getColumnIndex("created_at");
+        this.authorIndex = reader.getColumnIndex("author");
+        this.linkCountIndex = reader.getColumnIndex("link_count");
+        this.statusIndex = reader.getColumnIndex("status");
+    }
+
+    public static IssueView bind(ResultSetReader reader, StringDictionary dictionary) {
+        return new IssueView(reader, dictionary);
+    }
+
+    public boolean next() {
+        return reader.next();
+    }
+
+    public long id() {
+        return reader.getColumn(idIndex).getInt64();
+    }
+
+    public String title() {
+        return reader.getColumn(titleIndex).getText();
+    }
+
+    public Instant createdAt() {
+        return reader.getColumn(createdAtIndex).getTimestamp();
+    }
+
+    public String author() {
+        return dictionary.intern(reader.getColumn(authorIndex).getText());
+    }
+
+    public long linkCount() {
+        return linkCountIndex == ABSENT ? 0 : reader.getColumn(linkCountIndex).getInt64();
+    }
+
+    public String status() {
+        return statusIndex == ABSENT ? "" : dictionary.intern(reader.getColumn(statusIndex).getText());
+    }
+
+    public Issue toIssue() {
+        return new Issue(id(), title(), createdAt(), author(), linkCount(), status());
+    }
+}
@@ -2,368 +2,966 @@ package tech.ydb.app;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 import tech.ydb.common.transaction.TxMode;
-import tech.ydb.core.Result;
 import tech.ydb.query.tools.QueryReader;
 import tech.ydb.query.tools.SessionRetryContext;
 import tech.ydb.table.query.Params;
-import tech.ydb.table.values.ListType;
+import tech.ydb.table.result.ResultSetReader;
 import tech.ydb.table.values.OptionalType;
 import tech.ydb.table.values.PrimitiveType;
 import tech.ydb.table.values.PrimitiveValue;
 import tech.ydb.table.values.StructType;
 
+import javax.annotation.Nullable;
+
 /**
  * @author Kirill Kurdyukov
  */
 public class IssueYdbRepository {
-    private final SessionRetryContext retryCtx;
+    // Типы параметров для пакетных запросов строятся один раз
+    private static final BatchParams IDS_PARAMS = BatchParams.of(
+            StructType.of("id", PrimitiveType.Int64), "id"
+    );
+    private static final BatchParams ISSUES_PARAMS = BatchParams.of(
+            StructType.of(
+                    "id", PrimitiveType.Int64,
+                    "title", PrimitiveType.Text,
+                    "author", OptionalType.of(PrimitiveType.Text),
+                    "created_at", PrimitiveType.Timestamp
+            ),
+            "id", "title", "author", "created_at"
+    );
+    private static final BatchParams STATUSES_PARAMS = BatchParams.of(
+            StructType.of(
+                    "id", PrimitiveType.Int64,
+                    "status", PrimitiveType.Text
+            ),
+            "id", "status"
+    );
+    private static final BatchParams LINKS_PARAMS = BatchParams.of(
+            StructType.of(
+                    "source", PrimitiveType.Int64,
+                    "destination", PrimitiveType.Int64
+            ),
+            "source", "destination"
+    );
+    private static final OptionalType OPTIONAL_TEXT = OptionalType.of(PrimitiveType.Text);
+    private static final Set<String> ISSUES_TABLE = Set.of("issues");
+    // Размер одного запроса уровня обхода в findLinkedWithin, ограничивает размер параметра $frontier
+    private static final int FRONTIER_CHUNK_SIZE = 10_000;
+
+    private final AsyncQueryServiceHelper asyncQueryServiceHelper;
+    // Авторов и статусов немного, поэтому прочитанные тикеты ссылаются на общие экземпляры строк
+    private final StringDictionary dictionary = new StringDictionary(100_000);
+
+    // Фильтр существования id: findById и findByIds не ходят в базу за тикетами, которых точно нет
+    @Nullable
+    private volatile IssueIdFilter idFilter;
+    // Размеры пачек saveAll, findByIds и deleteTasks
+    private volatile BatchSizeController batchSizes = new BatchSizeController();
 
     public IssueYdbRepository(SessionRetryContext retryCtx) {
-        this.retryCtx = retryCtx;
+        this.asyncQueryServiceHelper = new AsyncQueryServiceHelper(retryCtx);
+    }
+
+    /**
+     * @param resultCache кэш результатов для findAll и findByAuthor, сбрасывается изменениями таблицы issues
+     */
+    public IssueYdbRepository(SessionRetryContext retryCtx, QueryResultCache resultCache) {
+        this.asyncQueryServiceHelper = new AsyncQueryServiceHelper(retryCtx, resultCache);
+    }
+
+    /**
+     * Включает пропуск заведомо отсутствующих id в findById и findByIds. Фильтр строится по этому же
+     * репозиторию, поэтому передаётся после создания, а не в конструкторе. Пока фильтр отстаёт
+     * от changefeed, см. {@link IssueIdFilter#isCurrent()}, все id ищутся в базе.
+     */
+    public void useIdFilter(@Nullable IssueIdFilter idFilter) {
+        this.idFilter = idFilter;
+    }
+
+    /**
+     * Пул, в котором завершаются асинхронные методы репозитория, например из {@link ExecutionMode#newExecutor()}.
+     * По умолчанию они завершаются в потоке транспорта YDB.
+     */
+    public void useExecutor(Executor executor) {
+        asyncQueryServiceHelper.useExecutor(executor);
+    }
+
+    /**
+     * Заменяет контроллер размеров пачек, например на общий для нескольких репозиториев
+     */
+    public void useBatchSizeController(BatchSizeController batchSizes) {
+        this.batchSizes = batchSizes;
+    }
+
+    public BatchSizeController batchSizeController() {
+        return batchSizes;
+    }
+
+    /**
+     * Реестр запросов репозитория со счётчиками попаданий в кэш компиляции по каждому запросу
+     */
+    public QueryRegistry queryRegistry() {
+        return asyncQueryServiceHelper.queryRegistry();
+    }
+
+    // Блокирующие методы оставлены для простых сценариев: они ждут результат
+    // соответствующего асинхронного метода и занимают поток на всё время запроса.
+
+    /**
+     * Возвращает тикет по заданному id
+     *
+     * @return найденный тикет или null, если тикет с указанным id не найден
+     */
+    @Nullable
+    public Issue findById(long id) {
+        return findByIdAsync(id).join();
     }
 
     public List<Issue> findByIds(List<Long> ids) {
-        var structType = StructType.of("id", PrimitiveType.Int64);
+        return findByIdsAsync(ids).join();
+    }
 
-        var idsParams = Params.of("$ids", ListType.of(structType).newValue(
-                ids.stream().map(id -> structType.newValue("id", PrimitiveValue.newInt64(id))).toList())
-        );
-        var queryReader = retryCtx.supplyResult(session -> QueryReader.readFrom(
-                session.createQuery("""
-                                DECLARE $ids AS List<Struct<id: Int64>>;
-                                SELECT id, title, created_at, author, link_count, status
-                                FROM issues WHERE id IN (SELECT id FROM AS_TABLE($ids));
-                                """,
-                        TxMode.SERIALIZABLE_RW, idsParams)
-        )).join().getValue();
+    public List<Issue> findByIds(long[] ids) {
+        return findByIdsAsync(ids).join();
+    }
 
-        return fetchIssues(queryReader);
+    public long[] findLinkedWithin(long rootId, int maxHops, int limit) {
+        return findLinkedWithinAsync(rootId, maxHops, limit).join();
     }
 
     public void saveAll(List<TitleAuthor> titleAuthors) {
-        var structType = StructType.of(
-                "id", PrimitiveType.Int64,
-                "title", PrimitiveType.Text,
-                "author", OptionalType.of(PrimitiveType.Text),
-                "created_at", PrimitiveType.Timestamp
-        );
-
-        var listIssues = Params.of("$args", ListType.of(structType).newValue(
-                titleAuthors.stream().map(issue -> structType.newValue(
-                        "id", PrimitiveValue.newInt64(ThreadLocalRandom.current().nextLong()),
-                        "title", PrimitiveValue.newText(issue.title()),
-                        "author", OptionalType.of(PrimitiveType.Text).newValue(PrimitiveValue.newText(issue.author())),
-                        "created_at", PrimitiveValue.newTimestamp(Instant.now())
-                )).toList()
-        ));
-
-        retryCtx.supplyResult(
-                session -> session.createQuery(
-                        """
-                                DECLARE $args AS List<Struct<
-                                id: Int64,
-                                title: Text,
-                                author: Text?, -- тут знак вопроса означает, что в Timestamp может быть передан NULL
-                                created_at: Timestamp,
-                                >>;
-
-                                UPSERT INTO issues
-                                SELECT * FROM AS_TABLE($args);
-                                """,
-                        TxMode.SERIALIZABLE_RW,
-                        listIssues
-                ).execute()
-        ).join().getStatus().expectSuccess("Failed upsert title");
+        saveAllAsync(titleAuthors).join();
     }
 
     public void updateStatus(long id, String status) {
-        retryCtx.supplyResult(
-                session -> session.createQuery(
-                        """
-                                DECLARE $id AS Int64;
-                                DECLARE $new_status AS Text;
-                                                                    
-                                UPDATE issues SET status = $new_status WHERE id = $id;
-                                """,
-                        TxMode.SERIALIZABLE_RW,
-                        Params.of("$id", PrimitiveValue.newInt64(id),
-                                "$new_status", PrimitiveValue.newText(status))
-                ).execute()
-        ).join().getStatus().expectSuccess();
+        updateStatusAsync(id, status).join();
     }
 
     public List<IssueLinkCount> linkTicketsNoInteractive(long idT1, long idT2) {
-        var valueReader = retryCtx.supplyResult(
-                session -> QueryReader.readFrom(session.createQuery(
-                        """
+        return linkTicketsNoInteractiveAsync(idT1, idT2).join();
+    }
+
+    public List<IssueLinkCount> linkTicketsInteractive(long idT1, long idT2) {
+        return linkTicketsInteractiveAsync(idT1, idT2).join();
+    }
+
+    public void addIssue(String title, String author) {
+        addIssueAsync(title, author).join();
+    }
+
+    public List<Issue> findAll() {
+        return findAllAsync().join();
+    }
+
+    public List<Issue> findPage(@Nullable Long afterId, int limit) {
+        return findPageAsync(afterId, limit).join();
+    }
+
+    /**
+     * Обходит всю таблицу страницами по pageSize тикетов в порядке первичного ключа.
+     * Следующая страница запрашивается заранее, пока вызывающий обрабатывает текущую.
+     */
+    public Iterator<Issue> scanAll(int pageSize) {
+        return new IssueScanIterator(this, pageSize);
+    }
+
+    public void streamAll(Consumer<Issue> consumer) {
+        streamAllAsync(consumer).join();
+    }
+
+    public void streamAllViews(Consumer<IssueView> consumer) {
+        streamAllViewsAsync(consumer).join();
+    }
+
+    public List<IssueTitle> findFutures() {
+        return findFuturesAsync().join();
+    }
+
+    public void deleteTasks(List<Long> ids) {
+        deleteTasksAsync(ids).join();
+    }
+
+    public void deleteTasks(long[] ids) {
+        deleteTasksAsync(ids).join();
+    }
+
+    public Issue findByAuthor(String author) {
+        return findByAuthorAsync(author).join();
+    }
+
+    public long[] findIdsByAuthor(String author) {
+        return findIdsByAuthorAsync(author).join();
+    }
+
+    public CompletableFuture<Issue> findByIdAsync(long id) {
+        var filter = idFilter;
+        if (filter != null && filter.isCurrent() && !filter.mightContain(id)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return asyncQueryServiceHelper.executeQuery("findById", """
+                        DECLARE $id AS Int64;
+                        SELECT id, title, created_at, author, COALESCE(link_count, 0) AS link_count, status
+                        FROM issues WHERE id = $id;
+                        """,
+                TxMode.SNAPSHOT_RO, Params.of("$id", PrimitiveValue.newInt64(id))
+        ).thenApply(queryReader -> {
+            var issues = fetchIssues(queryReader);
+
+            return issues.isEmpty() ? null : issues.get(0);
+        });
+    }
+
+    public CompletableFuture<List<Issue>> findByIdsAsync(List<Long> ids) {
+        return findByIdsAsync(ids.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    public CompletableFuture<List<Issue>> findByIdsAsync(long[] ids) {
+        var filter = idFilter;
+        if (filter != null && filter.isCurrent()) {
+            ids = Arrays.stream(ids).filter(filter::mightContain).toArray();
+
+            if (ids.length == 0) {
+                return CompletableFuture.completedFuture(List.of());
+            }
+        }
+
+        var batchIds = ids;
+
+        return batchSizes.execute("findByIds", ids.length,
+                (from, to) -> findByIdsBatchAsync(Arrays.copyOfRange(batchIds, from, to))
+        ).thenApply(batches -> {
+            if (batches.size() == 1) {
+                return batches.get(0);
+            }
+
+            var issues = new ArrayList<Issue>();
+            batches.forEach(issues::addAll);
+
+            return issues;
+        });
+    }
+
+    private CompletableFuture<List<Issue>> findByIdsBatchAsync(long[] ids) {
+        var idsParams = Params.of("$ids", IDS_PARAMS.ofInt64Column(ids));
+
+        return asyncQueryServiceHelper.executeQuery("findByIds", """
+                        DECLARE $ids AS List<Struct<id: Int64>>;
+                        SELECT id, title, created_at, author, COALESCE(link_count, 0) AS link_count, status
+                        FROM issues WHERE id IN (SELECT id FROM AS_TABLE($ids));
+                        """,
+                TxMode.SERIALIZABLE_RW, idsParams
+        ).thenApply(this::fetchIssues);
+    }
+
+    /**
+     * Пачки размера {@link BatchSizeController} записываются отдельными транзакциями друг за другом.
+     * Если пачек больше одной, запись не атомарна: при ошибке более ранние пачки остаются записанными.
+     * Id и created_at выбираются до деления на пачки, поэтому повтор пачки перезаписывает те же строки,
+     * а повторный вызов saveAll создаёт новые тикеты.
+     */
+    public CompletableFuture<Void> saveAllAsync(List<TitleAuthor> titleAuthors) {
+        var ids = ThreadLocalRandom.current().longs(titleAuthors.size()).toArray();
+        var now = PrimitiveValue.newTimestamp(Instant.now());
+
+        return batchSizes.execute("saveAll", titleAuthors.size(),
+                (from, to) -> saveAllBatchAsync(titleAuthors.subList(from, to), Arrays.copyOfRange(ids, from, to), now)
+        ).thenApply(ignored -> null);
+    }
+
+    private CompletableFuture<Void> saveAllBatchAsync(List<TitleAuthor> titleAuthors, long[] ids, PrimitiveValue now) {
+        var rows = ISSUES_PARAMS.newRows(titleAuthors.size());
+
+        for (int i = 0; i < ids.length; i++) {
+            var issue = titleAuthors.get(i);
+            rows.add(
+                    PrimitiveValue.newInt64(ids[i]),
+                    PrimitiveValue.newText(issue.title()),
+                    OPTIONAL_TEXT.newValue(PrimitiveValue.newText(issue.author())),
+                    now
+            );
+        }
+
+        var listIssues = Params.of("$args", rows.build());
+
+        return asyncQueryServiceHelper.executeUpdate("saveAll", """
+                        DECLARE $args AS List<Struct<
+                        id: Int64,
+                        title: Text,
+                        author: Text?, -- тут знак вопроса означает, что в Timestamp может быть передан NULL
+                        created_at: Timestamp,
+                        >>;
+
+                        UPSERT INTO issues
+                        SELECT * FROM AS_TABLE($args);
+                        """,
+                TxMode.SERIALIZABLE_RW,
+                listIssues
+        );
+    }
+
+    /**
+     * Записывает пачку новых тикетов и обновлений статусов одной транзакцией.
+     * Используется GroupCommitWriter для объединения одиночных addIssue и updateStatus.
+     */
+    public CompletableFuture<Void> writeBatchAsync(List<Issue> newIssues, Map<Long, String> statuses) {
+        var issueRows = ISSUES_PARAMS.newRows(newIssues.size());
+        for (var issue : newIssues) {
+            issueRows.add(
+                    PrimitiveValue.newInt64(issue.id()),
+                    PrimitiveValue.newText(issue.title()),
+                    OPTIONAL_TEXT.newValue(PrimitiveValue.newText(issue.author())),
+                    PrimitiveValue.newTimestamp(issue.now())
+            );
+        }
+
+        var statusRows = STATUSES_PARAMS.newRows(statuses.size());
+        statuses.forEach((id, status) -> statusRows.add(PrimitiveValue.newInt64(id), PrimitiveValue.newText(status)));
+
+        var issuesParam = issueRows.build();
+        var statusesParam = statusRows.build();
+
+        return asyncQueryServiceHelper.executeUpdate("writeBatch", """
+                        DECLARE $issues AS List<Struct<
+                        id: Int64,
+                        title: Text,
+                        author: Text?,
+                        created_at: Timestamp,
+                        >>;
+                        DECLARE $statuses AS List<Struct<
+                        id: Int64,
+                        status: Text,
+                        >>;
+
+                        UPSERT INTO issues
+                        SELECT * FROM AS_TABLE($issues);
+
+                        -- UPDATE ON, как и UPDATE ... WHERE, не создаёт строки для несуществующих id
+                        UPDATE issues ON
+                        SELECT * FROM AS_TABLE($statuses);
+                        """,
+                TxMode.SERIALIZABLE_RW,
+                Params.of("$issues", issuesParam, "$statuses", statusesParam)
+        );
+    }
+
+    /**
+     * @return тикет после обновления, прочитанный в той же транзакции, или null, если тикета нет
+     */
+    public CompletableFuture<Issue> updateStatusAsync(long id, String status) {
+        return asyncQueryServiceHelper.executeQuery("updateStatus", """
+                        DECLARE $id AS Int64;
+                        DECLARE $new_status AS Text;
+
+                        UPDATE issues SET status = $new_status WHERE id = $id;
+
+                        SELECT id, title, created_at, author, COALESCE(link_count, 0) AS link_count, status
+                        FROM issues WHERE id = $id;
+                        """,
+                TxMode.SERIALIZABLE_RW,
+                Params.of("$id", PrimitiveValue.newInt64(id),
+                        "$new_status", PrimitiveValue.newText(status))
+        ).thenApply(queryReader -> {
+            var issues = fetchIssues(queryReader);
+
+            return issues.isEmpty() ? null : issues.get(0);
+        });
+    }
+
+    public CompletableFuture<List<IssueLinkCount>> linkTicketsNoInteractiveAsync(long idT1, long idT2) {
+        return asyncQueryServiceHelper.executeQuery("linkTicketsNoInteractive", """
+                        DECLARE $t1 AS Int64;
+                        DECLARE $t2 AS Int64;
+
+                        UPDATE issues
+                        SET link_count = COALESCE(link_count, 0) + 1
+                        WHERE id IN ($t1, $t2);
+
+                        INSERT INTO links (source, destination)
+                        VALUES ($t1, $t2), ($t2, $t1);
+
+                        SELECT id, link_count FROM issues
+                        WHERE id IN ($t1, $t2)
+                        """,
+                TxMode.SERIALIZABLE_RW,
+                Params.of("$t1", PrimitiveValue.newInt64(idT1), "$t2", PrimitiveValue.newInt64(idT2))
+        ).thenApply(IssueYdbRepository::getIssueLinkCount);
+    }
+
+    public CompletableFuture<List<IssueLinkCount>> linkTicketsInteractiveAsync(long idT1, long idT2) {
+        var params = Params.of("$t1", PrimitiveValue.newInt64(idT1), "$t2", PrimitiveValue.newInt64(idT2));
+
+        // Запросы интерактивной транзакции выполняются друг за другом, но ни один поток
+        // не ждёт их завершения: следующий шаг запускается по готовности предыдущего
+        return asyncQueryServiceHelper.executeInTx(TxMode.SERIALIZABLE_RW, tx -> tx.executeQuery("linkTickets.incrementLinkCount", """
                                 DECLARE $t1 AS Int64;
                                 DECLARE $t2 AS Int64;
-                                                                    
+
                                 UPDATE issues
                                 SET link_count = COALESCE(link_count, 0) + 1
                                 WHERE id IN ($t1, $t2);
-                                                                    
+                                """, params)
+                .thenCompose(ignored -> tx.executeQuery("linkTickets.insertLinks", """
+                                DECLARE $t1 AS Int64;
+                                DECLARE $t2 AS Int64;
+
                                 INSERT INTO links (source, destination)
                                 VALUES ($t1, $t2), ($t2, $t1);
+                                """, params))
+                .thenCompose(ignored -> tx.executeQueryWithCommit("linkTickets.selectLinkCount", """
+                                DECLARE $t1 AS Int64;
+                                DECLARE $t2 AS Int64;
 
                                 SELECT id, link_count FROM issues
                                 WHERE id IN ($t1, $t2)
-                                """,
-                        TxMode.SERIALIZABLE_RW,
-                        Params.of("$t1", PrimitiveValue.newInt64(idT1), "$t2", PrimitiveValue.newInt64(idT2))
-                ))
-        ).join().getValue();
+                                """, params))
+                .thenApply(IssueYdbRepository::getIssueLinkCount)
+        );
+    }
 
-        return getIssueLinkCount(valueReader);
+    /**
+     * @return созданный тикет. Все его колонки известны до записи, поэтому читать его из базы не нужно
+     */
+    public CompletableFuture<Issue> addIssueAsync(String title, String author) {
+        var id = ThreadLocalRandom.current().nextLong();
+        var now = Instant.now();
+        var issue = new Issue(id, title, now, author, 0, null);
+
+        return asyncQueryServiceHelper.executeUpdate("addIssue", """
+                        DECLARE $id AS Int64;
+                        DECLARE $title AS Text;
+                        DECLARE $created_at AS Timestamp;
+                        DECLARE $author AS Text;
+                        UPSERT INTO issues (id, title, created_at, author)
+                        VALUES ($id, $title, $created_at, $author);
+                        """,
+                TxMode.SERIALIZABLE_RW,
+                Params.of(
+                        "$id", PrimitiveValue.newInt64(id),
+                        "$title", PrimitiveValue.newText(title),
+                        "$created_at", PrimitiveValue.newTimestamp(now),
+                        "$author", PrimitiveValue.newText(author)
+                )
+        ).thenApply(ignored -> {
+            // Фильтр узнал бы о тикете только из changefeed, а тикет должен находиться сразу после создания
+            var filter = idFilter;
+            if (filter != null) {
+                filter.add(id);
+            }
+
+            return issue;
+        });
     }
 
-    public List<IssueLinkCount> linkTicketsInteractive(long idT1, long idT2) {
-        return retryCtx.supplyResult(
-                session -> {
-                    var tx = session.createNewTransaction(TxMode.SERIALIZABLE_RW);
-
-                    tx.createQuery("""
-                                    DECLARE $t1 AS Int64;
-                                    DECLARE $t2 AS Int64;
-                                                                 
-                                    UPDATE issues
-                                    SET link_count = COALESCE(link_count, 0) + 1
-                                    WHERE id IN ($t1, $t2);
-                                    """,
-                            Params.of("$t1", PrimitiveValue.newInt64(idT1), "$t2", PrimitiveValue.newInt64(idT2))
-                    ).execute().join().getStatus().expectSuccess();
-
-                    tx.createQuery("""
-                                    DECLARE $t1 AS Int64;
-                                    DECLARE $t2 AS Int64;
-                                                                        
-                                    INSERT INTO links (source, destination)
-                                    VALUES ($t1, $t2), ($t2, $t1);
-                                    """,
-                            Params.of("$t1", PrimitiveValue.newInt64(idT1), "$t2", PrimitiveValue.newInt64(idT2))
-                    ).execute().join().getStatus().expectSuccess();
-
-                    var valueReader = QueryReader.readFrom(
-                            tx.createQueryWithCommit("""
-                                            DECLARE $t1 AS Int64;
-                                            DECLARE $t2 AS Int64;
-                                                                                
-                                            SELECT id, link_count FROM issues
-                                            WHERE id IN ($t1, $t2)
-                                            """,
-                                    Params.of("$t1", PrimitiveValue.newInt64(idT1), "$t2", PrimitiveValue.newInt64(idT2)))
-                    ).join().getValue();
-
-                    var linkTicketPairs = getIssueLinkCount(valueReader);
-
-                    return CompletableFuture.completedFuture(Result.success(linkTicketPairs));
-                }
-        ).join().getValue();
+    public CompletableFuture<List<Issue>> findAllAsync() {
+        return asyncQueryServiceHelper.executeCachedQuery("findAll",
+                "SELECT id, title, created_at, author, COALESCE(link_count, 0) AS link_count, status FROM issues;",
+                ISSUES_TABLE, Params.empty(),
+                queryReader -> Collections.unmodifiableList(fetchIssues(queryReader)),
+                IssueYdbRepository::estimateBytes
+        );
     }
 
-    public void addIssue(String title, String author) {
-        var id = ThreadLocalRandom.current().nextLong();
-        var now = Instant.now();
+    /**
+     * Возвращает страницу тикетов, следующих по первичному ключу за afterId.
+     * В отличие от OFFSET, условие id > $after_id позволяет серверу начать чтение сразу с нужного ключа,
+     * поэтому стоимость чтения страницы не зависит от её номера.
+     *
+     * @param afterId id последнего тикета предыдущей страницы или null для первой страницы
+     */
+    public CompletableFuture<List<Issue>> findPageAsync(@Nullable Long afterId, int limit) {
+        if (afterId == null) {
+            return asyncQueryServiceHelper.executeQuery("findFirstPage", """
+                            DECLARE $limit AS Uint64;
+                            SELECT id, title, created_at, author, COALESCE(link_count, 0) AS link_count, status
+                            FROM issues
+                            ORDER BY id
+                            LIMIT $limit;
+                            """,
+                    TxMode.SNAPSHOT_RO, Params.of("$limit", PrimitiveValue.newUint64(limit))
+            ).thenApply(this::fetchIssues);
+        }
 
-        retryCtx.supplyResult(
-                session -> session.createQuery(
-                        """
-                                DECLARE $id AS Int64;
-                                DECLARE $title AS Text;
-                                DECLARE $created_at AS Timestamp;
-                                DECLARE $author AS Text;
-                                UPSERT INTO issues (id, title, created_at, author)
-                                VALUES ($id, $title, $created_at, $author);
-                                """,
-                        TxMode.SERIALIZABLE_RW,
-                        Params.of(
-                                "$id", PrimitiveValue.newInt64(id),
-                                "$title", PrimitiveValue.newText(title),
-                                "$created_at", PrimitiveValue.newTimestamp(now),
-                                "$author", PrimitiveValue.newText(author)
-                        )
-                ).execute()
-        ).join().getStatus().expectSuccess("Failed upsert title");
+        return asyncQueryServiceHelper.executeQuery("findPage", """
+                        DECLARE $after_id AS Int64;
+                        DECLARE $limit AS Uint64;
+                        SELECT id, title, created_at, author, COALESCE(link_count, 0) AS link_count, status
+                        FROM issues
+                        WHERE id > $after_id
+                        ORDER BY id
+                        LIMIT $limit;
+                        """,
+                TxMode.SNAPSHOT_RO,
+                Params.of("$after_id", PrimitiveValue.newInt64(afterId), "$limit", PrimitiveValue.newUint64(limit))
+        ).thenApply(this::fetchIssues);
     }
 
-    public List<Issue> findAll() {
-        var resultSet = retryCtx.supplyResult(
-                session -> QueryReader.readFrom(
-                        session.createQuery("SELECT id, title, created_at, author, COALESCE(link_count, 0), status FROM issues;", TxMode.SNAPSHOT_RO)
+    /**
+     * Возвращает до limit тикетов с id из диапазона [fromId, toId] в порядке первичного ключа.
+     * Используется ParallelIssueScanner для чтения непересекающихся диапазонов ключей.
+     */
+    public CompletableFuture<List<Issue>> findRangePageAsync(long fromId, long toId, int limit) {
+        return asyncQueryServiceHelper.executeQuery("findRangePage", """
+                        DECLARE $from_id AS Int64;
+                        DECLARE $to_id AS Int64;
+                        DECLARE $limit AS Uint64;
+                        SELECT id, title, created_at, author, COALESCE(link_count, 0) AS link_count, status
+                        FROM issues
+                        WHERE id >= $from_id AND id <= $to_id
+                        ORDER BY id
+                        LIMIT $limit;
+                        """,
+                TxMode.SNAPSHOT_RO,
+                Params.of(
+                        "$from_id", PrimitiveValue.newInt64(fromId),
+                        "$to_id", PrimitiveValue.newInt64(toId),
+                        "$limit", PrimitiveValue.newUint64(limit)
                 )
-        ).join().getValue();
+        ).thenApply(this::fetchIssues);
+    }
 
-        return fetchIssues(resultSet);
+    /**
+     * Потоковое чтение всех тикетов. В отличие от findAll, строки передаются в consumer сразу по мере
+     * получения частей результата, поэтому в памяти одновременно находится только одна часть.
+     * Consumer вызывается последовательно, из потока клиента YDB.
+     */
+    public CompletableFuture<Void> streamAllAsync(Consumer<Issue> consumer) {
+        return asyncQueryServiceHelper.executeStreaming("streamAll",
+                "SELECT id, title, created_at, author, COALESCE(link_count, 0) AS link_count, status FROM issues;",
+                TxMode.SNAPSHOT_RO, Params.empty(), resultSetReader -> readIssues(resultSetReader, consumer)
+        );
     }
 
-    public List<IssueTitle> findFutures() {
-        var queryReader = retryCtx.supplyResult(
-                session -> QueryReader.readFrom(
-                        session.createQuery("""
-                                -- выбираем ID и заголовки задач, которые должны быть созданы в будущем
-                                $future =
-                                SELECT id, title
-                                FROM issues
-                                WHERE status = 'future';
-                                                                
-                                -- возвращаем их как результат запроса
-                                SELECT * FROM $future;
-                                                                
-                                -- и обновляем статус/время точно у этих же задач
-                                UPDATE issues ON
-                                                                
-                                SELECT id, CurrentUtcTimestamp() AS created_at, CAST('new' AS Utf8) AS status
-                                                                
-                                FROM $future
-                                """, TxMode.SERIALIZABLE_RW)
-                )
-        ).join().getValue();
+    /**
+     * Потоковое чтение всех тикетов без создания объектов Issue: consumer получает один и тот же
+     * IssueView, указывающий на очередную строку, и читает из него только нужные колонки.
+     * IssueView нельзя сохранять после возврата из consumer.
+     */
+    public CompletableFuture<Void> streamAllViewsAsync(Consumer<IssueView> consumer) {
+        return asyncQueryServiceHelper.executeStreaming("streamAll",
+                "SELECT id, title, created_at, author, COALESCE(link_count, 0) AS link_count, status FROM issues;",
+                TxMode.SNAPSHOT_RO, Params.empty(), resultSetReader -> {
+                    var view = IssueView.bind(resultSetReader, dictionary);
+
+                    while (view.next()) {
+                        consumer.accept(view);
+                    }
+                }
+        );
+    }
 
-        var linkTicketPairs = new ArrayList<IssueTitle>();
-        var resultSet = queryReader.getResultSet(0);
+    /**
+     * Потоковое чтение связей с source из диапазона [fromSource, toSource] в порядке первичного ключа
+     * (source, destination). Consumer вызывается последовательно и получает пары без упаковки в объекты.
+     */
+    public CompletableFuture<Void> streamLinksRangeAsync(long fromSource, long toSource, LinkConsumer consumer) {
+        return asyncQueryServiceHelper.executeStreaming("streamLinksRange", """
+                        DECLARE $from_source AS Int64;
+                        DECLARE $to_source AS Int64;
+                        SELECT source, destination
+                        FROM links
+                        WHERE source >= $from_source AND source <= $to_source
+                        ORDER BY source, destination;
+                        """,
+                TxMode.SNAPSHOT_RO,
+                Params.of(
+                        "$from_source", PrimitiveValue.newInt64(fromSource),
+                        "$to_source", PrimitiveValue.newInt64(toSource)
+                ),
+                resultSetReader -> {
+                    var sourceIndex = resultSetReader.getColumnIndex("source");
+                    var destinationIndex = resultSetReader.getColumnIndex("destination");
+
+                    while (resultSetReader.next()) {
+                        consumer.accept(
+                                resultSetReader.getColumn(sourceIndex).getInt64(),
+                                resultSetReader.getColumn(destinationIndex).getInt64()
+                        );
+                    }
+                }
+        );
+    }
 
-        while (resultSet.next()) {
-            linkTicketPairs.add(new IssueTitle(resultSet.getColumn(0).getInt64(), resultSet.getColumn(1).getText()));
+    /**
+     * Id тикетов, связанных с rootId не более чем через maxHops связей, в порядке обхода в ширину, без rootId.
+     * <p>
+     * Каждый уровень обхода читается одним запросом на весь фронт, а не запросом на каждый тикет.
+     * Все уровни читаются в одной транзакции SNAPSHOT_RO, поэтому обход видит один снимок таблицы links.
+     * Фронт больше {@link #FRONTIER_CHUNK_SIZE} делится на части; запросы одной транзакции выполняются
+     * в одной сессии и потому идут друг за другом, параллельно читает шарды links сам сервер.
+     * Уже найденные тикеты отбрасываются на клиенте.
+     *
+     * @param maxHops максимальное число связей от rootId, не меньше 0
+     * @param limit   максимальное число возвращаемых id, не меньше 0
+     * @throws IllegalArgumentException если maxHops или limit отрицательны
+     */
+    public CompletableFuture<long[]> findLinkedWithinAsync(long rootId, int maxHops, int limit) {
+        if (maxHops < 0) {
+            throw new IllegalArgumentException("maxHops must not be negative: " + maxHops);
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
         }
 
-        return linkTicketPairs;
+        // При повторе транзакции обход начинается заново, поэтому состояние создаётся внутри action
+        return asyncQueryServiceHelper.executeInTx(TxMode.SNAPSHOT_RO, tx -> {
+            var visited = new LongHashSet(Math.min(limit, 1024));
+            visited.add(rootId);
+
+            return findLinkedLevel(tx, new long[]{rootId}, maxHops, limit, visited, new ArrayList<>())
+                    .thenCompose(levels -> tx.commit().thenApply(ignored -> {
+                        var ids = new long[Math.min(limit, visited.size() - 1)];
+                        var size = 0;
+                        for (var level : levels) {
+                            var count = Math.min(level.length, ids.length - size);
+                            System.arraycopy(level, 0, ids, size, count);
+                            size += count;
+                        }
+
+                        return ids;
+                    }));
+        });
     }
 
-    public void deleteTasks(List<Long> ids) {
-        var idsParam = ListType.of(PrimitiveType.Int64).newValue(
-                ids.stream().map(PrimitiveValue::newInt64).toList()
+    /**
+     * Id тикетов, с которыми напрямую связан тикет id. Один запрос на тикет, используется как точка сравнения
+     * для {@link #findLinkedWithinAsync}.
+     */
+    public CompletableFuture<long[]> findLinkedIdsAsync(long id) {
+        return asyncQueryServiceHelper.executeQuery("findLinkedIds", """
+                        DECLARE $source AS Int64;
+                        SELECT destination FROM links WHERE source = $source;
+                        """,
+                TxMode.SNAPSHOT_RO,
+                Params.of("$source", PrimitiveValue.newInt64(id))
+        ).thenApply(queryReader -> readIdColumn(queryReader.getResultSet(0)));
+    }
+
+    /**
+     * Записывает связи sources[i] -> destinations[i] одним запросом, не меняя link_count.
+     * Нужен для заполнения таблицы links большим графом, например в Benchmark.
+     */
+    public CompletableFuture<Void> saveLinksAsync(long[] sources, long[] destinations) {
+        var rows = LINKS_PARAMS.newRows(sources.length);
+        for (int i = 0; i < sources.length; i++) {
+            rows.add(PrimitiveValue.newInt64(sources[i]), PrimitiveValue.newInt64(destinations[i]));
+        }
+
+        return asyncQueryServiceHelper.executeUpdate("saveLinks", """
+                        DECLARE $links AS List<Struct<
+                        source: Int64,
+                        destination: Int64,
+                        >>;
+
+                        UPSERT INTO links
+                        SELECT * FROM AS_TABLE($links);
+                        """,
+                TxMode.SERIALIZABLE_RW,
+                Params.of("$links", rows.build())
         );
+    }
+
+    public CompletableFuture<List<IssueTitle>> findFuturesAsync() {
+        return asyncQueryServiceHelper.executeQuery("findFutures", """
+                        DECLARE $future_status AS Text;
 
-        retryCtx.supplyResult(
-                session -> session.createQuery(
-                        """
-                                -- принимаем id задач для удаления
-                                DECLARE $issues_ids_arg AS List<Int64>;
+                        -- выбираем ID и заголовки задач, которые должны быть созданы в будущем
+                        $future =
+                        SELECT id, title
+                        FROM issues
+                        WHERE status = $future_status;
 
-                                -- это лямбда-функция для преобразования отдельного элемента списка в структуру
-                                $list_to_id_struct = ($id) -> { RETURN <|id:$id|>};
+                        -- возвращаем их как результат запроса
+                        SELECT * FROM $future;
 
-                                -- тут удаляем из списка возможные дубли и преобразовываем список id в список структур
-                                $issue_ids_list = ListMap(ListUniq($issues_ids_arg), $list_to_id_struct);
+                        -- и обновляем статус/время точно у этих же задач
+                        UPDATE issues ON
 
-                                -- внутри других запросов проще работать с результатом запроса к таблице,
-                                -- чтобы не помнить везде о том что это когда-то было списком структур или
-                                -- параметром
-                                $issues = SELECT id FROM AS_TABLE($issue_ids_list);
+                        SELECT id, CurrentUtcTimestamp() AS created_at, CAST('new' AS Utf8) AS status
 
+                        FROM $future
+                        """, TxMode.SERIALIZABLE_RW, Params.of("$future_status", PrimitiveValue.newText("future"))
+        ).thenApply(queryReader -> {
+            var linkTicketPairs = new ArrayList<IssueTitle>();
+            var resultSet = queryReader.getResultSet(0);
 
-                                -- выбираем связи этих задач
-                                $linked_issues =
-                                SELECT source, destination
+            while (resultSet.next()) {
+                linkTicketPairs.add(new IssueTitle(resultSet.getColumn(0).getInt64(), resultSet.getColumn(1).getText()));
+            }
 
-                                FROM links
+            return linkTicketPairs;
+        });
+    }
 
-                                WHERE source IN $issues;
+    public CompletableFuture<long[]> deleteTasksAsync(List<Long> ids) {
+        return deleteTasksAsync(ids.stream().mapToLong(Long::longValue).toArray());
+    }
 
+    /**
+     * Пачки размера {@link BatchSizeController} удаляются отдельными транзакциями друг за другом.
+     * Если пачек больше одной, удаление не атомарно: при ошибке более ранние пачки остаются удалёнными.
+     * Удаление идемпотентно: вместе с тикетами удаляются их связи, поэтому повтор пачки или всего вызова
+     * не уменьшает link_count связанных тикетов второй раз.
+     *
+     * @return id связанных тикетов, у которых уменьшился link_count
+     */
+    public CompletableFuture<long[]> deleteTasksAsync(long[] ids) {
+        return batchSizes.execute("deleteTasks", ids.length,
+                (from, to) -> deleteTasksBatchAsync(Arrays.copyOfRange(ids, from, to))
+        ).thenApply(batches -> batches.size() == 1
+                ? batches.get(0)
+                : batches.stream().flatMapToLong(Arrays::stream).distinct().toArray());
+    }
 
-                                -- и связи в обратную сторону
-                                $linked_issues_mirrored =
-                                SELECT destination AS source, source AS destination
-                                FROM $linked_issues;
+    private CompletableFuture<long[]> deleteTasksBatchAsync(long[] ids) {
+        var idsParam = BatchParams.int64List(ids);
 
+        return asyncQueryServiceHelper.executeQuery("deleteTasks", """
+                        -- принимаем id задач для удаления
+                        DECLARE $issues_ids_arg AS List<Int64>;
 
-                                $mirrored_dec_map =
-                                SELECT source AS id, COUNT(*) AS cnt
-                                FROM $linked_issues_mirrored
+                        -- это лямбда-функция для преобразования отдельного элемента списка в структуру
+                        $list_to_id_struct = ($id) -> { RETURN <|id:$id|>};
 
-                                GROUP BY source;
+                        -- тут удаляем из списка возможные дубли и преобразовываем список id в список структур
+                        $issue_ids_list = ListMap(ListUniq($issues_ids_arg), $list_to_id_struct);
 
+                        -- внутри других запросов проще работать с результатом запроса к таблице,
+                        -- чтобы не помнить везде о том что это когда-то было списком структур или
+                        -- параметром
+                        $issues = SELECT id FROM AS_TABLE($issue_ids_list);
 
-                                -- именованные выражения это просто подстановка запросов, т.е. промежуточного сохранения данных не происходит
-                                -- поэтому важно выполнять запросы в таком порядке, чтобы данные, на которые опирается выражение ещё не были испорчены
-                                -- к моменту его выполнения, проще всего идти с конца
 
-                                -- сначала обновляем счётчики у связанных тикетов
-                                UPDATE issues ON
+                        -- выбираем связи этих задач
+                        $linked_issues =
+                        SELECT source, destination
 
-                                SELECT i.id AS id, i.link_count - d.cnt AS link_count
+                        FROM links
 
-                                FROM $mirrored_dec_map AS d JOIN issues AS i ON d.id = i.id;
+                        WHERE source IN $issues;
 
 
-                                -- теперь обновляем счётчики у переданных тикетов
-                                UPDATE issues
-                                SET link_count=link_count-1
+                        -- и связи в обратную сторону
+                        $linked_issues_mirrored =
+                        SELECT destination AS source, source AS destination
+                        FROM $linked_issues;
+
+
+                        $mirrored_dec_map =
+                        SELECT source AS id, COUNT(*) AS cnt
+                        FROM $linked_issues_mirrored
+
+                        GROUP BY source;
+
+
+                        -- именованные выражения это просто подстановка запросов, т.е. промежуточного сохранения данных не происходит
+                        -- поэтому важно выполнять запросы в таком порядке, чтобы данные, на которые опирается выражение ещё не были испорчены
+                        -- к моменту его выполнения, проще всего идти с конца
 
-                                WHERE id IN $issues;
+                        -- сначала обновляем счётчики у связанных тикетов
+                        UPDATE issues ON
 
+                        SELECT i.id AS id, i.link_count - d.cnt AS link_count
 
-                                -- и удаляем сами тикеты
-                                -- если тикеты удалить раньше, то
-                                DELETE FROM issues
+                        FROM $mirrored_dec_map AS d JOIN issues AS i ON d.id = i.id;
 
-                                WHERE id IN $issues;
-                                """,
-                        TxMode.SERIALIZABLE_RW,
-                        Params.of("$issues_ids_arg", idsParam)
-                ).execute()
-        ).join().getStatus().expectSuccess("Failed upsert title");
+
+                        -- теперь обновляем счётчики у переданных тикетов
+                        UPDATE issues
+                        SET link_count=link_count-1
+
+                        WHERE id IN $issues;
+
+
+                        -- и удаляем сами тикеты
+                        -- если тикеты удалить раньше, то
+                        DELETE FROM issues
+
+                        WHERE id IN $issues;
+
+
+                        -- возвращаем связанные тикеты, у которых изменился счётчик, чтобы кэши могли их сбросить
+                        SELECT DISTINCT source AS id FROM $linked_issues_mirrored;
+
+
+                        -- и последними удаляем связи в обе стороны: все чтения links выше уже выполнены,
+                        -- а повторное удаление этих тикетов не найдёт связей и не уменьшит счётчики ещё раз
+                        DELETE FROM links ON
+                        SELECT source, destination FROM $linked_issues
+                        UNION ALL
+                        SELECT source, destination FROM $linked_issues_mirrored;
+                        """,
+                TxMode.SERIALIZABLE_RW,
+                Params.of("$issues_ids_arg", idsParam)
+        ).thenApply(queryReader -> {
+            var resultSet = queryReader.getResultSet(0);
+            var linkedIds = new long[resultSet.getRowCount()];
+
+            for (int i = 0; resultSet.next(); i++) {
+                linkedIds[i] = resultSet.getColumn(0).getInt64();
+            }
+
+            return linkedIds;
+        });
     }
 
-    public Issue findByAuthor(String author) {
-        var resultSet = retryCtx.supplyResult(
-                session -> QueryReader.readFrom(
-                        session.createQuery(
-                                """
-                                        DECLARE $author AS Text;
-                                        SELECT id, title, created_at, author, COALESCE(link_count, 0), status FROM issues
-                                        WHERE author = $author;
-                                        """,
-                                TxMode.SNAPSHOT_RO,
-                                Params.of("$author", PrimitiveValue.newText(author))
-                        )
-                )
-        ).join().getValue();
-
-        var resultSetReader = resultSet.getResultSet(0);
-        resultSetReader.next();
-
-        return new Issue(
-                resultSetReader.getColumn(0).getInt64(),
-                resultSetReader.getColumn(1).getText(),
-                resultSetReader.getColumn(2).getTimestamp(),
-                resultSetReader.getColumn(3).getText(),
-                resultSetReader.getColumn(4).getInt64(),
-                resultSetReader.getColumn(5).getText()
+    public CompletableFuture<Issue> findByAuthorAsync(String author) {
+        return asyncQueryServiceHelper.executeCachedQuery("findByAuthor", """
+                        DECLARE $author AS Text;
+                        SELECT id, title, created_at, author, COALESCE(link_count, 0) AS link_count, status FROM issues
+                        WHERE author = $author;
+                        """,
+                ISSUES_TABLE,
+                Params.of("$author", PrimitiveValue.newText(author)),
+                resultSet -> {
+                    var view = IssueView.bind(resultSet.getResultSet(0), dictionary);
+                    view.next();
+
+                    return view.toIssue();
+                },
+                IssueYdbRepository::estimateBytes
         );
     }
 
+    /**
+     * Возвращает id всех тикетов автора. Запрос читает только индекс authorIndex, в котором
+     * вместе с автором хранится первичный ключ, и не обращается к основной таблице.
+     */
+    public CompletableFuture<long[]> findIdsByAuthorAsync(String author) {
+        return asyncQueryServiceHelper.executeQuery("findIdsByAuthor", """
+                        DECLARE $author AS Text;
+                        SELECT id FROM issues VIEW authorIndex
+                        WHERE author = $author;
+                        """,
+                TxMode.SNAPSHOT_RO,
+                Params.of("$author", PrimitiveValue.newText(author))
+        ).thenApply(queryReader -> {
+            var resultSet = queryReader.getResultSet(0);
+            var ids = new long[resultSet.getRowCount()];
+
+            for (int i = 0; resultSet.next(); i++) {
+                ids[i] = resultSet.getColumn(0).getInt64();
+            }
+
+            return ids;
+        });
+    }
+
+    // Приблизительный размер в куче: объекты Issue и Instant плюс строки по 2 байта на символ
+    private static long estimateBytes(Issue issue) {
+        return 80 + textBytes(issue.title()) + textBytes(issue.author()) + textBytes(issue.status());
+    }
+
+    private static long estimateBytes(List<Issue> issues) {
+        long bytes = 16 + 4L * issues.size();
+        for (var issue : issues) {
+            bytes += estimateBytes(issue);
+        }
+
+        return bytes;
+    }
+
+    private static long textBytes(@Nullable String text) {
+        return text == null ? 0 : 40 + 2L * text.length();
+    }
+
     private static List<IssueLinkCount> getIssueLinkCount(QueryReader valueReader) {
         var linkTicketPairs = new ArrayList<IssueLinkCount>();
         var resultSet = valueReader.getResultSet(0);
+        var idIndex = resultSet.getColumnIndex("id");
+        var linkCountIndex = resultSet.getColumnIndex("link_count");
 
         while (resultSet.next()) {
-            linkTicketPairs.add(new IssueLinkCount(resultSet.getColumn(0).getInt64(), resultSet.getColumn(1).getInt64()));
+            linkTicketPairs.add(new IssueLinkCount(
+                    resultSet.getColumn(idIndex).getInt64(),
+                    resultSet.getColumn(linkCountIndex).getInt64()
+            ));
         }
         return linkTicketPairs;
     }
 
-    private static List<Issue> fetchIssues(QueryReader queryReader) {
-        var issues = new ArrayList<Issue>();
+    // Читает очередной уровень обхода; levels - новые id по уровням в порядке обнаружения
+    private CompletableFuture<List<long[]>> findLinkedLevel(AsyncTransactionHelper tx, long[] frontier, int hopsLeft,
+                                                            int limit, LongHashSet visited, List<long[]> levels) {
+        if (hopsLeft == 0 || frontier.length == 0 || visited.size() - 1 >= limit) {
+            return CompletableFuture.completedFuture(levels);
+        }
 
-        var resultSetReader = queryReader.getResultSet(0);
+        return findLinkedChunks(tx, frontier, 0, limit, visited, new ArrayList<>()).thenCompose(discovered -> {
+            var level = discovered.stream().flatMapToLong(Arrays::stream).toArray();
+            levels.add(level);
 
-        while (resultSetReader.next()) {
-            issues.add(new Issue(
-                    resultSetReader.getColumn(0).getInt64(),
-                    resultSetReader.getColumn(1).getText(),
-                    resultSetReader.getColumn(2).getTimestamp(),
-                    resultSetReader.getColumn(3).getText(),
-                    resultSetReader.getColumn(4).getInt64(),
-                    resultSetReader.getColumn(5).getText()
-            ));
+            return findLinkedLevel(tx, level, hopsLeft - 1, limit, visited, levels);
+        });
+    }
+
+    private CompletableFuture<List<long[]>> findLinkedChunks(AsyncTransactionHelper tx, long[] frontier, int from,
+                                                             int limit, LongHashSet visited, List<long[]> discovered) {
+        if (from >= frontier.length || visited.size() - 1 >= limit) {
+            return CompletableFuture.completedFuture(discovered);
+        }
+
+        var chunk = Arrays.copyOfRange(frontier, from, Math.min(frontier.length, from + FRONTIER_CHUNK_SIZE));
+
+        return tx.executeQuery("findLinkedWithin.level", """
+                        DECLARE $frontier AS List<Struct<id: Int64>>;
+                        SELECT DISTINCT destination
+                        FROM links
+                        WHERE source IN (SELECT id FROM AS_TABLE($frontier));
+                        """,
+                Params.of("$frontier", IDS_PARAMS.ofInt64Column(chunk))
+        ).thenCompose(queryReader -> {
+            var destinations = readIdColumn(queryReader.getResultSet(0));
+            var fresh = new long[destinations.length];
+            var size = 0;
+            for (var destination : destinations) {
+                if (visited.size() - 1 < limit && visited.add(destination)) {
+                    fresh[size++] = destination;
+                }
+            }
+            discovered.add(Arrays.copyOf(fresh, size));
+
+            return findLinkedChunks(tx, frontier, from + chunk.length, limit, visited, discovered);
+        });
+    }
+
+    private static long[] readIdColumn(ResultSetReader resultSet) {
+        var ids = new long[resultSet.getRowCount()];
+
+        for (int i = 0; resultSet.next(); i++) {
+            ids[i] = resultSet.getColumn(0).getInt64();
         }
 
+        return ids;
+    }
+
+    private List<Issue> fetchIssues(QueryReader queryReader) {
+        var issues = new ArrayList<Issue>();
+
+        readIssues(queryReader.getResultSet(0), issues::add);
+
         return issues;
     }
+
+    private void readIssues(ResultSetReader resultSetReader, Consumer<Issue> consumer) {
+        // Индексы колонок определяются один раз на весь результат
+        var view = IssueView.bind(resultSetReader, dictionary);
+
+        while (view.next()) {
+            consumer.accept(view.toIssue());
+        }
+    }
 }
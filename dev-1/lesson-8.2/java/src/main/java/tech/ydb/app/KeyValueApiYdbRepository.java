@@ -4,14 +4,21 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+import javax.annotation.Nullable;
 
 import tech.ydb.core.Result;
 import tech.ydb.table.SessionRetryContext;
 import tech.ydb.table.result.ResultSetReader;
 import tech.ydb.table.settings.ReadRowsSettings;
 import tech.ydb.table.settings.ReadTableSettings;
-import tech.ydb.table.values.ListType;
 import tech.ydb.table.values.OptionalType;
 import tech.ydb.table.values.PrimitiveType;
 import tech.ydb.table.values.PrimitiveValue;
@@ -22,63 +29,170 @@ import tech.ydb.table.values.StructType;
  */
 public class KeyValueApiYdbRepository {
 
+    // Описывает структуру с полями, которые будут добавляться в таблицу.
+    // Смысл операции тот же что для запроса UPSERT. Поля первичного ключа - обязательные,
+    // остальные - опциональные. Если запись с таким первичным ключём уже существует, то
+    // переданные поля обновятся, а остальные - сохранят прежние значения.
+    private static final BatchParams BULK_UPSERT_PARAMS = BatchParams.of(
+            StructType.of(
+                    "id", PrimitiveType.Int64,
+                    "title", PrimitiveType.Text,
+                    "author", PrimitiveType.Text,
+                    "created_at", OptionalType.of(PrimitiveType.Timestamp)
+            ),
+            "id", "title", "author", "created_at"
+    );
+    private static final OptionalType OPTIONAL_TIMESTAMP = OptionalType.of(PrimitiveType.Timestamp);
+    // Часть BulkUpsert заметно меньше ограничения на размер сообщения gRPC (64 МБ)
+    private static final long BULK_CHUNK_BYTES = 4L << 20;
+    private static final int BULK_IN_FLIGHT = 16;
+    private static final int BULK_MAX_ATTEMPTS = 5;
+
     private final SessionRetryContext retryTableCtx;
+    private final StringDictionary dictionary = new StringDictionary(100_000);
+    private volatile BatchSizeController batchSizes = new BatchSizeController();
+    // Пул, в котором завершаются readTable и readRowsAsync, по умолчанию - поток транспорта YDB
+    private volatile Executor executor = Runnable::run;
 
     public KeyValueApiYdbRepository(SessionRetryContext retryTableCtx) {
         this.retryTableCtx = retryTableCtx;
     }
 
     /**
-     * Массовое добавление или обновление тикетов в таблице.
+     * Заменяет контроллер размеров пачек, например на общий с {@link IssueYdbRepository}
      */
-    public void bulkUpsert(String tableName, List<TitleAuthor> titleAuthorList) {
-
-        // Описывает структуру с полями, которые будут добавляться в таблицу.
-        // Смысл операции тот же что для запроса UPSERT. Поля первичного ключа - обязательные, 
-        // остальные - опциональные. Если запись с таким первичным ключём уже существует, то
-        // переданные поля обновятся, а остальные - сохранят прежние значения.
-        var structType = StructType.of(
-                "id", PrimitiveType.Int64,
-                "title", PrimitiveType.Text,
-                "author", PrimitiveType.Text,
-                "created_at", OptionalType.of(PrimitiveType.Timestamp)
-        );
+    public void useBatchSizeController(BatchSizeController batchSizes) {
+        this.batchSizes = batchSizes;
+    }
 
-        var listIssues = ListType.of(structType).newValue(
-                titleAuthorList.stream().map(issue -> structType.newValue(
-                        "id", PrimitiveValue.newInt64(ThreadLocalRandom.current().nextLong()),
-                        "title", PrimitiveValue.newText(issue.title()),
-                        "author", PrimitiveValue.newText(issue.author()),
-                        "created_at", OptionalType.of(PrimitiveType.Timestamp)
-                                .newValue(PrimitiveValue.newTimestamp(Instant.now()))
-                )).toList()
-        );
+    /**
+     * Пул, в котором завершаются асинхронные чтения, например из {@link ExecutionMode#newExecutor()}
+     */
+    public void useExecutor(Executor executor) {
+        this.executor = executor;
+    }
 
-        retryTableCtx.supplyStatus(session -> session.executeBulkUpsert(tableName, listIssues))
-                .join().expectSuccess();
+    /**
+     * Массовое добавление или обновление тикетов в таблице частями по {@link #BULK_CHUNK_BYTES},
+     * см. {@link BulkLoader}.
+     */
+    public BulkLoader.Stats bulkUpsert(String tableName, List<TitleAuthor> titleAuthorList) {
+        return bulkLoader(tableName, BULK_CHUNK_BYTES, BULK_IN_FLIGHT).load(titleAuthorList.iterator());
+    }
+
+    /**
+     * Загрузчик тикетов в таблицу: id генерируются случайно, created_at - время добавления строки в часть.
+     * Повтор части внутри BulkLoader не создаёт дублей, а повторная загрузка тех же данных - создаёт.
+     */
+    public BulkLoader<TitleAuthor> bulkLoader(String tableName, long maxChunkBytes, int maxInFlight) {
+        return bulkLoader(tableName, titleAuthor -> ThreadLocalRandom.current().nextLong(), Function.identity(),
+                maxChunkBytes, maxInFlight);
+    }
+
+    /**
+     * Загрузчик записей файла source: id вычисляется из source и номера записи, см. {@link CsvRecord#id},
+     * поэтому повторная загрузка файла или его части перезаписывает те же строки.
+     */
+    public BulkLoader<CsvRecord> importLoader(String tableName, String source, long maxChunkBytes, int maxInFlight) {
+        var sourceHash = CsvRecord.sourceHash(source);
+
+        return bulkLoader(tableName, record -> record.id(sourceHash), CsvRecord::titleAuthor, maxChunkBytes, maxInFlight);
+    }
+
+    private <T> BulkLoader<T> bulkLoader(String tableName, ToLongFunction<T> ids, Function<T, TitleAuthor> titleAuthors,
+                                         long maxChunkBytes, int maxInFlight) {
+        return new BulkLoader<>(retryTableCtx, tableName, BULK_UPSERT_PARAMS,
+                (row, rows) -> {
+                    var titleAuthor = titleAuthors.apply(row);
+                    rows.add(
+                            PrimitiveValue.newInt64(ids.applyAsLong(row)),
+                            PrimitiveValue.newText(titleAuthor.title()),
+                            PrimitiveValue.newText(titleAuthor.author()),
+                            // Значение строки вычисляется один раз при сборке части, повтор части его не меняет
+                            OPTIONAL_TIMESTAMP.newValue(PrimitiveValue.newTimestamp(Instant.now()))
+                    );
+                },
+                row -> estimateBytes(titleAuthors.apply(row)), maxChunkBytes, maxInFlight, BULK_MAX_ATTEMPTS, batchSizes.operation("bulkUpsert")
+        );
     }
 
     /**
      * Чтение всех данных из таблицы.
-     * Использует executeReadTable для получения всех записей.
+     * Строки читаются потоком через {@link #readIssues}, фильтр по id применяется к каждой части по мере получения.
      */
     public List<Issue> readTable(String tableName) {
-        return retryTableCtx.supplyResult(session -> {
-                    var listResult = new ArrayList<Issue>();
+        var listResult = new ArrayList<Issue>();
 
-                    session.executeReadTable(tableName, ReadTableSettings.newBuilder().build())
-                            .start(
-                                    readTablePart -> {
-                                        var resultSetReader = readTablePart.getResultSetReader();
+        readIssues(tableName, null, null, List.of(), 0, false,
+                view -> Long.toString(view.id()).contains("0"), listResult::add).join();
 
-                                        fetchIssues(listResult, resultSetReader);
-                                    }
-                            ).join().expectSuccess();
+        return listResult;
+    }
+
+    /**
+     * Потоковое чтение таблицы через executeReadTable: каждая часть передаётся в partConsumer сразу
+     * после получения, весь результат в памяти не собирается. Границы ключа, список колонок и
+     * ограничение числа строк передаются серверу, поэтому лишние строки и колонки не читаются из таблицы.
+     * <p>
+     * Повтор чтения возможен только до получения первой части, иначе потребитель получил бы
+     * одни и те же строки дважды.
+     *
+     * @param fromKey  нижняя граница id включительно, null - с начала таблицы
+     * @param toKey    верхняя граница id включительно, null - до конца таблицы
+     * @param columns  читаемые колонки, пустой список - все колонки
+     * @param rowLimit максимальное число строк, 0 - без ограничения
+     * @param ordered  возвращать строки в порядке первичного ключа
+     */
+    public CompletableFuture<Void> readTable(String tableName, @Nullable Long fromKey, @Nullable Long toKey,
+                                             List<String> columns, int rowLimit, boolean ordered,
+                                             Consumer<ResultSetReader> partConsumer) {
+        var settings = ReadTableSettings.newBuilder()
+                .orderedRead(ordered)
+                .columns(columns);
+        if (fromKey != null) {
+            settings.fromKeyInclusive(PrimitiveValue.newInt64(fromKey));
+        }
+        if (toKey != null) {
+            settings.toKeyInclusive(PrimitiveValue.newInt64(toKey));
+        }
+        if (rowLimit > 0) {
+            settings.rowLimit(rowLimit);
+        }
+
+        var readSettings = settings.build();
+        var partReceived = new AtomicBoolean();
 
+        return retryTableCtx.supplyStatus(session -> {
+                    if (partReceived.get()) {
+                        return CompletableFuture.failedFuture(new IllegalStateException(
+                                "Read of " + tableName + " failed after part of the result was consumed"));
+                    }
 
-                    return CompletableFuture.completedFuture(Result.success(listResult));
+                    return session.executeReadTable(tableName, readSettings).start(part -> {
+                        partReceived.set(true);
+                        partConsumer.accept(part.getResultSetReader());
+                    });
                 }
-        ).join().getValue();
+        ).thenAcceptAsync(status -> status.expectSuccess("Read of " + tableName + " failed"), executor);
+    }
+
+    /**
+     * Потоковое чтение тикетов, см. {@link #readTable(String, Long, Long, List, int, boolean, Consumer)}.
+     * Фильтр вызывается для каждой строки до создания Issue и может читать только нужные ему колонки.
+     * В columns должны быть id, title, created_at и author, если список не пустой.
+     */
+    public CompletableFuture<Void> readIssues(String tableName, @Nullable Long fromKey, @Nullable Long toKey,
+                                              List<String> columns, int rowLimit, boolean ordered,
+                                              Predicate<IssueView> filter, Consumer<Issue> consumer) {
+        return readTable(tableName, fromKey, toKey, columns, rowLimit, ordered, resultSetReader -> {
+            var view = IssueView.bind(resultSetReader, dictionary);
+
+            while (view.next()) {
+                if (filter.test(view)) {
+                    consumer.accept(view.toIssue());
+                }
+            }
+        });
     }
 
     /**
@@ -86,61 +200,47 @@ public class KeyValueApiYdbRepository {
      * Использует readRows для получения записей по конкретному id.
      */
     public List<Issue> readRows(String tableName, long id) {
-        var keyStruct = StructType.of("id", PrimitiveType.Int64);
+        return readRowsAsync(tableName, id).join();
+    }
 
-        return retryTableCtx.supplyResult(session -> {
+    public CompletableFuture<List<Issue>> readRowsAsync(String tableName, long id) {
+        var keyStruct = StructType.of("id", PrimitiveType.Int64);
+        var settings = ReadRowsSettings.newBuilder()
+                .addKey(keyStruct.newValue("id", PrimitiveValue.newInt64(id)))
+                .addColumns("id", "title", "created_at", "author")
+                .build();
+
+        // Ответ разбирается в продолжении, а не через join() внутри retryTableCtx, который занимал бы поток транспорта
+        return retryTableCtx.supplyResult(session -> session.readRows(tableName, settings)
+                .thenApply(result -> result.<List<Issue>>map(readRowsResult -> {
                     var listResult = new ArrayList<Issue>();
+                    fetchIssues(listResult, readRowsResult.getResultSetReader());
 
-                    var resultSetReader = session.readRows(tableName,
-                            ReadRowsSettings.newBuilder()
-                                    .addKey(keyStruct.newValue("id", PrimitiveValue.newInt64(id)))
-                                    .addColumns("id", "title", "created_at", "author")
-                                    .build()
-                    ).join().getValue().getResultSetReader();
-
-                    fetchIssues(listResult, resultSetReader);
+                    return listResult;
+                }))
+        ).thenApplyAsync(Result::getValue, executor);
+    }
 
-                    return CompletableFuture.completedFuture(Result.success(listResult));
-                }
-        ).join().getValue();
+    // Размер строки в сообщении: id и created_at по 8 байт, текст в UTF-8 (для кириллицы 2 байта на символ)
+    private static long estimateBytes(TitleAuthor titleAuthor) {
+        return 16 + 2L * (titleAuthor.title().length() + titleAuthor.author().length());
     }
 
     /**
      * Вспомогательный метод для преобразования результатов запроса в объекты Issue.
-     * Обрабатывает различные варианты структуры данных (с link_count и status или без них).
+     * Обрабатывает различные варианты структуры данных (с link_count и status или без них):
+     * IssueView находит колонки по именам и подставляет значения по умолчанию для отсутствующих.
      */
     private void fetchIssues(ArrayList<Issue> listResult, ResultSetReader resultSetReader) {
-        while (resultSetReader.next()) {
-            var id = resultSetReader.getColumn(0).getInt64();
+        var view = IssueView.bind(resultSetReader, dictionary);
 
-            if (!Long.toString(id).contains("0")) {
+        while (view.next()) {
+            // Фильтр проверяет только id, поэтому остальные колонки читаются лишь у подходящих строк
+            if (!Long.toString(view.id()).contains("0")) {
                 continue;
-            };
-
-            long linksCount;
-            if (resultSetReader.getColumnCount() > 4) {
-                linksCount = resultSetReader.getColumn(4).getInt64();
-            } else {
-                linksCount = 0;
-            }
-
-            String status;
-            if (resultSetReader.getColumnCount() > 5) {
-                status = resultSetReader.getColumn(5).getText();
-            } else {
-                status = "";
             }
 
-            listResult.add(
-                    new Issue(
-                            id,
-                            resultSetReader.getColumn(1).getText(),
-                            resultSetReader.getColumn(2).getTimestamp(),
-                            resultSetReader.getColumn(3).getText(),
-                            linksCount,
-                            status
-                    )
-            );
+            listResult.add(view.toIssue());
         }
     }
 }
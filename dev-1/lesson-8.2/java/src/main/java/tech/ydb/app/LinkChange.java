@@ -0,0 +1,20 @@
+package tech.ydb.app;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Изменение строки таблицы links из changefeed links/updates.
+ * <p>
+ * В таблице только ключевые колонки, поэтому changefeed создан в режиме NEW_IMAGE: сообщение содержит
+ * ключ [source, destination] и либо newImage при вставке, либо erase при удалении.
+ *
+ * @author Kirill Kurdyukov
+ */
+public record LinkChange(long source, long destination, boolean erase) {
+
+    public static LinkChange fromJson(JsonObject json) {
+        var key = json.getAsJsonArray("key");
+
+        return new LinkChange(key.get(0).getAsLong(), key.get(1).getAsLong(), json.has("erase"));
+    }
+}
@@ -0,0 +1,12 @@
+package tech.ydb.app;
+
+/**
+ * Получатель связи source -> destination из таблицы links, без упаковки id в Long.
+ *
+ * @author Kirill Kurdyukov
+ */
+@FunctionalInterface
+public interface LinkConsumer {
+
+    void accept(long source, long destination);
+}
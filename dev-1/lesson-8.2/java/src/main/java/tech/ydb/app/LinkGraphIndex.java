@@ -0,0 +1,493 @@
+package tech.ydb.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+import tech.ydb.topic.TopicClient;
+
+import javax.annotation.Nullable;
+
+/**
+ * Граф связей тикетов в памяти процесса: списки соседей хранятся в примитивных массивах long
+ * без объектов на каждую вершину и ребро.
+ * <p>
+ * Граф загружается параллельным чтением таблицы links по диапазонам source, как в {@link ParallelIssueScanner}.
+ * Каждый диапазон становится отдельным сегментом в формате CSR (compressed sparse row): отсортированный
+ * массив source, массив смещений и общий массив destination, отсортированный внутри каждого source.
+ * Поиск соседей - два бинарных поиска и чтение непрерывного куска массива.
+ * <p>
+ * Сегменты не изменяются. Изменения из changefeed links/updates (читатель link_graph) накапливаются
+ * в небольшом слое добавленных и удалённых рёбер, который накладывается на сегменты при чтении.
+ * Когда слой вырастает до {@code compactionThreshold} изменений, сегменты пересобираются вместе с ним.
+ * <p>
+ * Изменения применяются и во время загрузки: слой имеет приоритет над сегментами, поэтому ребро, удалённое
+ * после начала чтения, не вернётся из более старого снимка таблицы.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class LinkGraphIndex implements AutoCloseable {
+
+    private static final long[] NO_NEIGHBORS = new long[0];
+
+    private final ChangefeedWorker<LinkChange> linksWorker;
+    private final int compactionThreshold;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Непересекающиеся сегменты, упорядоченные по from и покрывающие весь диапазон Int64 после загрузки
+    private Segment[] segments = new Segment[0];
+    // source -> номер изменений в deltas
+    private final LongOffsetIndex deltaSlots = new LongOffsetIndex(1024);
+    private final List<Delta> deltas = new ArrayList<>();
+    private int deltaChanges;
+
+    /**
+     * @param compactionThreshold число изменений из changefeed, после которого они переносятся в сегменты
+     */
+    public LinkGraphIndex(TopicClient topicClient, Executor executor, int compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+        this.linksWorker = new ChangefeedWorker<>(topicClient, "links/updates", "link_graph", executor, false,
+                LinkChange::fromJson);
+
+        linksWorker.addListener(this::apply);
+    }
+
+    public void start() {
+        linksWorker.start();
+    }
+
+    public long load(IssueYdbRepository issueYdbRepository, int rangeCount, int parallelism) {
+        return loadAsync(issueYdbRepository, rangeCount, parallelism).join();
+    }
+
+    /**
+     * Читает таблицу links: одновременно читается не больше parallelism диапазонов source,
+     * каждый диапазон собирается в свой сегмент без общей блокировки.
+     *
+     * @return future с числом загруженных рёбер
+     */
+    public CompletableFuture<Long> loadAsync(IssueYdbRepository issueYdbRepository, int rangeCount, int parallelism) {
+        var ranges = new ConcurrentLinkedQueue<>(ParallelIssueScanner.splitKeySpace(rangeCount));
+        var loaded = new ConcurrentLinkedQueue<Segment>();
+
+        var workers = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < Math.min(parallelism, rangeCount); i++) {
+            workers.add(loadNextRange(issueYdbRepository, ranges, loaded));
+        }
+
+        return CompletableFuture.allOf(workers.toArray(CompletableFuture[]::new)).thenApply(ignored -> {
+            var newSegments = loaded.toArray(Segment[]::new);
+            Arrays.sort(newSegments, Comparator.comparingLong(Segment::from));
+
+            lock.writeLock().lock();
+            try {
+                segments = newSegments;
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            return Arrays.stream(newSegments).mapToLong(Segment::edgeCount).sum();
+        });
+    }
+
+    /**
+     * @return id тикетов, с которыми связан тикет id
+     */
+    public long[] neighbors(long id) {
+        lock.readLock().lock();
+        try {
+            var buffer = new LongBuffer(degreeHint(id));
+            forEachNeighbor(id, buffer);
+
+            return buffer.toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int degree(long id) {
+        lock.readLock().lock();
+        try {
+            var delta = delta(id);
+            var segment = segmentOf(id);
+            var row = segment == null ? -1 : segment.row(id);
+
+            if (delta == null) {
+                return row < 0 ? 0 : segment.degree(row);
+            }
+
+            var degree = 0;
+            if (row >= 0) {
+                for (int i = segment.offsets[row]; i < segment.offsets[row + 1]; i++) {
+                    if (!delta.removed.contains(segment.targets[i])) {
+                        degree++;
+                    }
+                }
+            }
+            for (var destination : delta.added.toArray()) {
+                if (row < 0 || !segment.contains(row, destination)) {
+                    degree++;
+                }
+            }
+
+            return degree;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Обход в ширину от rootId не дальше maxHops связей.
+     *
+     * @return id найденных тикетов без rootId в порядке обхода, не больше limit
+     * @throws IllegalArgumentException если maxHops или limit отрицательны
+     */
+    public long[] bfs(long rootId, int maxHops, int limit) {
+        if (maxHops < 0) {
+            throw new IllegalArgumentException("maxHops must not be negative: " + maxHops);
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        }
+
+        var visited = new LongHashSet(Math.min(limit, 1024));
+        visited.add(rootId);
+
+        var found = new LongBuffer(Math.min(limit, 1024));
+        var frontier = new LongBuffer(1);
+        frontier.accept(rootId);
+
+        lock.readLock().lock();
+        try {
+            for (int hop = 0; hop < maxHops && frontier.size > 0 && found.size < limit; hop++) {
+                var next = new LongBuffer(frontier.size * 2);
+
+                for (int i = 0; i < frontier.size && found.size < limit; i++) {
+                    forEachNeighbor(frontier.values[i], neighbor -> {
+                        if (found.size < limit && visited.add(neighbor)) {
+                            found.accept(neighbor);
+                            next.accept(neighbor);
+                        }
+                    });
+                }
+
+                frontier = next;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return found.toArray();
+    }
+
+    public long edgeCount() {
+        lock.readLock().lock();
+        try {
+            return Arrays.stream(segments).mapToLong(Segment::edgeCount).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return число изменений, ещё не перенесённых в сегменты
+     */
+    public int pendingChanges() {
+        lock.readLock().lock();
+        try {
+            return deltaChanges;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return примерный объём памяти под сегменты и слой изменений в байтах
+     */
+    public long memoryBytes() {
+        lock.readLock().lock();
+        try {
+            var bytes = Arrays.stream(segments).mapToLong(Segment::memoryBytes).sum() + deltaSlots.memoryBytes();
+            for (var delta : deltas) {
+                bytes += delta.added.memoryBytes() + delta.removed.memoryBytes();
+            }
+
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        linksWorker.close();
+    }
+
+    /**
+     * Применяет изменение из changefeed. Вызывается из потока {@link ChangefeedWorker}.
+     */
+    void apply(LinkChange change) {
+        lock.writeLock().lock();
+        try {
+            var delta = delta(change.source());
+            if (delta == null) {
+                delta = new Delta(change.source(), new LongHashSet(4), new LongHashSet(4));
+                deltaSlots.put(change.source(), deltas.size());
+                deltas.add(delta);
+            }
+
+            // Ребро находится не больше чем в одном из множеств: последнее изменение отменяет предыдущее
+            if (change.erase()) {
+                delta.added.remove(change.destination());
+                delta.removed.add(change.destination());
+            } else {
+                delta.removed.remove(change.destination());
+                delta.added.add(change.destination());
+            }
+            deltaChanges++;
+
+            // До окончания загрузки переносить изменения некуда
+            if (deltaChanges >= compactionThreshold && segments.length > 0) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Пересобирает сегменты с учётом изменений и очищает слой, вызывается под блокировкой на запись
+    private void compact() {
+        var changedSources = deltas.stream().mapToLong(Delta::source).sorted().toArray();
+        var buffer = new LongBuffer(16);
+        int next = 0;
+
+        for (int s = 0; s < segments.length; s++) {
+            var segment = segments[s];
+            var from = next;
+            while (next < changedSources.length && changedSources[next] <= segment.to()) {
+                next++;
+            }
+
+            if (from == next) {
+                continue;
+            }
+
+            var builder = new Segment.Builder(segment.from(), segment.to(), segment.edgeCount());
+            int row = 0;
+            int changed = from;
+
+            while (row < segment.rowCount() || changed < next) {
+                long source;
+                if (changed == next || (row < segment.rowCount() && segment.sources[row] < changedSources[changed])) {
+                    source = segment.sources[row++];
+                } else {
+                    source = changedSources[changed++];
+                    if (row < segment.rowCount() && segment.sources[row] == source) {
+                        row++;
+                    }
+                }
+
+                buffer.size = 0;
+                forEachNeighbor(source, buffer);
+                Arrays.sort(buffer.values, 0, buffer.size);
+                for (int i = 0; i < buffer.size; i++) {
+                    builder.accept(source, buffer.values[i]);
+                }
+            }
+
+            segments[s] = builder.build();
+        }
+
+        deltaSlots.clear();
+        deltas.clear();
+        deltaChanges = 0;
+    }
+
+    private void forEachNeighbor(long id, LongConsumer consumer) {
+        var delta = delta(id);
+        var segment = segmentOf(id);
+        var row = segment == null ? -1 : segment.row(id);
+
+        if (row >= 0) {
+            for (int i = segment.offsets[row]; i < segment.offsets[row + 1]; i++) {
+                if (delta == null || !delta.removed.contains(segment.targets[i])) {
+                    consumer.accept(segment.targets[i]);
+                }
+            }
+        }
+
+        if (delta != null) {
+            for (var destination : delta.added.toArray()) {
+                // Ребро из слоя уже могло попасть в сегмент, если загрузка прочитала его после изменения
+                if (row < 0 || !segment.contains(row, destination)) {
+                    consumer.accept(destination);
+                }
+            }
+        }
+    }
+
+    private int degreeHint(long id) {
+        var segment = segmentOf(id);
+        var row = segment == null ? -1 : segment.row(id);
+
+        return row < 0 ? 4 : segment.degree(row) + 4;
+    }
+
+    @Nullable
+    private Delta delta(long source) {
+        var slot = deltaSlots.get(source);
+
+        return slot == LongOffsetIndex.ABSENT ? null : deltas.get((int) slot);
+    }
+
+    @Nullable
+    private Segment segmentOf(long id) {
+        int low = 0;
+        int high = segments.length - 1;
+
+        while (low <= high) {
+            var mid = (low + high) >>> 1;
+            var segment = segments[mid];
+
+            if (id < segment.from()) {
+                high = mid - 1;
+            } else if (id > segment.to()) {
+                low = mid + 1;
+            } else {
+                return segment;
+            }
+        }
+
+        return null;
+    }
+
+    private CompletableFuture<Void> loadNextRange(IssueYdbRepository issueYdbRepository,
+                                                  ConcurrentLinkedQueue<ParallelIssueScanner.KeyRange> ranges,
+                                                  ConcurrentLinkedQueue<Segment> loaded) {
+        var range = ranges.poll();
+
+        if (range == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Связи читаются в порядке (source, destination), поэтому сегмент собирается без сортировки
+        var builder = new Segment.Builder(range.from(), range.to(), 1024);
+
+        return issueYdbRepository.streamLinksRangeAsync(range.from(), range.to(), builder)
+                .thenCompose(ignored -> {
+                    loaded.add(builder.build());
+
+                    return loadNextRange(issueYdbRepository, ranges, loaded);
+                });
+    }
+
+    /**
+     * Добавленные и удалённые после загрузки рёбра одного source
+     */
+    private record Delta(long source, LongHashSet added, LongHashSet removed) {
+    }
+
+    /**
+     * Неизменяемый кусок графа для source из [from, to] в формате CSR: соседи sources[i] лежат
+     * в targets[offsets[i]..offsets[i + 1]) по возрастанию.
+     */
+    private record Segment(long from, long to, long[] sources, int[] offsets, long[] targets) {
+
+        int rowCount() {
+            return sources.length;
+        }
+
+        int edgeCount() {
+            return targets.length;
+        }
+
+        /**
+         * @return номер строки source или отрицательное число, если у source нет связей
+         */
+        int row(long source) {
+            return Arrays.binarySearch(sources, source);
+        }
+
+        int degree(int row) {
+            return offsets[row + 1] - offsets[row];
+        }
+
+        boolean contains(int row, long destination) {
+            return Arrays.binarySearch(targets, offsets[row], offsets[row + 1], destination) >= 0;
+        }
+
+        long memoryBytes() {
+            return (long) sources.length * Long.BYTES + (long) offsets.length * Integer.BYTES
+                    + (long) targets.length * Long.BYTES;
+        }
+
+        /**
+         * Собирает сегмент из рёбер, упорядоченных по (source, destination)
+         */
+        static final class Builder implements LinkConsumer {
+
+            private final long from;
+            private final long to;
+            private final LongBuffer sources;
+            private final LongBuffer targets;
+            private int[] offsets;
+
+            Builder(long from, long to, int expectedEdges) {
+                this.from = from;
+                this.to = to;
+                this.sources = new LongBuffer(Math.max(16, expectedEdges / 2));
+                this.targets = new LongBuffer(Math.max(16, expectedEdges));
+                this.offsets = new int[Math.max(16, expectedEdges / 2)];
+            }
+
+            @Override
+            public void accept(long source, long destination) {
+                if (sources.size == 0 || sources.values[sources.size - 1] != source) {
+                    if (sources.size == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    }
+                    offsets[sources.size] = targets.size;
+                    sources.accept(source);
+                }
+                targets.accept(destination);
+            }
+
+            Segment build() {
+                var rowOffsets = Arrays.copyOf(offsets, sources.size + 1);
+                rowOffsets[sources.size] = targets.size;
+
+                return new Segment(from, to, sources.toArray(), rowOffsets, targets.toArray());
+            }
+        }
+    }
+
+    /**
+     * Растущий массив long
+     */
+    private static final class LongBuffer implements LongConsumer {
+
+        private long[] values;
+        private int size;
+
+        LongBuffer(int expectedSize) {
+            this.values = new long[Math.max(1, expectedSize)];
+        }
+
+        @Override
+        public void accept(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            return size == 0 ? NO_NEIGHBORS : Arrays.copyOf(values, size);
+        }
+    }
+}
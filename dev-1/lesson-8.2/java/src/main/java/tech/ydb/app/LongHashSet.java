@@ -0,0 +1,181 @@
+package tech.ydb.app;
+
+import java.util.Arrays;
+
+/**
+ * Множество long с открытой адресацией и линейным пробированием, без упаковки элементов в Long.
+ * <p>
+ * Значение {@link #FREE} хранится отдельным флагом, а в таблице обозначает пустую ячейку.
+ * Класс не потокобезопасен, синхронизацию выполняет владелец.
+ *
+ * @author Kirill Kurdyukov
+ */
+class LongHashSet {
+
+    private static final long FREE = 0;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private long[] slots;
+    private int mask;
+    private int size;
+    private boolean containsFree;
+
+    LongHashSet(int expectedSize) {
+        var capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) * 2 - 1);
+        this.slots = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    boolean contains(long value) {
+        if (value == FREE) {
+            return containsFree;
+        }
+
+        for (int slot = slot(value); ; slot = (slot + 1) & mask) {
+            if (slots[slot] == FREE) {
+                return false;
+            }
+            if (slots[slot] == value) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true, если значения ещё не было в множестве
+     */
+    boolean add(long value) {
+        if (value == FREE) {
+            var added = !containsFree;
+            containsFree = true;
+            size += added ? 1 : 0;
+
+            return added;
+        }
+
+        if (size + 1 > slots.length * LOAD_FACTOR) {
+            resize();
+        }
+
+        for (int slot = slot(value); ; slot = (slot + 1) & mask) {
+            if (slots[slot] == FREE) {
+                slots[slot] = value;
+                size++;
+
+                return true;
+            }
+            if (slots[slot] == value) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return true, если значение было в множестве
+     */
+    boolean remove(long value) {
+        if (value == FREE) {
+            var removed = containsFree;
+            containsFree = false;
+            size -= removed ? 1 : 0;
+
+            return removed;
+        }
+
+        for (int slot = slot(value); ; slot = (slot + 1) & mask) {
+            if (slots[slot] == FREE) {
+                return false;
+            }
+            if (slots[slot] == value) {
+                shiftBack(slot);
+                size--;
+
+                return true;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    long[] toArray() {
+        var result = new long[size];
+        var index = 0;
+
+        if (containsFree) {
+            result[index++] = FREE;
+        }
+        for (var value : slots) {
+            if (value != FREE) {
+                result[index++] = value;
+            }
+        }
+
+        return result;
+    }
+
+    long memoryBytes() {
+        return (long) slots.length * Long.BYTES;
+    }
+
+    void clear() {
+        Arrays.fill(slots, FREE);
+        size = 0;
+        containsFree = false;
+    }
+
+    // Удаление без надгробий, как в LongOffsetIndex
+    private void shiftBack(int freed) {
+        var slot = freed;
+
+        while (true) {
+            slot = (slot + 1) & mask;
+
+            if (slots[slot] == FREE) {
+                break;
+            }
+
+            var home = slot(slots[slot]);
+            var staysInPlace = freed <= slot
+                    ? freed < home && home <= slot
+                    : freed < home || home <= slot;
+
+            if (!staysInPlace) {
+                slots[freed] = slots[slot];
+                freed = slot;
+            }
+        }
+
+        slots[freed] = FREE;
+    }
+
+    private void resize() {
+        var oldSlots = slots;
+
+        slots = new long[oldSlots.length * 2];
+        mask = slots.length - 1;
+
+        for (var value : oldSlots) {
+            if (value != FREE) {
+                var slot = slot(value);
+                while (slots[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = value;
+            }
+        }
+    }
+
+    private int slot(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+
+        return (int) value & mask;
+    }
+}
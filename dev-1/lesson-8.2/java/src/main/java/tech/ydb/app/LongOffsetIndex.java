@@ -0,0 +1,153 @@
+package tech.ydb.app;
+
+import java.util.Arrays;
+
+/**
+ * Хэш-таблица long -> long с открытой адресацией и линейным пробированием, без упаковки ключей в Long.
+ * <p>
+ * Значения должны быть неотрицательными: внутри хранится value + 1, а 0 обозначает пустую ячейку.
+ * Класс не потокобезопасен, синхронизацию выполняет владелец.
+ *
+ * @author Kirill Kurdyukov
+ */
+class LongOffsetIndex {
+
+    static final long ABSENT = -1;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+
+    LongOffsetIndex(int expectedSize) {
+        var capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) * 2 - 1);
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    long get(long key) {
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            if (values[slot] == 0) {
+                return ABSENT;
+            }
+            if (keys[slot] == key) {
+                return values[slot] - 1;
+            }
+        }
+    }
+
+    /**
+     * @return предыдущее значение или {@link #ABSENT}
+     */
+    long put(long key, long value) {
+        if (size + 1 > keys.length * LOAD_FACTOR) {
+            resize();
+        }
+
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            if (values[slot] == 0) {
+                keys[slot] = key;
+                values[slot] = value + 1;
+                size++;
+
+                return ABSENT;
+            }
+            if (keys[slot] == key) {
+                var previous = values[slot] - 1;
+                values[slot] = value + 1;
+
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * @return удалённое значение или {@link #ABSENT}
+     */
+    long remove(long key) {
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            if (values[slot] == 0) {
+                return ABSENT;
+            }
+            if (keys[slot] == key) {
+                var previous = values[slot] - 1;
+                shiftBack(slot);
+                size--;
+
+                return previous;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    long memoryBytes() {
+        return 2L * keys.length * Long.BYTES;
+    }
+
+    // Удаление без надгробий: следующие записи цепочки сдвигаются на освободившееся место
+    private void shiftBack(int freed) {
+        var slot = freed;
+
+        while (true) {
+            slot = (slot + 1) & mask;
+
+            if (values[slot] == 0) {
+                break;
+            }
+
+            var home = slot(keys[slot]);
+            // Запись остаётся на месте, если её исходная ячейка лежит между освободившейся и текущей
+            var staysInPlace = freed <= slot
+                    ? freed < home && home <= slot
+                    : freed < home || home <= slot;
+
+            if (!staysInPlace) {
+                keys[freed] = keys[slot];
+                values[freed] = values[slot];
+                freed = slot;
+            }
+        }
+
+        values[freed] = 0;
+    }
+
+    private void resize() {
+        var oldKeys = keys;
+        var oldValues = values;
+
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldValues.length * 2];
+        mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != 0) {
+                var slot = slot(oldKeys[i]);
+                while (values[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private int slot(long key) {
+        // Финальное перемешивание MurmurHash3: id тикетов случайны, но ключи могут быть и последовательными
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+
+        return (int) key & mask;
+    }
+}
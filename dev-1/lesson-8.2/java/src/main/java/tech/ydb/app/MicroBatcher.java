@@ -0,0 +1,177 @@
+package tech.ydb.app;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Накопитель одиночных операций в пачки.
+ * <p>
+ * Пачка отправляется обработчику, когда в ней набралось maxBatchSize элементов
+ * или прошло maxDelay с момента добавления первого элемента.
+ * <p>
+ * Если обработчик бросил исключение, пачка передаётся в failureHandler, чтобы вызывающие не ждали
+ * результата бесконечно. После {@link #close()} новые элементы не принимаются.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class MicroBatcher<T> implements AutoCloseable {
+
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final Consumer<List<T>> batchHandler;
+    private final BiConsumer<List<T>, Throwable> failureHandler;
+
+    private final ScheduledExecutorService scheduler;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private List<T> pending = new ArrayList<>();
+    private long pendingSinceNanos;
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+
+    // Метрики: число отправленных пачек, число элементов и задержка, добавленная ожиданием пачки
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder itemCount = new LongAdder();
+    private final LongAdder addedLatencyNanos = new LongAdder();
+    private final LongAccumulator maxBatch = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param failureHandler получает пачку и исключение, которое бросил batchHandler
+     */
+    public MicroBatcher(String name, int maxBatchSize, Duration maxDelay, Consumer<List<T>> batchHandler,
+                        BiConsumer<List<T>, Throwable> failureHandler) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.batchHandler = batchHandler;
+        this.failureHandler = failureHandler;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                runnable -> Thread.ofPlatform().name(name).daemon().unstarted(runnable)
+        );
+    }
+
+    /**
+     * @throws IllegalStateException если накопитель уже закрыт
+     */
+    public void add(T item) {
+        List<T> readyBatch = null;
+        long readySinceNanos = 0;
+
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("MicroBatcher is closed");
+            }
+
+            pending.add(item);
+
+            if (pending.size() == 1) {
+                pendingSinceNanos = System.nanoTime();
+            }
+
+            if (pending.size() >= maxBatchSize) {
+                readySinceNanos = pendingSinceNanos;
+                readyBatch = takePending();
+            } else if (pending.size() == 1) {
+                scheduledFlush = scheduler.schedule(this::flush, maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Обработчик вызывается вне блокировки, чтобы не задерживать других вызывающих
+        if (readyBatch != null) {
+            handle(readyBatch, readySinceNanos);
+        }
+    }
+
+    public void flush() {
+        List<T> batch;
+        long sinceNanos;
+
+        lock.lock();
+        try {
+            sinceNanos = pendingSinceNanos;
+            batch = takePending();
+        } finally {
+            lock.unlock();
+        }
+
+        if (!batch.isEmpty()) {
+            handle(batch, sinceNanos);
+        }
+    }
+
+    public long batchCount() {
+        return batchCount.sum();
+    }
+
+    public long maxBatchSize() {
+        return maxBatch.get();
+    }
+
+    public double averageBatchSize() {
+        var batches = batchCount.sum();
+
+        return batches == 0 ? 0 : (double) itemCount.sum() / batches;
+    }
+
+    /**
+     * Среднее время ожидания первого элемента пачки до её отправки.
+     */
+    public long averageAddedLatencyMicros() {
+        var batches = batchCount.sum();
+
+        return batches == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(addedLatencyNanos.sum() / batches);
+    }
+
+    /**
+     * Отправляет накопленную пачку и останавливает планировщик
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+
+        flush();
+        scheduler.shutdown();
+    }
+
+    private List<T> takePending() {
+        var batch = pending;
+        pending = new ArrayList<>();
+
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+
+        return batch;
+    }
+
+    private void handle(List<T> batch, long sinceNanos) {
+        batchCount.increment();
+        itemCount.add(batch.size());
+        maxBatch.accumulate(batch.size());
+        addedLatencyNanos.add(System.nanoTime() - sinceNanos);
+
+        try {
+            batchHandler.accept(batch);
+        } catch (RuntimeException e) {
+            failureHandler.accept(batch, e);
+        }
+    }
+}
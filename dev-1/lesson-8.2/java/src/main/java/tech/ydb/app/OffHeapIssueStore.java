@@ -0,0 +1,404 @@
+package tech.ydb.app;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+
+/**
+ * Хранилище тикетов вне кучи для большого горячего набора данных.
+ * <p>
+ * Тикет записывается в direct ByteBuffer в компактном двоичном виде:
+ * id, created_at, link_count, коды автора и статуса в словарях и название в UTF-8.
+ * В куче остаются только индекс id -> адрес записи на примитивных массивах и словари авторов и статусов,
+ * поэтому число объектов, которые обходит сборщик мусора, не зависит от числа тикетов.
+ * Объект {@link Issue} создаётся только при чтении.
+ * <p>
+ * Если новая версия тикета занимает столько же байт, что и старая (например, изменился только статус),
+ * она пишется на место старой. Иначе новая версия пишется в конец, а старая становится мусором,
+ * который освобождает {@link #compact()} или {@link #compactIfGarbageAbove}. Сжатие идёт по одному буферу:
+ * живые записи буфера переписываются в конец, а сам буфер освобождается. Блокировка хранилища
+ * отпускается между буферами, поэтому читатели и писатели ждут не дольше копирования одного буфера.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class OffHeapIssueStore {
+
+    // Смещения полей записи: id (8), created_at - секунды (8) и наносекунды (4), link_count (8),
+    // код автора (4), код статуса (4), длина title (4), затем сам title
+    private static final int CREATED_AT_SECONDS = 8;
+    private static final int CREATED_AT_NANOS = 16;
+    private static final int LINK_COUNT = 20;
+    private static final int AUTHOR_CODE = 28;
+    private static final int STATUS_CODE = 32;
+    private static final int TITLE_LENGTH = 36;
+    static final int HEADER_BYTES = 40;
+    private static final int CHUNK_BYTES = 16 << 20;
+    private static final int NO_CODE = -1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongOffsetIndex index;
+    private final CodeDictionary authors = new CodeDictionary();
+    private final CodeDictionary statuses = new CodeDictionary();
+
+    // Номер буфера входит в адрес записи, поэтому освобождённый буфер оставляет null, а номер используется снова
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final ArrayDeque<Integer> freeChunks = new ArrayDeque<>();
+    // Мусор по буферам, чтобы сжимать в первую очередь самые замусоренные
+    private long[] chunkGarbageBytes = new long[16];
+    // Буфер, в конец которого дописываются новые записи
+    private int appendChunk;
+    private long liveBytes;
+    private long garbageBytes;
+
+    public OffHeapIssueStore(int expectedSize) {
+        this.index = new LongOffsetIndex(expectedSize);
+        chunks.add(ByteBuffer.allocateDirect(CHUNK_BYTES));
+    }
+
+    public void put(Issue issue) {
+        var title = issue.title().getBytes(StandardCharsets.UTF_8);
+        var recordBytes = HEADER_BYTES + title.length;
+
+        if (recordBytes > CHUNK_BYTES) {
+            throw new IllegalArgumentException("Issue " + issue.id() + " is too large: " + recordBytes + " bytes");
+        }
+
+        lock.writeLock().lock();
+        try {
+            var previous = index.get(issue.id());
+            if (previous != LongOffsetIndex.ABSENT && recordBytes(previous) == recordBytes) {
+                write(chunks.get(chunkIndex(previous)), chunkOffset(previous), issue, title);
+
+                return;
+            }
+
+            index.put(issue.id(), append(issue, title));
+
+            liveBytes += recordBytes;
+            if (previous != LongOffsetIndex.ABSENT) {
+                markGarbage(previous);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return тикет или null, если его нет в хранилище
+     */
+    @Nullable
+    public Issue get(long id) {
+        lock.readLock().lock();
+        try {
+            var address = index.get(id);
+
+            return address == LongOffsetIndex.ABSENT ? null : read(id, address);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(long id) {
+        lock.readLock().lock();
+        try {
+            return index.get(id) != LongOffsetIndex.ABSENT;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            var previous = index.remove(id);
+
+            if (previous != LongOffsetIndex.ABSENT) {
+                markGarbage(previous);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Применяет изменение из changefeed: хранящиеся тикеты обновляются, удалённые убираются.
+     * Вызывается из потока {@link IssueChangefeedWorker}.
+     */
+    public void apply(IssueChange change) {
+        if (change.isErase()) {
+            remove(change.id());
+        } else if (contains(change.id())) {
+            put(change.newImage());
+        }
+    }
+
+    /**
+     * Сжимает все буферы с мусором, по одному буферу под блокировкой
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            // Мусор в буфере, куда идёт запись, освобождается, только когда запись переходит в новый буфер
+            if (chunkGarbageBytes[appendChunk] > 0) {
+                allocateAppendChunk();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        while (compactChunkWithMostGarbage(0)) {
+            // Каждый шаг сжимает один буфер
+        }
+    }
+
+    /**
+     * Сжимает буферы, пока мусор занимает больше ratio от всех записей и не меньше одного буфера.
+     * Проверка дешёвая, а сжатие идёт по одному буферу, поэтому метод можно вызывать по расписанию
+     * в фоне, не останавливая надолго чтение и запись.
+     *
+     * @return true, если сжат хотя бы один буфер
+     */
+    public boolean compactIfGarbageAbove(double ratio) {
+        var compacted = false;
+
+        while (compactChunkWithMostGarbage(ratio)) {
+            compacted = true;
+        }
+
+        return compacted;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return размер выделенных буферов вне кучи
+     */
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) (chunks.size() - freeChunks.size()) * CHUNK_BYTES;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return размер индекса в куче
+     */
+    public long heapIndexBytes() {
+        lock.readLock().lock();
+        try {
+            return index.memoryBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long liveBytes() {
+        lock.readLock().lock();
+        try {
+            return liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long garbageBytes() {
+        lock.readLock().lock();
+        try {
+            return garbageBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Переписывает живые записи буфера с наибольшим мусором в конец и освобождает буфер.
+     * Буфер, в который идёт запись, не сжимается.
+     *
+     * @param ratio доля мусора от всех записей, при которой сжатие нужно; 0 - сжимать любой буфер с мусором
+     * @return false, если сжимать нечего
+     */
+    private boolean compactChunkWithMostGarbage(double ratio) {
+        lock.writeLock().lock();
+        try {
+            if (ratio > 0 && (garbageBytes < CHUNK_BYTES || garbageBytes <= ratio * (liveBytes + garbageBytes))) {
+                return false;
+            }
+
+            var chunkIndex = -1;
+            for (int i = 0; i < chunks.size(); i++) {
+                if (i != appendChunk && chunks.get(i) != null && chunkGarbageBytes[i] > 0
+                        && (chunkIndex == -1 || chunkGarbageBytes[i] > chunkGarbageBytes[chunkIndex])) {
+                    chunkIndex = i;
+                }
+            }
+
+            if (chunkIndex == -1) {
+                return false;
+            }
+
+            var chunk = chunks.get(chunkIndex);
+            var recordBytes = 0;
+            for (int offset = 0; offset < chunk.position(); offset += recordBytes) {
+                var id = chunk.getLong(offset);
+                recordBytes = HEADER_BYTES + chunk.getInt(offset + TITLE_LENGTH);
+
+                // Запись жива, если индекс указывает на неё, а не на более новую версию
+                if (index.get(id) == address(chunkIndex, offset)) {
+                    var target = reserve(recordBytes);
+                    var targetOffset = target.position();
+
+                    target.put(targetOffset, chunk, offset, recordBytes);
+                    target.position(targetOffset + recordBytes);
+                    index.put(id, address(appendChunk, targetOffset));
+                }
+            }
+
+            garbageBytes -= chunkGarbageBytes[chunkIndex];
+            chunkGarbageBytes[chunkIndex] = 0;
+            chunks.set(chunkIndex, null);
+            freeChunks.add(chunkIndex);
+
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void markGarbage(long address) {
+        var bytes = recordBytes(address);
+
+        liveBytes -= bytes;
+        garbageBytes += bytes;
+        chunkGarbageBytes[chunkIndex(address)] += bytes;
+    }
+
+    private long append(Issue issue, byte[] title) {
+        var chunk = reserve(HEADER_BYTES + title.length);
+        var offset = chunk.position();
+
+        write(chunk, offset, issue, title);
+        chunk.position(offset + HEADER_BYTES + title.length);
+
+        return address(appendChunk, offset);
+    }
+
+    private void write(ByteBuffer chunk, int offset, Issue issue, byte[] title) {
+        chunk.putLong(offset, issue.id())
+                .putLong(offset + CREATED_AT_SECONDS, issue.now().getEpochSecond())
+                .putInt(offset + CREATED_AT_NANOS, issue.now().getNano())
+                .putLong(offset + LINK_COUNT, issue.linkCounts())
+                .putInt(offset + AUTHOR_CODE, authors.encode(issue.author()))
+                .putInt(offset + STATUS_CODE, statuses.encode(issue.status()))
+                .putInt(offset + TITLE_LENGTH, title.length)
+                .put(offset + HEADER_BYTES, title);
+    }
+
+    // Возвращает буфер для записи, в котором после текущей позиции есть recordBytes свободных байт
+    private ByteBuffer reserve(int recordBytes) {
+        var chunk = chunks.get(appendChunk);
+
+        if (chunk.remaining() < recordBytes) {
+            chunk = allocateAppendChunk();
+        }
+
+        return chunk;
+    }
+
+    private ByteBuffer allocateAppendChunk() {
+        var chunk = ByteBuffer.allocateDirect(CHUNK_BYTES);
+        var freeChunk = freeChunks.poll();
+
+        if (freeChunk != null) {
+            chunks.set(freeChunk, chunk);
+            appendChunk = freeChunk;
+        } else {
+            chunks.add(chunk);
+            appendChunk = chunks.size() - 1;
+
+            if (appendChunk == chunkGarbageBytes.length) {
+                chunkGarbageBytes = Arrays.copyOf(chunkGarbageBytes, 2 * chunkGarbageBytes.length);
+            }
+        }
+
+        return chunk;
+    }
+
+    private Issue read(long id, long address) {
+        var chunk = chunks.get(chunkIndex(address));
+        var offset = chunkOffset(address);
+
+        var title = new byte[chunk.getInt(offset + TITLE_LENGTH)];
+        chunk.get(offset + HEADER_BYTES, title);
+
+        return new Issue(
+                id,
+                new String(title, StandardCharsets.UTF_8),
+                Instant.ofEpochSecond(chunk.getLong(offset + CREATED_AT_SECONDS), chunk.getInt(offset + CREATED_AT_NANOS)),
+                authors.decode(chunk.getInt(offset + AUTHOR_CODE)),
+                chunk.getLong(offset + LINK_COUNT),
+                statuses.decode(chunk.getInt(offset + STATUS_CODE))
+        );
+    }
+
+    private int recordBytes(long address) {
+        return HEADER_BYTES + chunks.get(chunkIndex(address)).getInt(chunkOffset(address) + TITLE_LENGTH);
+    }
+
+    // Адрес записи: номер буфера в старших 32 битах и смещение в буфере в младших
+    private static long address(int chunkIndex, int offset) {
+        return (long) chunkIndex << 32 | offset;
+    }
+
+    private static int chunkIndex(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int chunkOffset(long address) {
+        return (int) address;
+    }
+
+    /**
+     * Словарь строка <-> код. Значений немного (авторы, статусы), поэтому словарь не ограничен по размеру
+     * и вызывается только под блокировкой хранилища.
+     */
+    private static final class CodeDictionary {
+
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int encode(@Nullable String value) {
+            if (value == null) {
+                return NO_CODE;
+            }
+
+            return codes.computeIfAbsent(value, ignored -> {
+                values.add(value);
+
+                return values.size() - 1;
+            });
+        }
+
+        @Nullable
+        String decode(int code) {
+            return code == NO_CODE ? null : values.get(code);
+        }
+    }
+}
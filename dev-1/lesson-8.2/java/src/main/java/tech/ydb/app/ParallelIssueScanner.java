@@ -0,0 +1,104 @@
+package tech.ydb.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Параллельное чтение всей таблицы issues.
+ * <p>
+ * Идентификаторы тикетов генерируются через ThreadLocalRandom.nextLong() и равномерно распределены
+ * по всему диапазону Int64, поэтому его можно разбить на rangeCount непересекающихся диапазонов
+ * примерно одинакового размера. Одновременно читается не больше parallelism диапазонов,
+ * каждый - своими запросами и, соответственно, в своей сессии.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class ParallelIssueScanner {
+
+    private final IssueYdbRepository issueYdbRepository;
+    private final int rangeCount;
+    private final int parallelism;
+    private final int pageSize;
+
+    public ParallelIssueScanner(IssueYdbRepository issueYdbRepository, int rangeCount, int parallelism, int pageSize) {
+        this.issueYdbRepository = issueYdbRepository;
+        this.rangeCount = rangeCount;
+        this.parallelism = parallelism;
+        this.pageSize = pageSize;
+    }
+
+    public long scan(Consumer<Issue> consumer) {
+        return scanAsync(consumer).join();
+    }
+
+    /**
+     * Читает все тикеты и передаёт их в consumer. Consumer вызывается одновременно
+     * из разных потоков, поэтому должен быть потокобезопасным.
+     *
+     * @return future с числом прочитанных тикетов
+     */
+    public CompletableFuture<Long> scanAsync(Consumer<Issue> consumer) {
+        var ranges = new ConcurrentLinkedQueue<>(splitKeySpace(rangeCount));
+        var rowCount = new LongAdder();
+
+        var workers = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < Math.min(parallelism, rangeCount); i++) {
+            workers.add(scanNextRange(ranges, consumer, rowCount));
+        }
+
+        return CompletableFuture.allOf(workers.toArray(CompletableFuture[]::new)).thenApply(ignored -> rowCount.sum());
+    }
+
+    /**
+     * Делит диапазон [Long.MIN_VALUE, Long.MAX_VALUE] на count диапазонов с включёнными границами.
+     */
+    static List<KeyRange> splitKeySpace(int count) {
+        // Шаг считается как беззнаковое деление (2^64 - 1) / count, переполнение при сложении ожидаемо
+        var step = Long.divideUnsigned(-1L, count);
+        var ranges = new ArrayList<KeyRange>(count);
+
+        for (int i = 0; i < count; i++) {
+            var from = Long.MIN_VALUE + i * step;
+            var to = i == count - 1 ? Long.MAX_VALUE : Long.MIN_VALUE + (i + 1) * step - 1;
+
+            ranges.add(new KeyRange(from, to));
+        }
+
+        return ranges;
+    }
+
+    // Каждый воркер берёт следующий диапазон из очереди, пока она не опустеет
+    private CompletableFuture<Void> scanNextRange(ConcurrentLinkedQueue<KeyRange> ranges, Consumer<Issue> consumer,
+                                                  LongAdder rowCount) {
+        var range = ranges.poll();
+
+        if (range == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return scanRange(range.from(), range.to(), consumer, rowCount)
+                .thenCompose(ignored -> scanNextRange(ranges, consumer, rowCount));
+    }
+
+    private CompletableFuture<Void> scanRange(long from, long to, Consumer<Issue> consumer, LongAdder rowCount) {
+        return issueYdbRepository.findRangePageAsync(from, to, pageSize).thenCompose(page -> {
+            page.forEach(consumer);
+            rowCount.add(page.size());
+
+            var lastId = page.isEmpty() ? to : page.get(page.size() - 1).id();
+
+            if (page.size() < pageSize || lastId == to) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            return scanRange(lastId + 1, to, consumer, rowCount);
+        });
+    }
+
+    record KeyRange(long from, long to) {
+    }
+}
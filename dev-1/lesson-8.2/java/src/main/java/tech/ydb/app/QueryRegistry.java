@@ -0,0 +1,59 @@
+package tech.ydb.app;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Реестр именованных запросов.
+ * <p>
+ * Сервер кэширует скомпилированный план по тексту запроса, поэтому текст должен быть
+ * одним и тем же при каждом вызове, а меняться должны только параметры. Реестр проверяет это:
+ * запрос регистрируется один раз под своим именем, повторная регистрация с другим текстом
+ * и подстановка литералов в условия запроса приводят к ошибке.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class QueryRegistry {
+
+    // Сравнение с литералом вместо параметра: id = 42, status = 'new', id IN (1, 2)
+    private static final Pattern LITERAL_COMPARISON = Pattern.compile(
+            "(=|<>|!=|<|>|\\bIN\\s*\\()\\s*(-?\\d+|'[^']*'|\"[^\"]*\")",
+            Pattern.CASE_INSENSITIVE
+    );
+    private static final Pattern LINE_COMMENT = Pattern.compile("--[^\\n]*");
+
+    private final ConcurrentHashMap<String, RegisteredQuery> queries = new ConcurrentHashMap<>();
+
+    /**
+     * Возвращает запрос с указанным именем, регистрируя его при первом обращении.
+     */
+    public RegisteredQuery register(String name, String yql) {
+        var query = queries.get(name);
+
+        if (query == null) {
+            validate(name, yql);
+            query = queries.computeIfAbsent(name, key -> new RegisteredQuery(name, yql));
+        }
+
+        if (!query.yql().equals(yql)) {
+            throw new IllegalStateException("Query '" + name + "' is already registered with different text, " +
+                    "pass changing values as parameters");
+        }
+
+        return query;
+    }
+
+    public Collection<RegisteredQuery> queries() {
+        return queries.values();
+    }
+
+    private static void validate(String name, String yql) {
+        var matcher = LITERAL_COMPARISON.matcher(LINE_COMMENT.matcher(yql).replaceAll(""));
+
+        if (matcher.find()) {
+            throw new IllegalArgumentException("Query '" + name + "' contains literal '" + matcher.group(2) +
+                    "', declare it as a parameter instead");
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package tech.ydb.app;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import tech.ydb.table.query.Params;
+import tech.ydb.table.values.Value;
+
+/**
+ * Кэш результатов читающих запросов в режиме SNAPSHOT_RO, ключ - имя запроса и значения параметров.
+ * <p>
+ * Размер кэша ограничен суммарным размером результатов в байтах (оценку даёт вызывающий).
+ * Вместо TTL используется версия каждой таблицы: уведомление об изменении таблицы, например из changefeed,
+ * увеличивает её версию, и все результаты, прочитанные из таблицы раньше, перестают выдаваться.
+ * Устаревшие записи не удаляются сразу, а вытесняются по мере заполнения кэша.
+ * <p>
+ * Закэшированный результат выдаётся всем вызывающим, поэтому он должен быть неизменяемым.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class QueryResultCache {
+
+    private final Cache<Key, Entry> cache;
+    private final Map<String, LongAdder> tableVersions = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public QueryResultCache(long maximumBytes) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maximumBytes)
+                .<Key, Entry>weigher((key, entry) -> (int) Math.min(Integer.MAX_VALUE, entry.bytes()))
+                .build();
+    }
+
+    /**
+     * @param tables        таблицы, из которых читает запрос
+     * @param loader        выполняет запрос при промахе
+     * @param sizeEstimator оценка размера результата в байтах
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> get(String queryName, Params params, Set<String> tables,
+                                        Supplier<CompletableFuture<T>> loader, ToLongFunction<T> sizeEstimator) {
+        var key = new Key(queryName, params.values());
+        // Версия берётся до чтения: если таблица изменится во время запроса, результат сразу будет устаревшим
+        var version = version(tables);
+        var entry = cache.getIfPresent(key);
+
+        if (entry != null && entry.version() == version) {
+            hits.increment();
+
+            return CompletableFuture.completedFuture((T) entry.value());
+        }
+
+        misses.increment();
+
+        return loader.get().thenApply(value -> {
+            cache.put(key, new Entry(value, version, sizeEstimator.applyAsLong(value)));
+
+            return value;
+        });
+    }
+
+    public void invalidateTable(String table) {
+        tableVersions.computeIfAbsent(table, ignored -> new LongAdder()).increment();
+        invalidations.increment();
+    }
+
+    /**
+     * Применяет изменение из changefeed issues/updates. Вызывается из потока {@link IssueChangefeedWorker}.
+     */
+    public void apply(IssueChange change) {
+        invalidateTable("issues");
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long invalidationCount() {
+        return invalidations.sum();
+    }
+
+    /**
+     * @return оценка суммарного размера закэшированных результатов, включая устаревшие
+     */
+    public long bytes() {
+        return cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0))
+                .orElse(0L);
+    }
+
+    // Версии таблиц только растут, поэтому изменение любой из них меняет сумму
+    private long version(Set<String> tables) {
+        long version = 0;
+        for (var table : tables) {
+            var tableVersion = tableVersions.get(table);
+            version += tableVersion == null ? 0 : tableVersion.sum();
+        }
+
+        return version;
+    }
+
+    private record Key(String queryName, Map<String, Value<?>> params) {
+    }
+
+    private record Entry(Object value, long version, long bytes) {
+    }
+}
@@ -2,6 +2,7 @@ package tech.ydb.app;
 
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,8 +18,14 @@ public class ReaderChangefeedWorker {
     private static final Logger LOGGER = LoggerFactory.getLogger(Application.class);
 
     private final SyncReader reader;
+    private final Executor executor;
 
-    public ReaderChangefeedWorker(TopicClient topicClient) {
+    /**
+     * @param executor пул, в котором работает цикл чтения. Цикл блокируется в reader.receive,
+     *                 поэтому для него лучше подходит виртуальный поток, чем общий ForkJoinPool.
+     */
+    public ReaderChangefeedWorker(TopicClient topicClient, Executor executor) {
+        this.executor = executor;
         // Создаем reader для чтения изменений из топика changefeed
         // С точки зрения читателя это обычный топик.
         this.reader = topicClient.createSyncReader(
@@ -57,7 +64,8 @@ public class ReaderChangefeedWorker {
                     }
 
                     LOGGER.info("Stopped read worker!");
-                }
+                },
+                executor
         ).join();
 
         reader.shutdown();
@@ -0,0 +1,56 @@
+package tech.ydb.app;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import tech.ydb.query.result.QueryInfo;
+
+/**
+ * Именованный параметризованный запрос из QueryRegistry вместе со счётчиками
+ * попаданий в кэш скомпилированных запросов на сервере.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class RegisteredQuery {
+
+    private final String name;
+    private final String yql;
+
+    private final LongAdder compileCacheHits = new LongAdder();
+    private final LongAdder compileCacheMisses = new LongAdder();
+
+    public RegisteredQuery(String name, String yql) {
+        this.name = name;
+        this.yql = yql;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String yql() {
+        return yql;
+    }
+
+    public long compileCacheHits() {
+        return compileCacheHits.sum();
+    }
+
+    public long compileCacheMisses() {
+        return compileCacheMisses.sum();
+    }
+
+    /**
+     * Учитывает статистику компиляции, которую сервер вернул вместе с результатом запроса.
+     */
+    public void recordCompilation(QueryInfo queryInfo) {
+        if (queryInfo == null || !queryInfo.hasStats() || queryInfo.getStats().getCompilationStats() == null) {
+            return;
+        }
+
+        if (queryInfo.getStats().getCompilationStats().isFromCache()) {
+            compileCacheHits.increment();
+        } else {
+            compileCacheMisses.increment();
+        }
+    }
+}
@@ -43,12 +43,46 @@ public class SchemaYdbRepository {
                             FORMAT = 'JSON',
                             MODE = 'NEW_AND_OLD_IMAGES',
                             VIRTUAL_TIMESTAMPS = TRUE,
+                            RESOLVED_TIMESTAMPS = Interval('PT1S'),
                             INITIAL_SCAN = TRUE
                         );
                         """
         );
 
+        // В links только ключевые колонки, поэтому достаточно нового образа строки
+        queryServiceHelper.executeQuery("""
+                ALTER TABLE links ADD CHANGEFEED updates WITH (
+                    FORMAT = 'JSON',
+                    MODE = 'NEW_IMAGE',
+                    VIRTUAL_TIMESTAMPS = TRUE,
+                    RESOLVED_TIMESTAMPS = Interval('PT1S'),
+                    INITIAL_SCAN = TRUE
+                );
+                """
+        );
+
+        // Прогресс импорта файлов, см. CsvImporter
+        queryServiceHelper.executeQuery("""
+                CREATE TABLE import_file_progress (
+                    name Text NOT NULL,
+                    byte_offset Int64 NOT NULL,
+                    record_num Int64 NOT NULL,
+                    PRIMARY KEY (name)
+                );
+                """
+        );
+
         queryServiceHelper.executeQuery("ALTER TOPIC `issues/updates` ADD CONSUMER test;");
+        // Читатель changefeed для кэшей приложения, см. IssueChangefeedWorker
+        queryServiceHelper.executeQuery("ALTER TOPIC `issues/updates` ADD CONSUMER issue_cache;");
+        // Читатели для локальной копии таблиц, см. IssueLinkReplica
+        queryServiceHelper.executeQuery("""
+                ALTER TOPIC `issues/updates` ADD CONSUMER replica;
+                ALTER TOPIC `links/updates` ADD CONSUMER replica;
+                """
+        );
+        // Читатель для графа связей, см. LinkGraphIndex
+        queryServiceHelper.executeQuery("ALTER TOPIC `links/updates` ADD CONSUMER link_graph;");
     }
 
     public void createAuthorIndex() {
@@ -59,6 +93,7 @@ public class SchemaYdbRepository {
         queryServiceHelper.executeQuery("""
                 DROP TABLE IF EXISTS issues;
                 DROP TABLE IF EXISTS links;
+                DROP TABLE IF EXISTS import_file_progress;
                 """
         );
     }
@@ -0,0 +1,45 @@
+package tech.ydb.app;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Словарь для повторяющихся строковых значений (авторы, статусы).
+ * <p>
+ * Все тикеты одного автора ссылаются на один экземпляр строки, а не хранят по копии,
+ * поэтому прочитанные тикеты занимают меньше памяти. Размер словаря ограничен: при переполнении
+ * новые значения просто не запоминаются.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class StringDictionary {
+
+    private final int maxSize;
+    private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<>();
+
+    public StringDictionary(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        var existing = values.get(value);
+        if (existing != null) {
+            return existing;
+        }
+
+        if (values.size() >= maxSize) {
+            return value;
+        }
+
+        existing = values.putIfAbsent(value, value);
+
+        return existing != null ? existing : value;
+    }
+
+    public int size() {
+        return values.size();
+    }
+}
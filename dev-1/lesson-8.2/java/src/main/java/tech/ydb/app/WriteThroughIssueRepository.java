@@ -0,0 +1,106 @@
+package tech.ydb.app;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.Nullable;
+
+/**
+ * Репозиторий тикетов с кэшем, в котором запись сразу видна этому же клиенту.
+ * <p>
+ * Чтения идут через {@link IssueCache}. После коммита записи затронутые строки кладутся в кэш
+ * (или убираются из него) вместе с временем начала записи и остаются там, пока changefeed не передаст изменение
+ * с виртуальной меткой времени не раньше него. Изменения строки, пришедшие до этого, старше записи и её
+ * не затирают, поэтому кэш не нужно ждать, пока запись вернётся по changefeed. Как часы клиента
+ * влияют на эту границу, см. {@link IssueCache#writeThrough}.
+ *
+ * @author Kirill Kurdyukov
+ */
+public class WriteThroughIssueRepository {
+
+    private final IssueYdbRepository issueYdbRepository;
+    private final IssueCache issueCache;
+
+    public WriteThroughIssueRepository(IssueYdbRepository issueYdbRepository, IssueCache issueCache) {
+        this.issueYdbRepository = issueYdbRepository;
+        this.issueCache = issueCache;
+    }
+
+    @Nullable
+    public Issue findById(long id) {
+        return findByIdAsync(id).join();
+    }
+
+    public CompletableFuture<Issue> findByIdAsync(long id) {
+        return issueCache.findByIdAsync(id);
+    }
+
+    public CompletableFuture<List<Issue>> findByIdsAsync(long[] ids) {
+        return issueCache.findByIdsAsync(ids);
+    }
+
+    public CompletableFuture<Issue> addIssueAsync(String title, String author) {
+        var writeStep = System.currentTimeMillis();
+
+        return issueYdbRepository.addIssueAsync(title, author).thenApply(issue -> {
+            issueCache.writeThrough(issue, writeStep);
+
+            return issue;
+        });
+    }
+
+    /**
+     * @return тикет после обновления или null, если тикета нет
+     */
+    public CompletableFuture<Issue> updateStatusAsync(long id, String status) {
+        var writeStep = System.currentTimeMillis();
+
+        return issueYdbRepository.updateStatusAsync(id, status).thenApply(issue -> {
+            if (issue == null) {
+                issueCache.invalidate(id);
+            } else {
+                issueCache.writeThrough(issue, writeStep);
+            }
+
+            return issue;
+        });
+    }
+
+    public CompletableFuture<List<IssueLinkCount>> linkTicketsNoInteractiveAsync(long idT1, long idT2) {
+        var writeStep = System.currentTimeMillis();
+
+        return issueYdbRepository.linkTicketsNoInteractiveAsync(idT1, idT2)
+                .thenApply(linkCounts -> updateLinkCounts(linkCounts, writeStep));
+    }
+
+    public CompletableFuture<List<IssueLinkCount>> linkTicketsInteractiveAsync(long idT1, long idT2) {
+        var writeStep = System.currentTimeMillis();
+
+        return issueYdbRepository.linkTicketsInteractiveAsync(idT1, idT2)
+                .thenApply(linkCounts -> updateLinkCounts(linkCounts, writeStep));
+    }
+
+    /**
+     * Удалённые тикеты и связанные с ними тикеты, у которых изменился link_count, убираются из кэша.
+     * Повторное чтение пойдёт в базу и увидит результат удаления.
+     */
+    public CompletableFuture<Void> deleteTasksAsync(long[] ids) {
+        return issueYdbRepository.deleteTasksAsync(ids).thenAccept(linkedIds -> {
+            for (var id : ids) {
+                issueCache.invalidate(id);
+            }
+            for (var id : linkedIds) {
+                issueCache.invalidate(id);
+            }
+        });
+    }
+
+    private List<IssueLinkCount> updateLinkCounts(List<IssueLinkCount> linkCounts, long writeStep) {
+        for (var linkCount : linkCounts) {
+            issueCache.writeThroughIfPresent(linkCount.id(), issue -> new Issue(issue.id(), issue.title(),
+                    issue.now(), issue.author(), linkCount.linkCount(), issue.status()), writeStep);
+        }
+
+        return linkCounts;
+    }
+}
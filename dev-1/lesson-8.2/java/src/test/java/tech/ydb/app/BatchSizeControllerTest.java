@@ -0,0 +1,129 @@
+package tech.ydb.app;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.Test;
+import tech.ydb.core.Issue;
+import tech.ydb.core.Status;
+import tech.ydb.core.StatusCode;
+import tech.ydb.core.UnexpectedResultException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Kirill Kurdyukov
+ */
+class BatchSizeControllerTest {
+
+    // Код условный: контроллер сравнивает коды issues с переданными ему, не зная их значений
+    private static final int SIZE_LIMIT_ISSUE = 2029;
+
+    // Целевая задержка большая, чтобы медленная машина не уменьшала пачки сама
+    private final BatchSizeController controller = new BatchSizeController(10, 100, 1_000, 50,
+            Duration.ofMinutes(1), Set.of(SIZE_LIMIT_ISSUE));
+
+    @Test
+    void fastBatchesGrowUpToMax() {
+        var calls = new ArrayList<Integer>();
+
+        var results = controller.execute("op", 10_000, (from, to) -> {
+            calls.add(to - from);
+
+            return CompletableFuture.completedFuture(to - from);
+        }).join();
+
+        assertEquals(10_000, results.stream().mapToInt(Integer::intValue).sum());
+        assertEquals(100, (int) calls.get(0));
+        assertEquals(150, (int) calls.get(1));
+        assertTrue(controller.operation("op").batchSize() <= 1_000);
+    }
+
+    @Test
+    void overloadedBatchIsRetriedInSmallerBatches() {
+        var calls = new ArrayList<Integer>();
+
+        var results = controller.execute("op", 100, (from, to) -> {
+            calls.add(to - from);
+
+            return to - from > 40
+                    ? failed(Status.of(StatusCode.OVERLOADED))
+                    : CompletableFuture.completedFuture(to - from);
+        }).join();
+
+        // После успешных пачек размер снова растёт и может ещё раз упереться в перегрузку
+        assertEquals(List.of(100, 50, 25), calls.subList(0, 3));
+        assertEquals(100, results.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(results.stream().allMatch(size -> size <= 40));
+    }
+
+    // Пачка могла выполниться, поэтому повторять её нельзя, но следующие пачки уменьшаются
+    @Test
+    void timedOutBatchIsNotRetried() {
+        var calls = new ArrayList<Integer>();
+        var timeout = Status.of(StatusCode.TIMEOUT);
+
+        var error = assertThrows(CompletionException.class, () -> controller.execute("op", 100, (from, to) -> {
+            calls.add(to - from);
+
+            return failed(timeout);
+        }).join());
+
+        assertSame(timeout, ((UnexpectedResultException) error.getCause()).getStatus());
+        assertEquals(List.of(100), calls);
+        assertEquals(50, controller.operation("op").batchSize());
+    }
+
+    @Test
+    void sizeLimitIsRecognisedByIssueCode() {
+        var sizeLimit = Status.of(StatusCode.BAD_REQUEST,
+                Issue.of(SIZE_LIMIT_ISSUE, "Transaction size limit exceeded", Issue.Severity.ERROR));
+        var otherBadRequest = Status.of(StatusCode.BAD_REQUEST,
+                Issue.of(1, "Column size is not found", Issue.Severity.ERROR));
+
+        assertTrue(controller.isBatchSizeSignal(sizeLimit));
+        assertTrue(controller.isNotApplied(sizeLimit));
+        assertFalse(controller.isBatchSizeSignal(otherBadRequest));
+        assertFalse(controller.isNotApplied(otherBadRequest));
+    }
+
+    @Test
+    void otherErrorsAreReturnedAsIs() {
+        var calls = new ArrayList<Integer>();
+
+        assertThrows(CompletionException.class, () -> controller.execute("op", 100, (from, to) -> {
+            calls.add(to - from);
+
+            return failed(Status.of(StatusCode.SCHEME_ERROR));
+        }).join());
+
+        assertEquals(List.of(100), calls);
+        assertEquals(100, controller.operation("op").batchSize());
+    }
+
+    @Test
+    void batchSizeStopsAtMin() {
+        var calls = new ArrayList<Integer>();
+
+        assertThrows(CompletionException.class, () -> controller.execute("op", 100, (from, to) -> {
+            calls.add(to - from);
+
+            return failed(Status.of(StatusCode.OVERLOADED));
+        }).join());
+
+        // 100 -> 50 -> 25 -> 12 -> 10, пачку минимального размера уменьшить уже нельзя
+        assertEquals(List.of(100, 50, 25, 12, 10), calls);
+    }
+
+    private static <T> CompletableFuture<T> failed(Status status) {
+        return CompletableFuture.failedFuture(new UnexpectedResultException("Batch failed", status));
+    }
+}
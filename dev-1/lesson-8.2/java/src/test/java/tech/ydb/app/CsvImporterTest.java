@@ -0,0 +1,155 @@
+package tech.ydb.app;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.opencsv.exceptions.CsvException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tech.ydb.app.ImportProgressYdbRepository.ImportProgress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверяет деление файла на блоки и их разбор; запись блоков требует базы и здесь не проверяется.
+ *
+ * @author Kirill Kurdyukov
+ */
+class CsvImporterTest {
+
+    private static final int RECORDS = 1_000;
+    private static final int BLOCK_BYTES = 1_024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void blocksCoverFileAndEndOnRecordBoundaries() throws IOException {
+        var csv = new StringBuilder("title,author\n");
+        var recordEnds = writeRecords(csv);
+        var file = write(csv.toString());
+
+        var blocks = split(file, new ImportProgress(0, 0));
+
+        assertTrue(blocks.size() > 1);
+        assertBlocksAreContiguous(blocks, 0, 0, Files.size(file));
+        for (var block : blocks) {
+            var end = block.offset() + block.length();
+            assertTrue(recordEnds.contains(end), "block ends inside a record at " + end);
+            assertTrue(block.length() >= BLOCK_BYTES || end == Files.size(file));
+        }
+        // Заголовок тоже запись, его пропускает разбор блока
+        assertEquals(RECORDS + 1, blocks.stream().mapToLong(CsvImporter.Block::recordCount).sum());
+    }
+
+    @Test
+    void lastRecordWithoutNewlineIsCounted() throws IOException {
+        var file = write("title,author\n\"a\nb\",c\nd,e");
+
+        var blocks = split(file, new ImportProgress(0, 0));
+
+        assertEquals(1, blocks.size());
+        assertEquals(3, blocks.get(0).recordCount());
+        assertEquals(Files.size(file), blocks.get(0).length());
+    }
+
+    @Test
+    void splitResumesFromSavedProgress() throws IOException {
+        var csv = new StringBuilder("title,author\n");
+        writeRecords(csv);
+        var file = write(csv.toString());
+        var blocks = split(file, new ImportProgress(0, 0));
+
+        var third = blocks.get(2);
+        var resumed = split(file, new ImportProgress(third.offset(), third.firstRecord()));
+
+        assertBlocksAreContiguous(resumed, third.offset(), third.firstRecord(), Files.size(file));
+        assertEquals(third.offset(), resumed.get(0).offset());
+        assertEquals(third.length(), resumed.get(0).length());
+        assertEquals(RECORDS + 1 - third.firstRecord(),
+                resumed.stream().mapToLong(CsvImporter.Block::recordCount).sum());
+    }
+
+    // Обратная косая черта перед кавычкой - обычный символ: RFC 4180 экранирует кавычку только удвоением
+    @Test
+    void backslashDoesNotEscapeQuote() throws IOException, CsvException {
+        var file = write("title,author\n\"C:\\temp\\\",\"a\nb\"\n\"say \\\"\"hi\\\"\"\",c\n");
+        var importer = newImporter();
+
+        var blocks = split(file, new ImportProgress(0, 0));
+        assertEquals(1, blocks.size());
+        assertEquals(3, blocks.get(0).recordCount());
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var rows = importer.parse(channel, blocks.get(0)).rows();
+
+            assertEquals(List.of(new TitleAuthor("C:\\temp\\", "a\nb"), new TitleAuthor("say \\\"hi\\\"", "c")),
+                    rows.stream().map(CsvRecord::titleAuthor).toList());
+            assertEquals(List.of(1L, 2L), rows.stream().map(CsvRecord::recordNumber).toList());
+        }
+    }
+
+    // Записи с переводами строк и экранированными кавычками внутри значений
+    private static Set<Long> writeRecords(StringBuilder csv) {
+        var recordEnds = new HashSet<Long>();
+
+        for (int i = 0; i < RECORDS; i++) {
+            switch (i % 3) {
+                case 0 -> csv.append("title ").append(i).append(",author\n");
+                case 1 -> csv.append("\"multi\nline ").append(i).append("\",author\n");
+                default -> csv.append("\"quoted \"\"\n\"\" ").append(i).append("\",\"a\nb\"\n");
+            }
+            // Файл в ASCII, поэтому длина в символах совпадает с длиной в байтах
+            recordEnds.add((long) csv.length());
+        }
+
+        return recordEnds;
+    }
+
+    private Path write(String content) throws IOException {
+        var file = dir.resolve("title_author.csv");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+
+        return file;
+    }
+
+    private static CsvImporter newImporter() {
+        return new CsvImporter(null, null, "issues", 1, BLOCK_BYTES, 1);
+    }
+
+    private static List<CsvImporter.Block> split(Path file, ImportProgress start) throws IOException {
+        var importer = newImporter();
+        var blocks = new ArrayList<CsvImporter.Block>();
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            importer.splitBlocks(channel, start, blocks::add);
+        }
+
+        return blocks;
+    }
+
+    private static void assertBlocksAreContiguous(List<CsvImporter.Block> blocks, long offset, long firstRecord,
+                                                  long size) {
+        for (int i = 0; i < blocks.size(); i++) {
+            var block = blocks.get(i);
+
+            assertEquals(i, block.index());
+            assertEquals(offset, block.offset());
+            assertEquals(firstRecord, block.firstRecord());
+
+            offset += block.length();
+            firstRecord += block.recordCount();
+        }
+
+        assertEquals(size, offset);
+    }
+}
@@ -0,0 +1,181 @@
+package tech.ydb.app;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Kirill Kurdyukov
+ */
+class IssueCacheTest {
+
+    private static final int ISSUES = 8;
+    private static final int WRITES = 500;
+    private static final IssueChange STOP = new IssueChange(-1, null, null, 0, 0);
+
+    @Test
+    void olderChangesAreSkippedUntilOwnWriteArrives() {
+        var cache = new IssueCache(new StubRepository(), 100);
+        cache.preload(List.of(issue(1, 10)));
+
+        cache.writeThrough(issue(1, 100), 100);
+        cache.apply(change(1, 50));
+        cache.apply(change(1, 0));
+        assertEquals("100", cache.findById(1).status());
+        assertEquals(2, cache.skippedChanges());
+
+        // Сама запись и следующие изменения применяются как обычно
+        cache.apply(change(1, 100));
+        cache.apply(change(1, 150));
+        assertEquals("150", cache.findById(1).status());
+    }
+
+    @Test
+    void writeDoesNotReplaceNewerAppliedChange() {
+        var cache = new IssueCache(new StubRepository(), 100);
+        cache.preload(List.of(issue(1, 10)));
+
+        // Changefeed обогнал ответ на запись: уже пришли сама запись и более новое изменение
+        cache.apply(change(1, 100));
+        cache.apply(change(1, 150));
+        cache.writeThrough(issue(1, 100), 90);
+
+        assertEquals("150", cache.findById(1).status());
+    }
+
+    @Test
+    void olderEraseDoesNotRemoveWrite() {
+        var cache = new IssueCache(new StubRepository(), 100);
+
+        cache.writeThrough(issue(1, 100), 100);
+        cache.apply(new IssueChange(1, issue(1, 10), null, 50, 0));
+        assertEquals("100", cache.findById(1).status());
+
+        cache.apply(new IssueChange(1, issue(1, 100), null, 200, 0));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Писатели пишут свои тикеты и сразу читают их, а общий поток changefeed применяет изменения тех же строк:
+     * закоммиченные до записи, саму запись и более новые изменения других клиентов. Чётные записи приходят
+     * по changefeed после writeThrough, нечётные - до него. Статус тикета - шаг коммита, поэтому чтение после
+     * записи не должно вернуть шаг меньше шага записи, а после всех изменений кэш совпадает с последним из них.
+     */
+    @Test
+    void readYourWritesWithLaggingChangefeed() throws InterruptedException {
+        var cache = new IssueCache(new StubRepository(), 100);
+        var changefeed = new LinkedBlockingQueue<IssueChange>();
+        var appliedSteps = new AtomicLongArray(ISSUES);
+        var errors = new LinkedBlockingQueue<Throwable>();
+
+        var initial = new ArrayList<Issue>();
+        for (long id = 0; id < ISSUES; id++) {
+            initial.add(issue(id, 1));
+        }
+        cache.preload(initial);
+
+        var changefeedThread = Thread.ofPlatform().start(() -> {
+            try {
+                for (var change = changefeed.take(); change != STOP; change = changefeed.take()) {
+                    cache.apply(change);
+                    appliedSteps.set((int) change.id(), change.step());
+                }
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        });
+
+        var writers = new ArrayList<Thread>();
+        for (int id = 0; id < ISSUES; id++) {
+            var ownId = id;
+            writers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    for (long write = 1; write <= WRITES; write++) {
+                        var writeStep = 100 * write;
+                        var commitStep = writeStep + 10;
+
+                        if (write % 2 == 0) {
+                            // Запись вернулась раньше, чем changefeed дошёл до изменения, закоммиченного до неё
+                            cache.writeThrough(issue(ownId, commitStep), writeStep);
+                            assertReadsOwnWrite(cache, ownId, commitStep);
+
+                            changefeed.add(change(ownId, writeStep - 30));
+                            awaitApplied(appliedSteps, ownId, writeStep - 30);
+                            assertReadsOwnWrite(cache, ownId, commitStep);
+
+                            changefeed.add(change(ownId, commitStep));
+                            changefeed.add(change(ownId, writeStep + 50));
+                            awaitApplied(appliedSteps, ownId, writeStep + 50);
+                        } else {
+                            // Changefeed обогнал ответ на запись и уже передал её и следующее изменение
+                            changefeed.add(change(ownId, writeStep - 30));
+                            changefeed.add(change(ownId, commitStep));
+                            changefeed.add(change(ownId, writeStep + 50));
+                            awaitApplied(appliedSteps, ownId, writeStep + 50);
+
+                            cache.writeThrough(issue(ownId, commitStep), writeStep);
+                        }
+                        assertReadsOwnWrite(cache, ownId, writeStep + 50);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+
+        for (var writer : writers) {
+            writer.join(TimeUnit.MINUTES.toMillis(1));
+        }
+        changefeed.add(STOP);
+        changefeedThread.join(TimeUnit.MINUTES.toMillis(1));
+
+        assertEquals(List.of(), List.copyOf(errors));
+        assertEquals((long) ISSUES * WRITES / 2, cache.skippedChanges());
+        for (long id = 0; id < ISSUES; id++) {
+            assertEquals(String.valueOf(100L * WRITES + 50), cache.findById(id).status());
+        }
+    }
+
+    private static void assertReadsOwnWrite(IssueCache cache, long id, long commitStep) {
+        var read = Long.parseLong(cache.findById(id).status());
+
+        if (read < commitStep) {
+            throw new AssertionError("Issue " + id + " read step " + read + " after write at step " + commitStep);
+        }
+    }
+
+    private static void awaitApplied(AtomicLongArray appliedSteps, int id, long step) {
+        while (appliedSteps.get(id) < step) {
+            Thread.yield();
+        }
+    }
+
+    private static IssueChange change(long id, long step) {
+        return new IssueChange(id, null, issue(id, step), step, 0);
+    }
+
+    // Статус - шаг коммита, по нему видно, какая версия строки в кэше
+    private static Issue issue(long id, long step) {
+        return new Issue(id, "title", Instant.EPOCH, "author", 0, String.valueOf(step));
+    }
+
+    private static final class StubRepository extends IssueYdbRepository {
+
+        StubRepository() {
+            super(null);
+        }
+
+        @Override
+        public CompletableFuture<Issue> findByIdAsync(long id) {
+            return CompletableFuture.failedFuture(new AssertionError("Issue " + id + " must be cached"));
+        }
+    }
+}
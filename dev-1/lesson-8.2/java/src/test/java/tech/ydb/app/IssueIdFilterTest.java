@@ -0,0 +1,204 @@
+package tech.ydb.app;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import tech.ydb.topic.TopicClient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Kirill Kurdyukov
+ */
+class IssueIdFilterTest {
+
+    @Test
+    void addedIdsAreNeverMissing() {
+        var filter = new IssueIdFilter(100_000);
+
+        for (long id = 0; id < 100_000; id++) {
+            filter.add(id * 7919);
+        }
+
+        assertFalse(filter.isSaturated());
+        for (long id = 0; id < 100_000; id++) {
+            assertTrue(filter.mightContain(id * 7919));
+        }
+    }
+
+    @Test
+    void mostAbsentIdsAreFiltered() {
+        var filter = new IssueIdFilter(10_000);
+        for (long id = 0; id < 10_000; id++) {
+            filter.add(id);
+        }
+
+        var present = 0;
+        for (long id = 1_000_000; id < 1_100_000; id++) {
+            present += filter.mightContain(id) ? 1 : 0;
+        }
+
+        // 16-битные отпечатки в двух корзинах по 4: ложноположительных около 0.01%
+        assertTrue(present < 100, "false positives: " + present);
+        assertEquals(100_000 - present, filter.absentCount());
+    }
+
+    @Test
+    void saturatedFilterAnswersMaybe() {
+        var filter = new IssueIdFilter(16);
+
+        for (long id = 0; id < 1_000; id++) {
+            filter.add(id);
+        }
+
+        assertTrue(filter.isSaturated());
+        assertTrue(filter.mightContain(-1));
+    }
+
+    @Test
+    void erasesAreSkippedUntilFillCompletes() {
+        var filter = new IssueIdFilter(1_000);
+        var scan = new CompletableFuture<Long>();
+        var fill = filter.fillAsync(new StubScanner(scan));
+
+        filter.apply(insert(1));
+        filter.apply(insert(2));
+        filter.apply(erase(1));
+
+        // Удаление могло относиться к строке, которую чтение ещё добавит, поэтому id остаётся в фильтре
+        assertTrue(filter.mightContain(1));
+        assertEquals(1, filter.skippedErases());
+
+        scan.complete(0L);
+        fill.join();
+        filter.apply(erase(2));
+
+        assertFalse(filter.mightContain(2));
+        assertEquals(1, filter.skippedErases());
+    }
+
+    @Test
+    void eraseWithoutOldImageIsIgnored() {
+        var filter = new IssueIdFilter(1_000);
+        filter.fillAsync(new StubScanner(CompletableFuture.completedFuture(0L))).join();
+        filter.apply(insert(1));
+
+        filter.apply(new IssueChange(1, null, null, 0, 0));
+
+        assertTrue(filter.mightContain(1));
+        assertEquals(1, filter.count());
+    }
+
+    @Test
+    void saturatedFilterIsRebuiltAfterFill() {
+        var filter = new IssueIdFilter(16);
+
+        filter.fillAsync(new StubScanner(CompletableFuture.completedFuture(1_000L), 1_000)).join();
+
+        // Переполненная при чтении таблица заменена таблицей на удвоенное число прочитанных id
+        assertFalse(filter.isSaturated());
+        assertEquals(1, filter.rebuildCount());
+        assertEquals(1_000, filter.count());
+        for (long id = 0; id < 1_000; id++) {
+            assertTrue(filter.mightContain(id));
+        }
+    }
+
+    @Test
+    void changesDuringRebuildReachNewTable() {
+        var filter = new IssueIdFilter(1_000);
+        filter.fillAsync(new StubScanner(CompletableFuture.completedFuture(10L), 10)).join();
+        filter.apply(insert(42));
+
+        var scan = new CompletableFuture<Long>();
+        var rebuild = filter.rebuildAsync(new StubScanner(scan, 10));
+        filter.apply(insert(100));
+        filter.apply(erase(42));
+
+        // До замены отвечает старая таблица, в ней удаление уже применяется
+        assertFalse(filter.mightContain(42));
+        assertTrue(filter.mightContain(100));
+
+        scan.complete(10L);
+        rebuild.join();
+
+        assertEquals(1, filter.rebuildCount());
+        assertTrue(filter.mightContain(100));
+        assertTrue(filter.mightContain(5));
+        // В новой таблице удаление пришло во время чтения и пропущено
+        assertEquals(1, filter.skippedErases());
+    }
+
+    @Test
+    void laggingChangefeedMakesFilterStale() {
+        var resolvedStep = new AtomicLong(System.currentTimeMillis());
+        var changefeedWorker = new IssueChangefeedWorker(topicClient(), "test", Runnable::run) {
+            @Override
+            public long resolvedStep() {
+                return resolvedStep.get();
+            }
+        };
+        var filter = new IssueIdFilter(1_000);
+        filter.subscribe(changefeedWorker, Duration.ofSeconds(10));
+
+        assertTrue(filter.isCurrent());
+
+        // Тикеты, созданные другими клиентами за последнюю минуту, фильтр может ещё не знать
+        resolvedStep.set(System.currentTimeMillis() - 60_000);
+        assertFalse(filter.isCurrent());
+        assertEquals(1, filter.staleCount());
+    }
+
+    private static IssueChange insert(long id) {
+        return new IssueChange(id, null, issue(id), 0, 0);
+    }
+
+    private static IssueChange erase(long id) {
+        return new IssueChange(id, issue(id), null, 0, 0);
+    }
+
+    private static Issue issue(long id) {
+        return new Issue(id, "title", Instant.EPOCH, "author", 0, null);
+    }
+
+    // Changefeed в тестах не читается, читатель топика только создаётся
+    private static TopicClient topicClient() {
+        return (TopicClient) Proxy.newProxyInstance(TopicClient.class.getClassLoader(),
+                new Class<?>[]{TopicClient.class}, (proxy, method, args) -> null);
+    }
+
+    /**
+     * Чтение таблицы, которое сразу отдаёт тикеты с id от 0 до rows и завершается вместе с переданным future
+     */
+    private static final class StubScanner extends ParallelIssueScanner {
+
+        private final CompletableFuture<Long> scan;
+        private final int rows;
+
+        StubScanner(CompletableFuture<Long> scan) {
+            this(scan, 0);
+        }
+
+        StubScanner(CompletableFuture<Long> scan, int rows) {
+            super(null, 1, 1, 1);
+            this.scan = scan;
+            this.rows = rows;
+        }
+
+        @Override
+        public CompletableFuture<Long> scanAsync(Consumer<Issue> consumer) {
+            for (long id = 0; id < rows; id++) {
+                consumer.accept(issue(id));
+            }
+
+            return scan;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package tech.ydb.app;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+import tech.ydb.topic.TopicClient;
+import tech.ydb.topic.read.SyncReader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Kirill Kurdyukov
+ */
+class LinkGraphIndexTest {
+
+    private static final List<long[]> EDGES = List.of(
+            new long[]{-5, 1},
+            new long[]{-5, 2},
+            new long[]{1, -5},
+            new long[]{1, 3},
+            new long[]{2, -5},
+            new long[]{3, 1}
+    );
+
+    @Test
+    void loadsEdgesFromAllRanges() {
+        try (var index = newIndex(100)) {
+            assertEquals(EDGES.size(), index.edgeCount());
+            assertArrayEquals(new long[]{1, 2}, sorted(index.neighbors(-5)));
+            assertArrayEquals(new long[]{-5, 3}, sorted(index.neighbors(1)));
+            assertEquals(0, index.neighbors(42).length);
+        }
+    }
+
+    @Test
+    void changesAreVisibleBeforeCompaction() {
+        try (var index = newIndex(100)) {
+            index.apply(new LinkChange(1, 3, true));
+            index.apply(new LinkChange(1, 4, false));
+            index.apply(new LinkChange(42, 1, false));
+
+            assertEquals(3, index.pendingChanges());
+            assertArrayEquals(new long[]{-5, 4}, sorted(index.neighbors(1)));
+            assertEquals(2, index.degree(1));
+            assertArrayEquals(new long[]{1}, index.neighbors(42));
+            assertArrayEquals(new long[]{-5, 4, 2}, index.bfs(1, 2, 10));
+        }
+    }
+
+    @Test
+    void compactionMergesChangesIntoSegments() {
+        try (var index = newIndex(4)) {
+            index.apply(new LinkChange(1, 3, true));
+            index.apply(new LinkChange(1, 4, false));
+            // Источник, которого не было в сегменте, и повторное добавление существующего ребра
+            index.apply(new LinkChange(42, 1, false));
+            index.apply(new LinkChange(-5, 2, false));
+
+            assertEquals(0, index.pendingChanges());
+            assertEquals(EDGES.size() + 1, index.edgeCount());
+            assertArrayEquals(new long[]{-5, 4}, index.neighbors(1));
+            assertArrayEquals(new long[]{1, 2}, index.neighbors(-5));
+            assertArrayEquals(new long[]{1}, index.neighbors(42));
+            assertArrayEquals(new long[]{1}, index.neighbors(3));
+            assertEquals(0, index.degree(4));
+        }
+    }
+
+    @Test
+    void changesDuringLoadOverrideOlderSnapshot() {
+        try (var index = new LinkGraphIndex(topicClient(), Runnable::run, 100)) {
+            // Ребро удалено до того, как чтение таблицы вернуло его из более старого снимка
+            index.apply(new LinkChange(1, 3, true));
+            index.load(new StubRepository(), 4, 2);
+
+            assertArrayEquals(new long[]{-5}, index.neighbors(1));
+            assertEquals(1, index.degree(1));
+        }
+    }
+
+    @Test
+    void negativeBoundsAreRejected() {
+        try (var index = newIndex(100)) {
+            assertThrows(IllegalArgumentException.class, () -> index.bfs(1, -1, 10));
+            assertThrows(IllegalArgumentException.class, () -> index.bfs(1, 2, -1));
+            assertEquals(0, index.bfs(1, 0, 10).length);
+            assertEquals(0, index.bfs(1, 2, 0).length);
+        }
+    }
+
+    @Test
+    void repositoryRejectsNegativeBounds() {
+        var repository = new StubRepository();
+
+        assertThrows(IllegalArgumentException.class, () -> repository.findLinkedWithinAsync(1, -1, 10));
+        assertThrows(IllegalArgumentException.class, () -> repository.findLinkedWithinAsync(1, 2, -1));
+    }
+
+    private static LinkGraphIndex newIndex(int compactionThreshold) {
+        var index = new LinkGraphIndex(topicClient(), Runnable::run, compactionThreshold);
+        index.load(new StubRepository(), 4, 2);
+
+        return index;
+    }
+
+    // Changefeed в тестах не читается: изменения передаются в apply напрямую, а читатель только закрывается
+    private static TopicClient topicClient() {
+        var reader = stub(SyncReader.class);
+
+        return (TopicClient) Proxy.newProxyInstance(TopicClient.class.getClassLoader(),
+                new Class<?>[]{TopicClient.class},
+                (proxy, method, args) -> method.getReturnType() == SyncReader.class ? reader : null);
+    }
+
+    private static <T> T stub(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> null));
+    }
+
+    private static long[] sorted(long[] values) {
+        Arrays.sort(values);
+
+        return values;
+    }
+
+    /**
+     * Отдаёт рёбра {@link #EDGES} диапазона source в порядке (source, destination), как запрос к таблице links
+     */
+    private static final class StubRepository extends IssueYdbRepository {
+
+        StubRepository() {
+            super(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> streamLinksRangeAsync(long fromSource, long toSource, LinkConsumer consumer) {
+            for (var edge : EDGES) {
+                if (fromSource <= edge[0] && edge[0] <= toSource) {
+                    consumer.accept(edge[0], edge[1]);
+                }
+            }
+
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
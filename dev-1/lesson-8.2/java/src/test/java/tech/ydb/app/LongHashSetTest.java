@@ -0,0 +1,91 @@
+package tech.ydb.app;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Kirill Kurdyukov
+ */
+class LongHashSetTest {
+
+    @Test
+    void zeroIsStoredSeparately() {
+        var set = new LongHashSet(4);
+
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.contains(0));
+        assertEquals(1, set.size());
+
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    void growsBeyondExpectedSize() {
+        var set = new LongHashSet(4);
+
+        for (long value = 1; value <= 10_000; value++) {
+            assertTrue(set.add(value));
+        }
+
+        assertEquals(10_000, set.size());
+        for (long value = 1; value <= 10_000; value++) {
+            assertTrue(set.contains(value));
+        }
+        assertFalse(set.contains(10_001));
+    }
+
+    // Удаление сдвигает следующие элементы цепочки, поэтому сверяемся с HashSet на случайных операциях
+    @Test
+    void matchesHashSetOnRandomOperations() {
+        var random = new Random(42);
+        var set = new LongHashSet(16);
+        var expected = new HashSet<Long>();
+
+        for (int i = 0; i < 200_000; i++) {
+            // Узкий диапазон значений даёт много совпадений и длинные цепочки
+            var value = random.nextInt(2_000) - 1_000L;
+
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(value), set.add(value));
+            } else {
+                assertEquals(expected.remove(value), set.remove(value));
+            }
+        }
+
+        assertEquals(expected.size(), set.size());
+        for (long value = -1_000; value < 1_000; value++) {
+            assertEquals(expected.contains(value), set.contains(value), "value " + value);
+        }
+
+        var actual = set.toArray();
+        Arrays.sort(actual);
+        assertArrayEquals(expected.stream().mapToLong(Long::longValue).sorted().toArray(), actual);
+    }
+
+    @Test
+    void clearRemovesEverything() {
+        var set = new LongHashSet(16);
+        set.add(0);
+        set.add(7);
+        set.add(-7);
+
+        set.clear();
+
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(7));
+        assertEquals(0, set.toArray().length);
+    }
+}
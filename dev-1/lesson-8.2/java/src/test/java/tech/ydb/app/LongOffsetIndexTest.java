@@ -0,0 +1,69 @@
+package tech.ydb.app;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Kirill Kurdyukov
+ */
+class LongOffsetIndexTest {
+
+    @Test
+    void putReturnsPreviousValue() {
+        var index = new LongOffsetIndex(16);
+
+        assertEquals(LongOffsetIndex.ABSENT, index.put(5, 0));
+        assertEquals(0, index.put(5, 100));
+        assertEquals(100, index.get(5));
+        assertEquals(1, index.size());
+
+        assertEquals(100, index.remove(5));
+        assertEquals(LongOffsetIndex.ABSENT, index.remove(5));
+        assertEquals(LongOffsetIndex.ABSENT, index.get(5));
+        assertEquals(0, index.size());
+    }
+
+    // Ключ 0 и отрицательные ключи хранятся как обычные: пустую ячейку обозначает значение, а не ключ
+    @Test
+    void zeroAndNegativeKeys() {
+        var index = new LongOffsetIndex(16);
+
+        index.put(0, 1);
+        index.put(-1, 2);
+        index.put(Long.MIN_VALUE, 3);
+
+        assertEquals(1, index.get(0));
+        assertEquals(2, index.get(-1));
+        assertEquals(3, index.get(Long.MIN_VALUE));
+    }
+
+    // Удаление сдвигает следующие записи цепочки, поэтому сверяемся с HashMap на случайных операциях
+    @Test
+    void matchesHashMapOnRandomOperations() {
+        var random = new Random(42);
+        var index = new LongOffsetIndex(16);
+        var expected = new HashMap<Long, Long>();
+
+        for (int i = 0; i < 200_000; i++) {
+            var key = random.nextInt(2_000) - 1_000L;
+
+            if (random.nextInt(3) > 0) {
+                var value = (long) random.nextInt(1_000_000);
+                assertEquals((long) expected.getOrDefault(key, LongOffsetIndex.ABSENT), index.put(key, value));
+                expected.put(key, value);
+            } else {
+                var removed = expected.remove(key);
+                assertEquals(removed == null ? LongOffsetIndex.ABSENT : removed, index.remove(key));
+            }
+        }
+
+        assertEquals(expected.size(), index.size());
+        for (long key = -1_000; key < 1_000; key++) {
+            assertEquals((long) expected.getOrDefault(key, LongOffsetIndex.ABSENT), index.get(key), "key " + key);
+        }
+    }
+}
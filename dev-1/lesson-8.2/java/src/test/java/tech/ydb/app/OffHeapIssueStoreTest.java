@@ -0,0 +1,90 @@
+package tech.ydb.app;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Kirill Kurdyukov
+ */
+class OffHeapIssueStoreTest {
+
+    // Записи с длинным названием, чтобы заполнить несколько буферов по 16 МБ
+    private static final String LONG_TITLE = "x".repeat(4_000);
+
+    @Test
+    void sameSizeUpdateIsWrittenInPlace() {
+        var store = new OffHeapIssueStore(16);
+        store.put(issue(1, "title", "open"));
+
+        store.put(issue(1, "title", "done"));
+
+        assertEquals(0, store.garbageBytes());
+        assertEquals("done", store.get(1).status());
+    }
+
+    @Test
+    void compactionFreesChunksAndKeepsLiveRecords() {
+        var store = new OffHeapIssueStore(16);
+        var issues = 10_000;
+
+        for (long id = 0; id < issues; id++) {
+            store.put(issue(id, LONG_TITLE, "open"));
+        }
+        // Новые версии длиннее, поэтому старые становятся мусором
+        for (long id = 0; id < issues; id++) {
+            if (id % 3 != 0) {
+                store.put(issue(id, LONG_TITLE + id, "done"));
+            }
+        }
+        store.remove(0);
+
+        var bytesBefore = store.offHeapBytes();
+        var liveBytes = store.liveBytes();
+
+        assertTrue(store.compactIfGarbageAbove(0.3));
+        assertTrue(store.offHeapBytes() < bytesBefore);
+        assertEquals(liveBytes, store.liveBytes());
+
+        store.compact();
+        assertEquals(0, store.garbageBytes());
+        assertFalse(store.compactIfGarbageAbove(0.5));
+
+        assertNull(store.get(0));
+        assertEquals(issues - 1, store.size());
+        for (long id = 1; id < issues; id++) {
+            var issue = store.get(id);
+
+            assertEquals(id % 3 == 0 ? LONG_TITLE : LONG_TITLE + id, issue.title());
+            assertEquals(id % 3 == 0 ? "open" : "done", issue.status());
+        }
+    }
+
+    // Освобождённые при сжатии буферы используются снова, а записи в них не путаются со старыми
+    @Test
+    void freedChunksAreReused() {
+        var store = new OffHeapIssueStore(16);
+
+        for (int round = 0; round < 5; round++) {
+            for (long id = 0; id < 5_000; id++) {
+                store.put(issue(id, LONG_TITLE + "y".repeat(round), "round " + round));
+            }
+            store.compact();
+        }
+
+        assertEquals(0, store.garbageBytes());
+        assertTrue(store.offHeapBytes() <= 2L * store.liveBytes() + (32 << 20));
+        for (long id = 0; id < 5_000; id++) {
+            assertEquals("round 4", store.get(id).status());
+        }
+    }
+
+    private static Issue issue(long id, String title, String status) {
+        return new Issue(id, title, Instant.ofEpochSecond(1_700_000_000L), "author", 0, status);
+    }
+}